@@ -2,8 +2,11 @@ package com.example.samuraitravel;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.session.SessionAutoConfiguration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@SpringBootApplication
+@SpringBootApplication(exclude = SessionAutoConfiguration.class) // HTTPセッションの保存先はSessionConfigで設定する
+@EnableScheduling
 public class SamuraitravelApplication {
 
 	public static void main(String[] args) {
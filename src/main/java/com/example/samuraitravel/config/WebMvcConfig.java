@@ -0,0 +1,28 @@
+package com.example.samuraitravel.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.service.HouseImageProcessor;
+
+/*
+ * HouseImageProcessorがソースツリーの外に保存した縮小画像を、/storage/variants/で配信する
+ * 縮小画像は内容が変わるとファイル名（元の画像のファイル名）も変わるため、ブラウザに長期間キャッシュさせる
+ */
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+    private final HouseImageProcessor houseImageProcessor;
+
+    public WebMvcConfig(HouseImageProcessor houseImageProcessor) {
+        this.houseImageProcessor = houseImageProcessor;
+    }
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler("/storage/" + House.IMAGE_VARIANT_PATH + "**")
+                .addResourceLocations(houseImageProcessor.getVariantDirectory().toUri().toString().replaceAll("/?$", "/"))
+                .setCachePeriod(365 * 24 * 60 * 60);
+    }
+}
@@ -139,6 +139,14 @@ public class AdminHouseController {
         return "redirect:/admin/houses";
     }
 
+    @PostMapping("/stats/rebuild")
+    public String rebuildStats(RedirectAttributes redirectAttributes) {
+        houseService.rebuildHouseStats();
+        redirectAttributes.addFlashAttribute("successMessage", "民宿の予約数を再集計しました。");
+
+        return "redirect:/admin/houses";
+    }
+
     @PostMapping("/{id}/delete")
     public String delete(@PathVariable(name = "id") Integer id, RedirectAttributes redirectAttributes) {
         Optional<House> optionalHouse = houseService.findHouseById(id);
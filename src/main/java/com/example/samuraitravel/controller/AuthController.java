@@ -13,7 +13,6 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.entity.VerificationToken;
-import com.example.samuraitravel.event.SignupEventPublisher;
 import com.example.samuraitravel.form.SignupForm;
 import com.example.samuraitravel.service.UserService;
 import com.example.samuraitravel.service.VerificationTokenService;
@@ -23,13 +22,10 @@ import jakarta.servlet.http.HttpServletRequest;
 @Controller
 public class AuthController {
     private final UserService userService;
-    private final SignupEventPublisher signupEventPublisher;
     private final VerificationTokenService verificationTokenService;
 
-    public AuthController(UserService userService, SignupEventPublisher signupEventPublisher,
-            VerificationTokenService verificationTokenService) {
+    public AuthController(UserService userService, VerificationTokenService verificationTokenService) {
         this.userService = userService;
-        this.signupEventPublisher = signupEventPublisher;
         this.verificationTokenService = verificationTokenService;
     }
 
@@ -68,9 +64,8 @@ public class AuthController {
             return "auth/signup";
         }
 
-        User createdUser = userService.createUser(signupForm);
         String requestUrl = new String(httpServletRequest.getRequestURL());
-        signupEventPublisher.publishSignupEvent(createdUser, requestUrl);
+        userService.createUser(signupForm, requestUrl);
         redirectAttributes.addFlashAttribute("successMessage",
                 "ご入力いただいたメールアドレスに認証メールを送信しました。メールに記載されているリンクをクリックし、会員登録を完了してください。");
 
@@ -19,15 +19,18 @@ import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.security.UserDetailsImpl;
 import com.example.samuraitravel.service.FavoriteService;
 import com.example.samuraitravel.service.HouseService;
+import com.example.samuraitravel.service.UserService;
 
 @Controller
 public class FavoriteController {
     private final HouseService houseService;
     private final FavoriteService favoriteService;
+    private final UserService userService;
 
-    public FavoriteController(HouseService houseService, FavoriteService favoriteService) {
+    public FavoriteController(HouseService houseService, FavoriteService favoriteService, UserService userService) {
         this.houseService = houseService;
         this.favoriteService = favoriteService;
+        this.userService = userService;
     }
 
     @GetMapping("/favorites")
@@ -35,7 +38,7 @@ public class FavoriteController {
                         @PageableDefault(page = 0, size = 10, sort = "id") Pageable pageable,
                         Model model)
     {
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
         Page<Favorite> favoritePage = favoriteService.findFavoritesByUserOrderByCreatedAtDesc(user, pageable);
 
         model.addAttribute("favoritePage", favoritePage);
@@ -58,7 +61,7 @@ public class FavoriteController {
         }
 
         House house = optionalHouse.get();
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
 
         favoriteService.createFavorite(house, user);
         redirectAttributes.addFlashAttribute("successMessage", "お気に入りに追加しました。");
@@ -83,9 +86,9 @@ public class FavoriteController {
 
         House house = optionalHouse.get();
         Favorite favorite = optionalFavorite.get();
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
 
-        if (!favorite.getHouse().equals(house) || !favorite.getUser().equals(user)) {
+        if (!favorite.getHouse().equals(house) || !favorite.getUser().getId().equals(user.getId())) {
             redirectAttributes.addFlashAttribute("errorMessage", "不正なアクセスです。");
 
             return "redirect:/houses/{houseId}";
@@ -1,12 +1,15 @@
 package com.example.samuraitravel.controller;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -14,12 +17,15 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
-import com.example.samuraitravel.entity.Favorite;
+import com.example.samuraitravel.dto.CursorPage;
+import com.example.samuraitravel.dto.HouseAvailability;
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+import com.example.samuraitravel.dto.HouseViewerContext;
+import com.example.samuraitravel.dto.ReviewSummary;
 import com.example.samuraitravel.entity.House;
-import com.example.samuraitravel.entity.Review;
-import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.form.ReservationInputForm;
 import com.example.samuraitravel.security.UserDetailsImpl;
 import com.example.samuraitravel.service.FavoriteService;
@@ -43,84 +49,106 @@ public class HouseController {
     public String index(@RequestParam(name = "keyword", required = false) String keyword,
             @RequestParam(name = "area", required = false) String area,
             @RequestParam(name = "price", required = false) Integer price,
+            @RequestParam(name = "capacity", required = false) Integer capacity,
+            @RequestParam(name = "checkinDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkinDate,
+            @RequestParam(name = "checkoutDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkoutDate,
             @RequestParam(name = "order", required = false) String order,
-            @PageableDefault(page = 0, size = 10, sort = "id", direction = Direction.ASC) Pageable pageable,
+            @RequestParam(name = "cursor", required = false) String cursor,
+            @RequestParam(name = "page", required = false) Integer page,
+            @PageableDefault(page = 0, size = 10) Pageable pageable,
+            @AuthenticationPrincipal UserDetailsImpl userDetailsImpl,
             Model model) {
-        Page<House> housePage;
-
-        if (keyword != null && !keyword.isEmpty()) {
-            if (order != null && order.equals("priceAsc")) {
-                housePage = houseService.findHousesByNameLikeOrAddressLikeOrderByPriceAsc(keyword, keyword, pageable);
-            } else {
-                housePage = houseService.findHousesByNameLikeOrAddressLikeOrderByCreatedAtDesc(keyword, keyword,
-                        pageable);
-            }
-        } else if (area != null && !area.isEmpty()) {
-            if (order != null && order.equals("priceAsc")) {
-                housePage = houseService.findHousesByAddressLikeOrderByPriceAsc(area, pageable);
-            } else {
-                housePage = houseService.findHousesByAddressLikeOrderByCreatedAtDesc(area, pageable);
-            }
-        } else if (price != null) {
-            if (order != null && order.equals("priceAsc")) {
-                housePage = houseService.findHousesByPriceLessThanEqualOrderByPriceAsc(price, pageable);
-            } else {
-                housePage = houseService.findHousesByPriceLessThanEqualOrderByCreatedAtDesc(price, pageable);
-            }
+        // 指定された条件を組み合わせて1回のクエリで検索する（並べ替え順は検索条件で決まる）
+        HouseSearchCriteria criteria = new HouseSearchCriteria(keyword, area, price, capacity, checkinDate, checkoutDate, order);
+
+        // ページ番号が指定された場合のみ従来のページング、それ以外はカーソルによるキーセットページングを行う
+        List<House> houses;
+
+        if (page != null) {
+            Page<House> housePage = houseService.searchHouses(criteria, pageable);
+            houses = housePage.getContent();
+            model.addAttribute("housePage", housePage);
         } else {
-            if (order != null && order.equals("priceAsc")) {
-                housePage = houseService.findAllHousesByOrderByPriceAsc(pageable);
-            } else {
-                housePage = houseService.findAllHousesByOrderByCreatedAtDesc(pageable);
-            }
+            CursorPage<House> houseCursorPage = houseService.scrollHouses(criteria, cursor, pageable.getPageSize());
+            houses = houseCursorPage.getContent();
+            model.addAttribute("houseCursorPage", houseCursorPage);
         }
 
-        model.addAttribute("housePage", housePage);
+        model.addAttribute("houses", houses);
+        // 各カードのお気に入り数は、お気に入りテーブルを数えずにメモリ上のカウンターの値を使う
+        model.addAttribute("favoriteCounts", favoriteService.getFavoriteCounts(houses.stream().map(House::getId).toList()));
+
         model.addAttribute("keyword", keyword);
         model.addAttribute("area", area);
         model.addAttribute("price", price);
+        model.addAttribute("capacity", capacity);
+        model.addAttribute("checkinDate", checkinDate);
+        model.addAttribute("checkoutDate", checkoutDate);
         model.addAttribute("order", order);
 
+        // ログイン中の場合は、各カードのお気に入りの状態をキャッシュ済みのidの集合で判定する（カードごとのクエリは実行しない）
+        if (userDetailsImpl != null) {
+            model.addAttribute("favoriteHouseIds", favoriteService.findFavoriteHouseIds(userDetailsImpl.getUserId()));
+        }
+
         return "houses/index";
     }
 
+    // 民宿詳細ページのカレンダー用に、予約済みの日付の範囲をJSONで返す（未指定の場合は今日から3か月先まで）
+    // 空室状況のバージョンをETagとし、変更がなければ304 Not Modifiedを返す
+    @GetMapping("/{id}/availability")
+    public ResponseEntity<HouseAvailability> availability(@PathVariable(name = "id") Integer id,
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            WebRequest webRequest) {
+        String version = houseService.findAvailabilityVersion(id);
+
+        if (version == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        LocalDate today = LocalDate.now();
+        LocalDate fromDate = from != null ? from : today;
+        LocalDate toDate = to != null ? to : today.plusMonths(3).plusDays(1);
+        String eTag = "\"" + version + "-" + fromDate + "-" + toDate + "\"";
+
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache())
+                .body(houseService.findAvailability(id, fromDate, toDate));
+    }
+
     @GetMapping("/{id}")
     public String show(@PathVariable(name = "id") Integer id,
             @AuthenticationPrincipal UserDetailsImpl userDetailsImpl,
             RedirectAttributes redirectAttributes,
             Model model) {
-        Optional<House> optionalHouse = houseService.findHouseById(id);
+        // 民宿と閲覧者のレビュー・お気に入りの有無を1回のクエリで、最新のレビューをもう1回のクエリで取得する
+        Integer userId = userDetailsImpl != null ? userDetailsImpl.getUserId() : null;
+        Optional<HouseViewerContext> optionalViewerContext = houseService.findHouseViewerContext(id, userId);
 
-        if (optionalHouse.isEmpty()) {
+        if (optionalViewerContext.isEmpty()) {
             redirectAttributes.addFlashAttribute("errorMessage", "民宿が存在しません。");
             return "redirect:/houses";
         }
 
-        House house = optionalHouse.get();
-        boolean hasUserAlreadyReviewed = false;
-        Favorite favorite = null;
-        boolean isFavorite = false;
-
-        if (userDetailsImpl != null) {
-            User user = userDetailsImpl.getUser();
-            hasUserAlreadyReviewed = reviewService.hasUserAlreadyReviewed(house, user);
-            isFavorite = favoriteService.isFavorite(house, user);
-
-            if (isFavorite) {
-                favorite = favoriteService.findFavoriteByHouseAndUser(house, user);
-            }
-        }
-
-        List<Review> newReviews = reviewService.findTop6ReviewsByHouseOrderByCreatedAtDesc(house);
-        long totalReviewCount = reviewService.countReviewsByHouse(house);
+        HouseViewerContext viewerContext = optionalViewerContext.get();
+        House house = viewerContext.getHouse();
+        List<ReviewSummary> newReviews = reviewService.findLatestReviewSummaries(house.getId(), 6);
 
         model.addAttribute("house", house);
         model.addAttribute("reservationInputForm", new ReservationInputForm());
-        model.addAttribute("hasUserAlreadyReviewed", hasUserAlreadyReviewed);
+        model.addAttribute("hasUserAlreadyReviewed", viewerContext.hasReviewed());
         model.addAttribute("newReviews", newReviews);
-        model.addAttribute("totalReviewCount", totalReviewCount);
-        model.addAttribute("favorite", favorite);
-        model.addAttribute("isFavorite", isFavorite);
+        // レビューの件数は、レビューテーブルを数えずに民宿テーブルの集計値を使う
+        model.addAttribute("totalReviewCount", house.getReviewCount());
+        model.addAttribute("favoriteId", viewerContext.getFavoriteId());
+        model.addAttribute("isFavorite", viewerContext.isFavorite());
+        model.addAttribute("favoriteCount", favoriteService.getFavoriteCount(house.getId()));
 
         return "houses/show";
     }
@@ -1,5 +1,6 @@
 package com.example.samuraitravel.controller;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.Optional;
 
@@ -19,15 +20,19 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import com.example.samuraitravel.dto.CheckoutSessionEntry;
 import com.example.samuraitravel.dto.ReservationDTO;
+import com.example.samuraitravel.dto.ReservationHold;
 import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.entity.Reservation;
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.form.ReservationInputForm;
 import com.example.samuraitravel.security.UserDetailsImpl;
 import com.example.samuraitravel.service.HouseService;
+import com.example.samuraitravel.service.ReservationHoldManager;
 import com.example.samuraitravel.service.ReservationService;
 import com.example.samuraitravel.service.StripeService;
+import com.example.samuraitravel.service.UserService;
 
 import jakarta.servlet.http.HttpSession;
 
@@ -36,18 +41,21 @@ public class ReservationController {
     private final ReservationService reservationService;
     private final HouseService houseService;
     private final StripeService stripeService; 
+    private final UserService userService;
 
-    public ReservationController(ReservationService reservationService, HouseService houseService, StripeService stripeService) {
+    public ReservationController(ReservationService reservationService, HouseService houseService, StripeService stripeService,
+            UserService userService) {
         this.reservationService = reservationService;
         this.houseService = houseService;
         this.stripeService = stripeService;
+        this.userService = userService;
     }
 
     @GetMapping("/reservations")
     public String index(@AuthenticationPrincipal UserDetailsImpl userDetailsImpl,
             @PageableDefault(page = 0, size = 10, sort = "id", direction = Direction.ASC) Pageable pageable,
             Model model) {
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
         Page<Reservation> reservationPage = reservationService.findReservationsByUserOrderByCreatedAtDesc(user,
                 pageable);
 
@@ -86,6 +94,11 @@ public class ReservationController {
             FieldError fieldError = new FieldError(bindingResult.getObjectName(), "checkinDate",
                     "チェックイン日はチェックアウト日よりも前の日付を選択してください。");
             bindingResult.addError(fieldError);
+        } else if (checkinDate != null && checkoutDate != null
+                && !reservationService.isAvailable(house, checkinDate, checkoutDate)) {
+            FieldError fieldError = new FieldError(bindingResult.getObjectName(), "checkinDate",
+                    "選択された日程はすでに予約が入っています。");
+            bindingResult.addError(fieldError);
         }
 
         if (numberOfPeople != null && !reservationService.isWithinCapacity(numberOfPeople, capacity)) {
@@ -133,10 +146,52 @@ public class ReservationController {
             return "redirect:/houses";
         }
 
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
+
+        // 予約内容が変わっておらず、有効期限まで余裕があれば作成済みのStripeのセッションを使い回す
+        String fingerprint = user.getId() + "|" + reservationDTO.fingerprint();
+        CheckoutSessionEntry checkoutSessionEntry = (CheckoutSessionEntry) httpSession.getAttribute("checkoutSessionEntry");
+
+        if (checkoutSessionEntry != null && checkoutSessionEntry.isReusableFor(fingerprint, Instant.now())) {
+            model.addAttribute("reservationDTO", reservationDTO);
+            model.addAttribute("sessionId", checkoutSessionEntry.getSessionId());
+
+            return "reservations/confirm";
+        }
+
+        // 予約内容が変わった場合や有効期限が近い場合は、前回の仮押さえを解放してから仮押さえし直す
+        // （日程を変えた場合に、前回の日程が有効期限まで他のお客様に仮押さえされたままにならないようにする）
+        if (checkoutSessionEntry != null) {
+            reservationService.releaseHold(checkoutSessionEntry.getReservationHold());
+            httpSession.removeAttribute("checkoutSessionEntry");
+        }
+
+        // 決済が完了するまで日程を仮押さえする
+        Optional<ReservationHold> optionalReservationHold = reservationService.holdReservation(reservationDTO, user);
+
+        if (optionalReservationHold.isEmpty()) {
+            redirectAttributes.addFlashAttribute("errorMessage", "選択された日程は他のお客様が予約手続き中、またはすでに予約が入っています。");
+
+            return "redirect:/houses/" + reservationDTO.getHouseId();
+        }
+
+        // セッションの有効期限は作成前の時刻から求める（実際の有効期限より少しだけ早くなる）
+        Instant expiresAt = Instant.now().plus(ReservationHoldManager.CHECKOUT_TTL);
+        ReservationHold reservationHold = optionalReservationHold.get();
+        String sessionId = stripeService.createStripeSession(reservationDTO, user, reservationHold);
+
+        if (sessionId.isEmpty()) {
+            // セッションを作成できなかった場合は仮押さえを解放し、決済できない確認ページを表示せずに民宿の詳細ページに戻す
+            reservationService.releaseHold(reservationHold);
+            httpSession.removeAttribute("checkoutSessionEntry");
+            redirectAttributes.addFlashAttribute("errorMessage", "現在決済サービスに接続できません。しばらくしてからもう一度お試しください。");
+
+            return "redirect:/houses/" + reservationDTO.getHouseId();
+        }
+
+        httpSession.setAttribute("checkoutSessionEntry",
+                new CheckoutSessionEntry(fingerprint, sessionId, reservationHold, expiresAt));
 
-        String sessionId = stripeService.createStripeSession(reservationDTO, user);
-                
         model.addAttribute("reservationDTO", reservationDTO);
         model.addAttribute("sessionId", sessionId);
 
@@ -15,8 +15,10 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import com.example.samuraitravel.dto.CursorPage;
 import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.entity.Review;
 import com.example.samuraitravel.entity.User;
@@ -25,20 +27,25 @@ import com.example.samuraitravel.form.ReviewRegisterForm;
 import com.example.samuraitravel.security.UserDetailsImpl;
 import com.example.samuraitravel.service.HouseService;
 import com.example.samuraitravel.service.ReviewService;
+import com.example.samuraitravel.service.UserService;
 
 @Controller
 @RequestMapping("/houses/{houseId}/reviews")
 public class ReviewController {
     private final HouseService houseService;
     private final ReviewService reviewService;
+    private final UserService userService;
 
-    public ReviewController(HouseService houseService, ReviewService reviewService) {
+    public ReviewController(HouseService houseService, ReviewService reviewService, UserService userService) {
         this.houseService = houseService;
         this.reviewService = reviewService;
+        this.userService = userService;
     }
 
     @GetMapping
     public String index(@PathVariable(name = "houseId") Integer houseId,
+                        @RequestParam(name = "cursor", required = false) String cursor,
+                        @RequestParam(name = "page", required = false) Integer page,
                         @PageableDefault(page = 0, size = 10, sort = "id") Pageable pageable,
                         RedirectAttributes redirectAttributes,
                         Model model)
@@ -52,10 +59,19 @@ public class ReviewController {
         }
 
         House house = optionalHouse.get();
-        Page<Review> reviewPage = reviewService.findReviewsByHouseOrderByCreatedAtDesc(house, pageable);
+
+        // ページ番号が指定された場合のみ従来のページング、それ以外はカーソルによるキーセットページングを行う
+        if (page != null) {
+            Page<Review> reviewPage = reviewService.findReviewsByHouseOrderByCreatedAtDesc(house, pageable);
+            model.addAttribute("reviewPage", reviewPage);
+            model.addAttribute("reviews", reviewPage.getContent());
+        } else {
+            CursorPage<Review> reviewCursorPage = reviewService.scrollReviewsByHouse(house, cursor, pageable.getPageSize());
+            model.addAttribute("reviewCursorPage", reviewCursorPage);
+            model.addAttribute("reviews", reviewCursorPage.getContent());
+        }
 
         model.addAttribute("house", house);
-        model.addAttribute("reviewPage", reviewPage);
 
         return "reviews/index";
     }
@@ -103,7 +119,7 @@ public class ReviewController {
             return "reviews/register";
         }
 
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
 
         reviewService.createReview(reviewRegisterForm, house, user);
         redirectAttributes.addFlashAttribute("successMessage", "レビューを投稿しました。");
@@ -129,9 +145,9 @@ public class ReviewController {
 
         House house = optionalHouse.get();
         Review review = optionalReview.get();
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
 
-        if (!review.getHouse().equals(house) || !review.getUser().equals(user)) {
+        if (!review.getHouse().equals(house) || !review.getUser().getId().equals(user.getId())) {
             redirectAttributes.addFlashAttribute("errorMessage", "不正なアクセスです。");
 
             return "redirect:/houses/{houseId}";
@@ -166,9 +182,9 @@ public class ReviewController {
 
         House house = optionalHouse.get();
         Review review = optionalReview.get();
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
 
-        if (!review.getHouse().equals(house) || !review.getUser().equals(user)) {
+        if (!review.getHouse().equals(house) || !review.getUser().getId().equals(user.getId())) {
             redirectAttributes.addFlashAttribute("errorMessage", "不正なアクセスです。");
 
             return "redirect:/houses/{houseId}";
@@ -205,9 +221,9 @@ public class ReviewController {
 
         House house = optionalHouse.get();
         Review review = optionalReview.get();
-        User user = userDetailsImpl.getUser();
+        User user = userService.getUserReference(userDetailsImpl.getUserId());
 
-        if (!review.getHouse().equals(house) || !review.getUser().equals(user)) {
+        if (!review.getHouse().equals(house) || !review.getUser().getId().equals(user.getId())) {
             redirectAttributes.addFlashAttribute("errorMessage", "不正なアクセスです。");
 
             return "redirect:/houses/{houseId}";
@@ -8,22 +8,24 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 
-import com.example.samuraitravel.service.StripeService;
+import com.example.samuraitravel.service.WebhookInboxService;
+import com.example.samuraitravel.service.WebhookInboxWorker;
 import com.stripe.exception.SignatureVerificationException;
 import com.stripe.model.Event;
 import com.stripe.net.Webhook;
 
 @Controller
 public class StripeWebhookController {
-    private final StripeService stripeService;
+    private final WebhookInboxService webhookInboxService;
 
     @Value("${stripe.webhook-secret}")
     private String webhookSecret;
 
-    public StripeWebhookController(StripeService stripeService) {
-        this.stripeService = stripeService;
+    public StripeWebhookController(WebhookInboxService webhookInboxService) {
+        this.webhookInboxService = webhookInboxService;
     }
 
+    // 署名を検証したイベントをwebhook_inboxテーブルに保存してすぐに応答する（予約の登録はWebhookInboxWorkerが非同期で行う）
     @PostMapping("/stripe/webhook")
     public ResponseEntity<String> webhook(@RequestBody String payload, @RequestHeader("Stripe-Signature") String sigHeader) {        
         Event event = null;
@@ -36,11 +38,10 @@ public class StripeWebhookController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
         }
 
-        if ("checkout.session.completed".equals(event.getType())) {
-            stripeService.processSessionCompleted(event);
+        if (WebhookInboxWorker.CHECKOUT_SESSION_COMPLETED.equals(event.getType())) {
+            webhookInboxService.enqueue(event.getId(), event.getType(), payload);
         }
 
         return new ResponseEntity<>("Success", HttpStatus.OK);
     }
 }
-
@@ -1,6 +1,13 @@
 package com.example.samuraitravel.controller;
 
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
@@ -17,19 +24,25 @@ import com.example.samuraitravel.form.UserEditForm;
 import com.example.samuraitravel.security.UserDetailsImpl;
 import com.example.samuraitravel.service.UserService;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 @Controller
 @RequestMapping("/user")
 public class UserController {
 
     private final UserService userService;
+    private final UserDetailsService userDetailsService;
+    private final SecurityContextRepository securityContextRepository = new HttpSessionSecurityContextRepository();
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, UserDetailsService userDetailsService) {
         this.userService = userService;
+        this.userDetailsService = userDetailsService;
     }
 
     @GetMapping
     public String index(@AuthenticationPrincipal UserDetailsImpl userDetailsImpl, Model model) {
-        User user = userDetailsImpl.getUser();
+        User user = userService.findUserById(userDetailsImpl.getUserId()).orElseThrow();
 
         model.addAttribute("user", user);
 
@@ -38,7 +51,7 @@ public class UserController {
 
     @GetMapping("/edit")
     public String edit(@AuthenticationPrincipal UserDetailsImpl userDetailsImpl, Model model) {
-        User user = userDetailsImpl.getUser();
+        User user = userService.findUserById(userDetailsImpl.getUserId()).orElseThrow();
         UserEditForm userEditForm = new UserEditForm(user.getName(), user.getFurigana(), user.getPostalCode(),
                 user.getAddress(), user.getPhoneNumber(), user.getEmail());
 
@@ -52,8 +65,10 @@ public class UserController {
             BindingResult bindingResult,
             @AuthenticationPrincipal UserDetailsImpl userDetailsImpl,
             RedirectAttributes redirectAttributes,
-            Model model) {
-        User user = userDetailsImpl.getUser();
+            Model model,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        User user = userService.findUserById(userDetailsImpl.getUserId()).orElseThrow();
 
         // メールアドレスが変更されており、かつ登録済みであれば、BindingResultオブジェクトにエラー内容を追加する
         if (userService.isEmailChanged(userEditForm, user) && userService.isEmailRegistered(userEditForm.getEmail())) {
@@ -68,9 +83,23 @@ public class UserController {
         }
 
         userService.updateUser(userEditForm, user);
+        refreshPrincipal(userEditForm.getEmail(), request, response);
         redirectAttributes.addFlashAttribute("successMessage", "会員情報を編集しました。");
 
         return "redirect:/user";
     }
 
+    // セッションに保存されているログイン中の会員の情報（氏名やメールアドレス）を、変更後の内容に置き換える
+    private void refreshPrincipal(String email, HttpServletRequest request, HttpServletResponse response) {
+        UserDetails userDetails = userDetailsService.loadUserByUsername(email);
+        UsernamePasswordAuthenticationToken authentication = UsernamePasswordAuthenticationToken.authenticated(userDetails,
+                null, userDetails.getAuthorities());
+        authentication.eraseCredentials();
+        SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+
+        securityContext.setAuthentication(authentication);
+        SecurityContextHolder.setContext(securityContext);
+        securityContextRepository.saveContext(securityContext, request, response);
+    }
+
 }
@@ -0,0 +1,18 @@
+package com.example.samuraitravel.dto;
+
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 予約済みの日付の範囲を受け渡すためのオブジェクト
+ * fromとtoはどちらも宿泊日（予約済みの最初と最後の夜）で、toの翌日はチェックアウト日のため新しい予約のチェックイン日にできる
+ * fromの日は新しい予約のチェックアウト日にできるため、カレンダー（flatpickr.js）ではチェックアウト日としては選べるようにする
+ */
+@Data
+@AllArgsConstructor
+public class BookedDateRange {
+    private LocalDate from;
+
+    private LocalDate to;
+}
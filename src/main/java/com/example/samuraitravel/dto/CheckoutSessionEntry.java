@@ -0,0 +1,32 @@
+package com.example.samuraitravel.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 作成済みのStripeのセッションをHTTPセッションに保持し、予約内容の確認ページの再表示で使い回すためのオブジェクト
+ * 予約内容（民宿・日程・人数・金額）のフィンガープリントが一致し、有効期限まで余裕がある場合のみ使い回す
+ */
+@Data
+@AllArgsConstructor
+public class CheckoutSessionEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // 支払いを終えるまでの時間として、有効期限の手前に残しておく余裕
+    private static final long REUSE_MARGIN_SECONDS = 5 * 60;
+
+    private String fingerprint;
+
+    private String sessionId;
+
+    private ReservationHold reservationHold;
+
+    // Stripeのセッションの有効期限
+    private Instant expiresAt;
+
+    public boolean isReusableFor(String otherFingerprint, Instant now) {
+        return fingerprint.equals(otherFingerprint) && now.plusSeconds(REUSE_MARGIN_SECONDS).isBefore(expiresAt);
+    }
+}
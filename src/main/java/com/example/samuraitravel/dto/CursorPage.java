@@ -0,0 +1,126 @@
+package com.example.samuraitravel.dto;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * キーセット（シーク）方式でページングした一覧を受け渡すためのオブジェクト
+ * OFFSETとCOUNT(*)を使わず、前ページ・次ページの境界となるキー（作成日時とidなど）をカーソルとして受け渡す
+ * カーソルはキーの値をBase64でエンコードした文字列で、画面側では中身を意識しない
+ */
+@Data
+@AllArgsConstructor
+public class CursorPage<T> {
+    private static final String FORWARD = "f";
+    private static final String BACKWARD = "b";
+
+    private List<T> content;
+
+    // 次ページのカーソル（次ページがなければnull）
+    private String nextCursor;
+
+    // 前ページのカーソル（前ページがなければnull）
+    private String previousCursor;
+
+    // おおよその総件数（不明な場合はnull）
+    private Long approximateTotal;
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    public boolean hasPrevious() {
+        return previousCursor != null;
+    }
+
+    // 取得結果と取得時の位置から、前後のページのカーソルを求める
+    public static <T> CursorPage<T> of(Window<T> window, KeysetScrollPosition position, Long approximateTotal) {
+        if (window.isEmpty()) {
+            return new CursorPage<>(window.getContent(), null, null, approximateTotal);
+        }
+
+        boolean backward = position.scrollsBackward();
+        KeysetScrollPosition first = (KeysetScrollPosition) window.positionAt(0);
+        KeysetScrollPosition last = (KeysetScrollPosition) window.positionAt(window.size() - 1);
+
+        // 後方に進んだ場合、次ページは必ず存在し、前ページの有無はWindow#hasNextで分かる
+        String nextCursor = (backward || window.hasNext()) ? encode(last.forward()) : null;
+        String previousCursor = (backward ? window.hasNext() : !position.isInitial()) ? encode(first.backward()) : null;
+
+        return new CursorPage<>(window.getContent(), nextCursor, previousCursor, approximateTotal);
+    }
+
+    // カーソルの文字列を位置に変換する（未指定または不正な場合、並べ替え順のキーと一致しない場合は先頭）
+    public static KeysetScrollPosition decode(String cursor, Sort sort) {
+        KeysetScrollPosition position = decode(cursor);
+        Set<String> properties = sort.stream().map(Sort.Order::getProperty).collect(Collectors.toSet());
+
+        return position.getKeys().keySet().equals(properties) ? position : ScrollPosition.keyset();
+    }
+
+    private static KeysetScrollPosition decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return ScrollPosition.keyset();
+        }
+
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = decoded.split("\\|");
+            Map<String, Object> keys = new LinkedHashMap<>();
+
+            for (int i = 1; i < parts.length; i++) {
+                String[] keyValue = parts[i].split("=", 2);
+                String value = keyValue[1].substring(1);
+
+                switch (keyValue[1].charAt(0)) {
+                    case 't' -> keys.put(keyValue[0], new Timestamp(Long.parseLong(value)));
+                    case 'i' -> keys.put(keyValue[0], Integer.valueOf(value));
+                    case 'd' -> keys.put(keyValue[0], new BigDecimal(value));
+                    default -> throw new IllegalArgumentException("未対応のキーの型です。");
+                }
+            }
+
+            if (keys.isEmpty()) {
+                return ScrollPosition.keyset();
+            }
+
+            return BACKWARD.equals(parts[0]) ? ScrollPosition.backward(keys) : ScrollPosition.forward(keys);
+        } catch (RuntimeException e) {
+            return ScrollPosition.keyset();
+        }
+    }
+
+    private static String encode(KeysetScrollPosition position) {
+        StringBuilder builder = new StringBuilder(position.scrollsBackward() ? BACKWARD : FORWARD);
+
+        position.getKeys().forEach((key, value) -> {
+            builder.append('|').append(key).append('=');
+
+            if (value instanceof Timestamp timestamp) {
+                builder.append('t').append(timestamp.getTime());
+            } else if (value instanceof Integer integer) {
+                builder.append('i').append(integer);
+            } else if (value instanceof BigDecimal decimal) {
+                builder.append('d').append(decimal.toPlainString());
+            } else {
+                throw new IllegalArgumentException("未対応のキーの型です。");
+            }
+        });
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.samuraitravel.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 民宿詳細ページのカレンダーに返す空室状況（JSON）
+ * 期間[from, to)のうち予約済みの日付の範囲だけを返す
+ */
+@Data
+@AllArgsConstructor
+public class HouseAvailability {
+    private Integer houseId;
+
+    private LocalDate from;
+
+    private LocalDate to;
+
+    private List<BookedDateRange> booked;
+}
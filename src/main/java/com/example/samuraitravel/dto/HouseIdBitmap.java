@@ -0,0 +1,204 @@
+package com.example.samuraitravel.dto;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/*
+ * 民宿のidの集合を少ないメモリで保持する、変更不可のビットマップ（Roaring Bitmapと同様の構成）
+ * idの上位16ビットごとにコンテナを分け、要素が少ないコンテナは下位16ビットのソート済み配列、多いコンテナはビットマップで保持する
+ * 追加・削除は新しいオブジェクトを返すため、複数のスレッドからロックなしで参照できる
+ * 画面からはcontainsで、民宿がお気に入りに追加済みかどうかを判定する
+ */
+public final class HouseIdBitmap {
+    public static final HouseIdBitmap EMPTY = new HouseIdBitmap(new char[0], new Object[0]);
+
+    // 配列のコンテナの要素数の上限（これを超えるとビットマップに切り替える。どちらも8KB以下）
+    private static final int MAX_ARRAY_SIZE = 4096;
+
+    // 上位16ビット（昇順）と、対応するコンテナ（char[]：ソート済みの下位16ビット、long[]：65536ビットのビットマップ）
+    private final char[] keys;
+    private final Object[] containers;
+
+    private HouseIdBitmap(char[] keys, Object[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+    }
+
+    public static HouseIdBitmap of(Collection<Integer> ids) {
+        HouseIdBitmap bitmap = EMPTY;
+
+        for (Integer id : ids.stream().sorted().toList()) {
+            bitmap = bitmap.with(id);
+        }
+
+        return bitmap;
+    }
+
+    public boolean contains(Integer id) {
+        if (id == null || id < 0) {
+            return false;
+        }
+
+        int index = Arrays.binarySearch(keys, (char) (id >>> 16));
+
+        if (index < 0) {
+            return false;
+        }
+
+        char low = (char) id.intValue();
+
+        if (containers[index] instanceof long[] words) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        return Arrays.binarySearch((char[]) containers[index], low) >= 0;
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Object container : containers) {
+            size += cardinality(container);
+        }
+
+        return size;
+    }
+
+    // 指定したidを追加した集合を返す
+    public HouseIdBitmap with(int id) {
+        if (id < 0 || contains(id)) {
+            return this;
+        }
+
+        char high = (char) (id >>> 16);
+        char low = (char) id;
+        int index = Arrays.binarySearch(keys, high);
+
+        if (index < 0) {
+            int insertAt = -index - 1;
+            char[] nextKeys = new char[keys.length + 1];
+            Object[] nextContainers = new Object[containers.length + 1];
+
+            System.arraycopy(keys, 0, nextKeys, 0, insertAt);
+            System.arraycopy(keys, insertAt, nextKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(containers, 0, nextContainers, 0, insertAt);
+            System.arraycopy(containers, insertAt, nextContainers, insertAt + 1, containers.length - insertAt);
+            nextKeys[insertAt] = high;
+            nextContainers[insertAt] = new char[] { low };
+
+            return new HouseIdBitmap(nextKeys, nextContainers);
+        }
+
+        Object nextContainer;
+
+        if (containers[index] instanceof long[] words) {
+            long[] nextWords = words.clone();
+            nextWords[low >>> 6] |= 1L << low;
+            nextContainer = nextWords;
+        } else {
+            char[] values = (char[]) containers[index];
+
+            if (values.length >= MAX_ARRAY_SIZE) {
+                long[] nextWords = toWords(values);
+                nextWords[low >>> 6] |= 1L << low;
+                nextContainer = nextWords;
+            } else {
+                int insertAt = -Arrays.binarySearch(values, low) - 1;
+                char[] nextValues = new char[values.length + 1];
+
+                System.arraycopy(values, 0, nextValues, 0, insertAt);
+                System.arraycopy(values, insertAt, nextValues, insertAt + 1, values.length - insertAt);
+                nextValues[insertAt] = low;
+                nextContainer = nextValues;
+            }
+        }
+
+        return replace(index, nextContainer);
+    }
+
+    // 指定したidを削除した集合を返す
+    public HouseIdBitmap without(int id) {
+        if (!contains(id)) {
+            return this;
+        }
+
+        char low = (char) id;
+        int index = Arrays.binarySearch(keys, (char) (id >>> 16));
+        Object nextContainer;
+
+        if (containers[index] instanceof long[] words) {
+            long[] nextWords = words.clone();
+            nextWords[low >>> 6] &= ~(1L << low);
+            nextContainer = cardinality(nextWords) <= MAX_ARRAY_SIZE ? toValues(nextWords) : nextWords;
+        } else {
+            char[] values = (char[]) containers[index];
+            int removeAt = Arrays.binarySearch(values, low);
+            char[] nextValues = new char[values.length - 1];
+
+            System.arraycopy(values, 0, nextValues, 0, removeAt);
+            System.arraycopy(values, removeAt + 1, nextValues, removeAt, values.length - removeAt - 1);
+            nextContainer = nextValues;
+        }
+
+        if (cardinality(nextContainer) == 0) {
+            char[] nextKeys = new char[keys.length - 1];
+            Object[] nextContainers = new Object[containers.length - 1];
+
+            System.arraycopy(keys, 0, nextKeys, 0, index);
+            System.arraycopy(keys, index + 1, nextKeys, index, keys.length - index - 1);
+            System.arraycopy(containers, 0, nextContainers, 0, index);
+            System.arraycopy(containers, index + 1, nextContainers, index, containers.length - index - 1);
+
+            return new HouseIdBitmap(nextKeys, nextContainers);
+        }
+
+        return replace(index, nextContainer);
+    }
+
+    private HouseIdBitmap replace(int index, Object container) {
+        Object[] nextContainers = containers.clone();
+        nextContainers[index] = container;
+
+        return new HouseIdBitmap(keys, nextContainers);
+    }
+
+    private static int cardinality(Object container) {
+        if (container instanceof long[] words) {
+            int count = 0;
+
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+
+            return count;
+        }
+
+        return ((char[]) container).length;
+    }
+
+    private static long[] toWords(char[] values) {
+        long[] words = new long[1024];
+
+        for (char value : values) {
+            words[value >>> 6] |= 1L << value;
+        }
+
+        return words;
+    }
+
+    private static char[] toValues(long[] words) {
+        char[] values = new char[cardinality(words)];
+        int i = 0;
+
+        for (int wordIndex = 0; wordIndex < words.length; wordIndex++) {
+            long word = words[wordIndex];
+
+            while (word != 0) {
+                values[i++] = (char) (wordIndex * 64 + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+
+        return values;
+    }
+}
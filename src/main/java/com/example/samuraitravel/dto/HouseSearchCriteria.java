@@ -0,0 +1,48 @@
+package com.example.samuraitravel.dto;
+
+import java.time.LocalDate;
+
+import org.springframework.data.domain.Sort;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 民宿一覧ページの検索条件を受け渡すためのオブジェクト
+ * 値がnullまたは空文字の条件は検索に使用しない
+ */
+@Data
+@AllArgsConstructor
+public class HouseSearchCriteria {
+    private String keyword;
+
+    private String area;
+
+    private Integer price;
+
+    private Integer capacity;
+
+    // チェックイン日・チェックアウト日（両方指定された場合のみ空室で絞り込む）
+    private LocalDate checkinDate;
+
+    private LocalDate checkoutDate;
+
+    private String order;
+
+    public boolean hasDates() {
+        return checkinDate != null && checkoutDate != null && checkinDate.isBefore(checkoutDate);
+    }
+
+    // 並べ替え順を取得する（同じ値の民宿の順序を固定するため、最後にidで並べ替える）
+    public Sort getSort() {
+        if ("priceAsc".equals(order)) {
+            return Sort.by(Sort.Order.asc("price"), Sort.Order.asc("id"));
+        }
+
+        // 平均評価の高い順（平均評価は民宿テーブルの生成列で、インデックスの順に取得する）
+        if ("ratingDesc".equals(order)) {
+            return Sort.by(Sort.Order.desc("averageScore"), Sort.Order.desc("id"));
+        }
+
+        return Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("id"));
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.samuraitravel.dto;
+
+import com.example.samuraitravel.entity.House;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 民宿詳細ページの表示に必要な、民宿と閲覧者（ログイン中の会員）に固有の情報をまとめて受け渡すためのオブジェクト
+ * 民宿・閲覧者のレビューのid・お気に入りのidを1回のクエリで取得する（未ログインの場合や該当するものがない場合、idはnull）
+ */
+@Data
+@AllArgsConstructor
+public class HouseViewerContext {
+    private House house;
+
+    private Integer reviewId;
+
+    private Integer favoriteId;
+
+    public boolean hasReviewed() {
+        return reviewId != null;
+    }
+
+    public boolean isFavorite() {
+        return favoriteId != null;
+    }
+}
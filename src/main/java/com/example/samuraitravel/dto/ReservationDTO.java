@@ -1,5 +1,6 @@
 package com.example.samuraitravel.dto;
 
+import java.io.Serializable;
 import java.time.LocalDate;
 
 import lombok.AllArgsConstructor;
@@ -10,7 +11,9 @@ import lombok.Data;
  */
 @Data
 @AllArgsConstructor
-public class ReservationDTO {
+public class ReservationDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private Integer houseId;
 
     private LocalDate checkinDate;
@@ -20,5 +23,10 @@ public class ReservationDTO {
     private Integer numberOfPeople;
 
     private Integer amount;
+
+    // 予約内容が変わったかどうかを判定するためのフィンガープリント
+    public String fingerprint() {
+        return houseId + "|" + checkinDate + "|" + checkoutDate + "|" + numberOfPeople + "|" + amount;
+    }
 }
 
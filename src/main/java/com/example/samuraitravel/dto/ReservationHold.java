@@ -0,0 +1,30 @@
+package com.example.samuraitravel.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 予約内容の確認から決済完了までの間、民宿の日程を仮押さえするためのオブジェクト（reservation_holdsテーブルの行の内容をセッションで受け渡す）
+ * idはStripeのメタデータに含め、決済完了時に仮押さえを予約に変換するために使用する
+ */
+@Data
+@AllArgsConstructor
+public class ReservationHold implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String id;
+
+    private Integer houseId;
+
+    private Integer userId;
+
+    private LocalDate checkinDate;
+
+    private LocalDate checkoutDate;
+
+    // 仮押さえの有効期限
+    private Instant expiresAt;
+}
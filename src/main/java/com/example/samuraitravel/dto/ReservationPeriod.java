@@ -0,0 +1,19 @@
+package com.example.samuraitravel.dto;
+
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 予約済みの期間（民宿のid・チェックイン日・チェックアウト日）のみを受け渡すためのオブジェクト
+ * 空室状況の計算に使用し、予約のエンティティ全体は読み込まない
+ */
+@Data
+@AllArgsConstructor
+public class ReservationPeriod {
+    private Integer houseId;
+
+    private LocalDate checkinDate;
+
+    private LocalDate checkoutDate;
+}
@@ -0,0 +1,25 @@
+package com.example.samuraitravel.dto;
+
+import java.sql.Timestamp;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 民宿詳細ページに表示するレビューの内容（投稿者のidと氏名を含む）を受け渡すためのオブジェクト
+ * レビューと投稿者のエンティティ（ロールなどの関連を含む）を読み込まず、1回のクエリで必要な列のみを取得する
+ */
+@Data
+@AllArgsConstructor
+public class ReviewSummary {
+    private Integer id;
+
+    private Integer userId;
+
+    private String userName;
+
+    private Integer score;
+
+    private String content;
+
+    private Timestamp createdAt;
+}
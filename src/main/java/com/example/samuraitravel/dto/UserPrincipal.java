@@ -0,0 +1,34 @@
+package com.example.samuraitravel.dto;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+/*
+ * 認証に必要な会員の情報（id・氏名・メールアドレス・ハッシュ化済みのパスワード・ロール名・有効かどうか）のみを受け渡すためのオブジェクト
+ * ログイン時の認証とログイン中の会員の識別に使用し、会員のエンティティ全体は読み込まない
+ * HTTPセッションにはパスワードを除いたもの（withoutPassword）を保存する
+ */
+@Data
+@AllArgsConstructor
+public class UserPrincipal implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Integer id;
+
+    // ヘッダーなどに表示する氏名
+    private String name;
+
+    private String email;
+
+    private String password;
+
+    private String roleName;
+
+    private Boolean enabled;
+
+    // パスワードを除いたコピーを返す（キャッシュしているオブジェクトは変更しない）
+    public UserPrincipal withoutPassword() {
+        return new UserPrincipal(id, name, email, null, roleName, enabled);
+    }
+}
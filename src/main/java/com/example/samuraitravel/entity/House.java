@@ -1,12 +1,13 @@
 package com.example.samuraitravel.entity;
 
+import java.math.BigDecimal;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
-import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
-import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
@@ -20,6 +21,9 @@ import lombok.ToString;
 @Data
 @ToString(exclude = {"reservations", "reviews", "favorites"})
 public class House {
+    // 縮小画像を配信するパス（/storage/からの相対パス。HouseImageProcessorの保存先ディレクトリに対応付ける）
+    public static final String IMAGE_VARIANT_PATH = "variants/";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id")
@@ -31,6 +35,13 @@ public class House {
     @Column(name = "image_name")
     private String imageName;
 
+    /* NOTE: 作成済みの縮小画像の幅（カンマ区切りの昇順、例：480,960,1920）
+     * 画像の登録・変更時にnullにし、HouseImageProcessorがバックグラウンドで縮小画像を作成した後に記録する
+     * 作成に失敗した場合は空文字にし、元の画像をそのまま使う
+     */
+    @Column(name = "image_variants")
+    private String imageVariants;
+
     @Column(name = "description")
     private String description;
 
@@ -49,21 +60,99 @@ public class House {
     @Column(name = "phone_number")
     private String phoneNumber;
 
+    /* NOTE: レビューの集計値（件数・評価の合計・評価ごとの件数）は、ReviewServiceでレビューの投稿・編集・削除と同じトランザクション内で更新する
+     * 同時に更新しても値が失われないよう、HouseRepository#addReviewAggregatesで差分を加算するため、エンティティからは書き込まない
+     * 平均評価（average_score）はMySQLの生成列で、評価順の並べ替えに使用する
+     */
+    @Column(name = "review_count", insertable = false, updatable = false)
+    private Integer reviewCount;
+
+    @Column(name = "score_sum", insertable = false, updatable = false)
+    private Integer scoreSum;
+
+    @Column(name = "score_1_count", insertable = false, updatable = false)
+    private Integer score1Count;
+
+    @Column(name = "score_2_count", insertable = false, updatable = false)
+    private Integer score2Count;
+
+    @Column(name = "score_3_count", insertable = false, updatable = false)
+    private Integer score3Count;
+
+    @Column(name = "score_4_count", insertable = false, updatable = false)
+    private Integer score4Count;
+
+    @Column(name = "score_5_count", insertable = false, updatable = false)
+    private Integer score5Count;
+
+    @Column(name = "average_score", insertable = false, updatable = false)
+    private BigDecimal averageScore;
+
     @Column(name = "created_at", insertable = false, updatable = false)
     private Timestamp createdAt;
 
     @Column(name = "updated_at", insertable = false, updatable = false)
     private Timestamp updatedAt;
     
-    /* NOTE: カスケード削除とは
-     * 親テーブル（houses）のレコードを削除した際に、子テーブル（reservations）の関連するレコードも同時に削除すること
+    /* NOTE: 子テーブルの関連は遅延読み込み（LAZY）にする
+     * 一覧ページなどで民宿を取得するたびに、すべての予約・レビュー・お気に入りが読み込まれるのを防ぐため
+     * 画面ごとに必要な関連は各リポジトリの@EntityGraphで指定する
+     * 民宿削除時の子テーブルのレコードは、HouseService#deleteHouseで一括削除する
      */
-    @OneToMany(mappedBy = "house", fetch = FetchType.EAGER, cascade = CascadeType.REMOVE)
+    @OneToMany(mappedBy = "house")
     private List<Reservation> reservations;
     
-    @OneToMany(mappedBy = "house", fetch = FetchType.EAGER, cascade = CascadeType.REMOVE)
+    @OneToMany(mappedBy = "house")
     private List<Review> reviews;
 
-    @OneToMany(mappedBy = "house", fetch = FetchType.EAGER, cascade = CascadeType.REMOVE)
+    @OneToMany(mappedBy = "house")
     private List<Favorite> favorites;    
+
+    // 作成済みの縮小画像の幅を昇順に返す（縮小画像がない場合は空のリスト）
+    public List<Integer> getImageVariantWidths() {
+        if (imageVariants == null || imageVariants.isEmpty()) {
+            return List.of();
+        }
+
+        return Arrays.stream(imageVariants.split(",")).map(Integer::valueOf).toList();
+    }
+
+    // 表示する幅以上で最も小さい縮小画像のファイル名を返す（縮小画像がない場合は元の画像のファイル名）
+    public String getImageFileName(int width) {
+        List<Integer> widths = getImageVariantWidths();
+
+        if (widths.isEmpty()) {
+            return imageName;
+        }
+
+        int variantWidth = widths.stream().filter(w -> w >= width).findFirst().orElse(widths.get(widths.size() - 1));
+
+        return IMAGE_VARIANT_PATH + toImageVariantName(imageName, variantWidth);
+    }
+
+    // img要素のsrcset属性の値を返す（縮小画像がない場合はnullを返し、属性を出力しない）
+    public String getImageSrcset() {
+        List<Integer> widths = getImageVariantWidths();
+
+        if (widths.isEmpty()) {
+            return null;
+        }
+
+        return widths.stream()
+                .map(width -> "/storage/" + IMAGE_VARIANT_PATH + toImageVariantName(imageName, width) + " " + width + "w")
+                .collect(Collectors.joining(", "));
+    }
+
+    // 元の画像のファイル名と幅から、縮小画像のファイル名を求める（例：xxx.png → xxx-480w.jpg）
+    public static String toImageVariantName(String imageName, int width) {
+        int extensionIndex = imageName.lastIndexOf('.');
+        String baseName = extensionIndex > 0 ? imageName.substring(0, extensionIndex) : imageName;
+
+        return baseName + "-" + width + "w.jpg";
+    }
+
+    // 評価ごとのレビュー件数を、評価の高い順（5→1）に返す
+    public List<Integer> getScoreCounts() {
+        return Arrays.asList(score5Count, score4Count, score3Count, score2Count, score1Count);
+    }
 }
@@ -0,0 +1,35 @@
+package com.example.samuraitravel.entity;
+
+import java.sql.Timestamp;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+/*
+ * 民宿ごとの集計値（予約数・お気に入り数）を保持するテーブル
+ * 予約数は予約の登録時に加算し、管理者の操作で予約テーブルから再集計する
+ * お気に入り数はHouseFavoriteCounterで数えた差分をFavoriteCountFlushJobがまとめて加算する
+ */
+@Entity
+@Table(name = "house_stats")
+@Data
+public class HouseStats {
+    @Id
+    @Column(name = "house_id")
+    private Integer houseId;
+
+    @Column(name = "reservation_count")
+    private Integer reservationCount;
+
+    @Column(name = "favorite_count")
+    private Integer favoriteCount;
+
+    @Column(name = "created_at", insertable = false, updatable = false)
+    private Timestamp createdAt;
+
+    @Column(name = "updated_at", insertable = false, updatable = false)
+    private Timestamp updatedAt;
+}
@@ -0,0 +1,67 @@
+package com.example.samuraitravel.entity;
+
+import java.sql.Timestamp;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+/*
+ * 送信するメールを、業務データと同じトランザクションで保存するテーブル（トランザクショナルアウトボックス）
+ * 状態はPENDING（未送信・再試行待ち）→ PROCESSING（送信中）→ DONE（送信済み）またはDEAD（再試行の上限に達した）と遷移する
+ */
+@Entity
+@Table(name = "outbox")
+@Data
+public class OutboxMessage {
+    public static final String PENDING = "PENDING";
+    public static final String PROCESSING = "PROCESSING";
+    public static final String DONE = "DONE";
+    public static final String DEAD = "DEAD";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "sender")
+    private String sender;
+
+    @Column(name = "recipient")
+    private String recipient;
+
+    @Column(name = "subject")
+    private String subject;
+
+    @Column(name = "body")
+    private String body;
+
+    @Column(name = "status", insertable = false)
+    private String status;
+
+    @Column(name = "attempts", insertable = false)
+    private Integer attempts;
+
+    @Column(name = "next_attempt_at", insertable = false)
+    private Timestamp nextAttemptAt;
+
+    @Column(name = "locked_at")
+    private Timestamp lockedAt;
+
+    // 同じバッチで送信中にしたメールを識別するための値
+    @Column(name = "lock_token")
+    private String lockToken;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @Column(name = "created_at", insertable = false, updatable = false)
+    private Timestamp createdAt;
+
+    @Column(name = "updated_at", insertable = false, updatable = false)
+    private Timestamp updatedAt;
+}
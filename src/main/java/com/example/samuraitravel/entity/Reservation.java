@@ -42,6 +42,10 @@ public class Reservation {
     @Column(name = "amount")
     private Integer amount;
 
+    // 決済したStripeのPaymentIntentのid（Webhookの再送で同じ予約を重複して登録しないための一意キー）
+    @Column(name = "payment_intent_id")
+    private String paymentIntentId;
+
     @Column(name = "created_at", insertable = false, updatable = false)
     private Timestamp createdAt;
 
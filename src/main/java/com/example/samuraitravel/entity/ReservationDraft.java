@@ -0,0 +1,56 @@
+package com.example.samuraitravel.entity;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+/*
+ * Stripeのセッション作成時に保存する予約内容の下書き
+ * 決済完了のWebhookではセッションのidで下書きを取得し、StripeのAPIを呼び出さずに予約を登録する
+ */
+@Entity
+@Table(name = "reservation_drafts")
+@Data
+public class ReservationDraft {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "session_id")
+    private String sessionId;
+
+    @Column(name = "house_id")
+    private Integer houseId;
+
+    @Column(name = "user_id")
+    private Integer userId;
+
+    @Column(name = "checkin_date")
+    private LocalDate checkinDate;
+
+    @Column(name = "checkout_date")
+    private LocalDate checkoutDate;
+
+    @Column(name = "number_of_people")
+    private Integer numberOfPeople;
+
+    @Column(name = "amount")
+    private Integer amount;
+
+    @Column(name = "hold_id")
+    private String holdId;
+
+    @Column(name = "created_at", insertable = false, updatable = false)
+    private Timestamp createdAt;
+
+    @Column(name = "updated_at", insertable = false, updatable = false)
+    private Timestamp updatedAt;
+}
@@ -0,0 +1,41 @@
+package com.example.samuraitravel.entity;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+/*
+ * 予約内容の確認から決済完了までの間の、民宿の日程の仮押さえ
+ * 複数のサーバーで仮押さえを共有するため、データベースに保存する（idはStripeのメタデータに含める仮押さえのid）
+ */
+@Entity
+@Table(name = "reservation_holds")
+@Data
+public class ReservationHoldRecord {
+    @Id
+    @Column(name = "id")
+    private String id;
+
+    @Column(name = "house_id")
+    private Integer houseId;
+
+    @Column(name = "user_id")
+    private Integer userId;
+
+    @Column(name = "checkin_date")
+    private LocalDate checkinDate;
+
+    @Column(name = "checkout_date")
+    private LocalDate checkoutDate;
+
+    @Column(name = "expires_at")
+    private Timestamp expiresAt;
+
+    @Column(name = "created_at", insertable = false, updatable = false)
+    private Timestamp createdAt;
+}
@@ -28,6 +28,10 @@ public class VerificationToken {
     @Column(name = "token")
     private String token;
 
+    // トークンの有効期限（期限が切れたトークンでは会員登録を完了できず、バックグラウンドで削除される）
+    @Column(name = "expires_at")
+    private Timestamp expiresAt;
+
     @Column(name = "created_at", insertable = false, updatable = false)
     private Timestamp createdAt;
 
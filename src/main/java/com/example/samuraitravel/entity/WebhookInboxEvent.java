@@ -0,0 +1,60 @@
+package com.example.samuraitravel.entity;
+
+import java.sql.Timestamp;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+/*
+ * 署名を検証したStripeのWebhookイベントを、処理するまで保持するテーブル
+ * 状態はPENDING（未処理・再試行待ち）→ PROCESSING（処理中）→ DONE（処理済み）またはDEAD（再試行の上限に達した）と遷移する
+ */
+@Entity
+@Table(name = "webhook_inbox")
+@Data
+public class WebhookInboxEvent {
+    public static final String PENDING = "PENDING";
+    public static final String PROCESSING = "PROCESSING";
+    public static final String DONE = "DONE";
+    public static final String DEAD = "DEAD";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "event_id")
+    private String eventId;
+
+    @Column(name = "event_type")
+    private String eventType;
+
+    @Column(name = "payload")
+    private String payload;
+
+    @Column(name = "status")
+    private String status;
+
+    @Column(name = "attempts")
+    private Integer attempts;
+
+    @Column(name = "next_attempt_at")
+    private Timestamp nextAttemptAt;
+
+    @Column(name = "locked_at")
+    private Timestamp lockedAt;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @Column(name = "created_at", insertable = false, updatable = false)
+    private Timestamp createdAt;
+
+    @Column(name = "updated_at", insertable = false, updatable = false)
+    private Timestamp updatedAt;
+}
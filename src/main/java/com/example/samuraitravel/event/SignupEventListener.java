@@ -3,21 +3,25 @@ package com.example.samuraitravel.event;
 import java.util.UUID;
 
 import org.springframework.context.event.EventListener;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Component;
 
 import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.service.OutboxService;
 import com.example.samuraitravel.service.VerificationTokenService;
 
+/*
+ * 会員登録時に認証用のトークンを作成し、認証メールをoutboxテーブルに保存するクラス
+ * UserService.createUserのトランザクション内で同期的に実行されるため、会員・トークン・メールはまとめてコミットされる
+ * メールの送信はOutboxDispatcherがバックグラウンドで行う
+ */
 @Component
 public class SignupEventListener {
     private final VerificationTokenService verificationTokenService;
-    private final JavaMailSender javaMailSender;
+    private final OutboxService outboxService;
 
-    public SignupEventListener(VerificationTokenService verificationTokenService, JavaMailSender mailSender) {
+    public SignupEventListener(VerificationTokenService verificationTokenService, OutboxService outboxService) {
         this.verificationTokenService = verificationTokenService;
-        this.javaMailSender = mailSender;
+        this.outboxService = outboxService;
     }
 
     @EventListener
@@ -32,12 +36,6 @@ public class SignupEventListener {
         String confirmationUrl = signupEvent.getRequestUrl() + "/verify?token=" + token;
         String message = "以下のリンクをクリックして会員登録を完了してください。";
 
-        SimpleMailMessage mailMessage = new SimpleMailMessage();
-        mailMessage.setFrom(senderAddress);
-        mailMessage.setTo(recipientAddress);
-        mailMessage.setSubject(subject);
-        mailMessage.setText(message + "\n" + confirmationUrl);
-        javaMailSender.send(mailMessage);
+        outboxService.enqueue(senderAddress, recipientAddress, subject, message + "\n" + confirmationUrl);
     }
 }
-
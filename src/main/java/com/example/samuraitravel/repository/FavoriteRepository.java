@@ -1,15 +1,30 @@
 package com.example.samuraitravel.repository;
 
+import java.util.List;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import com.example.samuraitravel.entity.Favorite;
 import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.entity.User;
 
 public interface FavoriteRepository extends JpaRepository<Favorite, Integer> {
+    // お気に入り一覧ページでは民宿のカードを表示するため、民宿を同じクエリで取得する
+    @EntityGraph(attributePaths = {"house"})
     public Page<Favorite> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
     public Favorite findByHouseAndUser(House house, User user);
-}
 
+    // 指定した会員のお気に入りの民宿のidのみを取得する
+    @Query("SELECT f.house.id FROM Favorite f WHERE f.user.id = :userId")
+    public List<Integer> findHouseIdsByUserId(Integer userId);
+
+    // 民宿削除時に、関連するお気に入りをエンティティを読み込まずに一括削除する
+    @Modifying
+    @Query("DELETE FROM Favorite f WHERE f.house = :house")
+    public void deleteByHouse(House house);
+}
@@ -1,39 +1,90 @@
 package com.example.samuraitravel.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
+import com.example.samuraitravel.dto.HouseViewerContext;
 import com.example.samuraitravel.entity.House;
 
-public interface HouseRepository extends JpaRepository<House, Integer> {
+public interface HouseRepository extends JpaRepository<House, Integer>, JpaSpecificationExecutor<House> {
 
-    public Page<House> findByNameLike(String keyword, Pageable pageable);
+    public Page<House> findByIdIn(Collection<Integer> ids, Pageable pageable);
+    
+    public List<House> findTop8ByOrderByCreatedAtDesc();
 
-    public Page<House> findByNameLikeOrAddressLikeOrderByCreatedAtDesc(String nameKeyword, String addressKeyword, Pageable pageable);
+    // 民宿の行を排他ロックする（複数のサーバーで同じ民宿の予約を同時に登録しないよう、予約の登録前にロックする）
+    @Query(value = "SELECT id FROM houses WHERE id = :houseId FOR UPDATE", nativeQuery = true)
+    public Integer lockById(Integer houseId);
+    
+    // 予約数はhouse_statsテーブルの集計値を使い、インデックスの順に上位の民宿を取得する
+    @Query("SELECT h FROM House h JOIN HouseStats s ON s.houseId = h.id ORDER BY s.reservationCount DESC, s.houseId DESC")
+    List<House> findAllByOrderByReservationCountDesc(Pageable pageable);    
+    
+    // 民宿と、指定した会員のその民宿へのレビューのid・お気に入りのidを1回のクエリで取得する（userIdがnullの場合、idはnull）
+    @Query("SELECT new com.example.samuraitravel.dto.HouseViewerContext(h, "
+            + "(SELECT r.id FROM Review r WHERE r.house = h AND r.user.id = :userId), "
+            + "(SELECT f.id FROM Favorite f WHERE f.house = h AND f.user.id = :userId)) "
+            + "FROM House h WHERE h.id = :houseId")
+    public Optional<HouseViewerContext> findViewerContext(Integer houseId, Integer userId);
 
-    public Page<House> findByNameLikeOrAddressLikeOrderByPriceAsc(String nameKeyword, String addressKeyword, Pageable pageable);
+    // 民宿のおおよその件数を取得する（COUNT(*)を実行せず、MySQLの統計情報から取得する）
+    @Query(value = "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'houses'", nativeQuery = true)
+    public Long estimateCount();
 
-    public Page<House> findByAddressLikeOrderByCreatedAtDesc(String area, Pageable pageable);
+    // レビューの投稿・編集・削除に合わせて、民宿のレビューの集計値に差分を加算する
+    // 集計値の変更で民宿の更新日時が変わらないよう、updated_atは現在の値のままにする
+    @Modifying
+    @Query(value = "UPDATE houses SET review_count = review_count + :countDelta, score_sum = score_sum + :scoreSumDelta, "
+            + "score_1_count = score_1_count + :score1Delta, score_2_count = score_2_count + :score2Delta, "
+            + "score_3_count = score_3_count + :score3Delta, score_4_count = score_4_count + :score4Delta, "
+            + "score_5_count = score_5_count + :score5Delta, updated_at = updated_at WHERE id = :houseId", nativeQuery = true)
+    public void addReviewAggregates(Integer houseId, int countDelta, int scoreSumDelta, int score1Delta, int score2Delta,
+            int score3Delta, int score4Delta, int score5Delta);
 
-    public Page<House> findByAddressLikeOrderByPriceAsc(String area, Pageable pageable);
+    // idが指定した値より大きい民宿のidを、idの昇順に取得する（レビューの集計値の再集計に使用する）
+    @Query("SELECT h.id FROM House h WHERE h.id > :afterId ORDER BY h.id")
+    public List<Integer> findIdsAfter(Integer afterId, Pageable pageable);
 
-    public Page<House> findByPriceLessThanEqualOrderByCreatedAtDesc(Integer price, Pageable pageable);
+    // 指定した民宿のレビューの集計値を、レビューテーブルから再集計する
+    @Modifying
+    @Query(value = "UPDATE houses h LEFT JOIN (SELECT house_id, COUNT(*) AS review_count, SUM(score) AS score_sum, "
+            + "SUM(score = 1) AS score_1_count, SUM(score = 2) AS score_2_count, SUM(score = 3) AS score_3_count, "
+            + "SUM(score = 4) AS score_4_count, SUM(score = 5) AS score_5_count "
+            + "FROM reviews WHERE house_id IN (:ids) GROUP BY house_id) r ON r.house_id = h.id "
+            + "SET h.review_count = COALESCE(r.review_count, 0), h.score_sum = COALESCE(r.score_sum, 0), "
+            + "h.score_1_count = COALESCE(r.score_1_count, 0), h.score_2_count = COALESCE(r.score_2_count, 0), "
+            + "h.score_3_count = COALESCE(r.score_3_count, 0), h.score_4_count = COALESCE(r.score_4_count, 0), "
+            + "h.score_5_count = COALESCE(r.score_5_count, 0), h.updated_at = h.updated_at "
+            + "WHERE h.id IN (:ids)", nativeQuery = true)
+    public int recomputeReviewAggregates(Collection<Integer> ids);
 
-    public Page<House> findByPriceLessThanEqualOrderByPriceAsc(Integer price, Pageable pageable);
+    // 縮小画像をまだ作成していない民宿を、idの昇順に取得する
+    public List<House> findByImageNameIsNotNullAndImageVariantsIsNullOrderByIdAsc(Pageable pageable);
 
-    public Page<House> findAllByOrderByCreatedAtDesc(Pageable pageable);
+    // 作成した縮小画像の幅を記録する（作成中に画像が変更された場合は、ファイル名が一致しないため記録しない）
+    // 縮小画像の作成で民宿の更新日時が変わらないよう、updated_atは現在の値のままにする
+    @Modifying
+    @Query(value = "UPDATE houses SET image_variants = :imageVariants, updated_at = updated_at "
+            + "WHERE id = :houseId AND image_name = :imageName", nativeQuery = true)
+    public int updateImageVariants(Integer houseId, String imageName, String imageVariants);
+
+    // 縮小画像を作成済みの民宿を、指定したidより後からidの昇順に取得する（作成に失敗した空文字の民宿は含めない）
+    @Query("SELECT h FROM House h WHERE h.id > :afterId AND h.imageVariants <> '' ORDER BY h.id")
+    public List<House> findWithImageVariantsAfter(Integer afterId, Pageable pageable);
+
+    // 縮小画像の作成状況を未作成（NULL）に戻す（縮小画像のファイルが失われた民宿を再作成の対象にする）
+    @Modifying
+    @Query(value = "UPDATE houses SET image_variants = NULL, updated_at = updated_at WHERE id IN (:ids)", nativeQuery = true)
+    public int clearImageVariants(Collection<Integer> ids);
 
-    public Page<House> findAllByOrderByPriceAsc(Pageable pageable);
-    
-    public List<House> findTop8ByOrderByCreatedAtDesc();
-    
-    @Query("SELECT h FROM House h LEFT JOIN h.reservations r GROUP BY h.id ORDER BY COUNT(r) DESC")
-    List<House> findAllByOrderByReservationCountDesc(Pageable pageable);    
-    
     // テスト用：最後に追加したデータを取得する
     public House findFirstByOrderByIdDesc();
 }
@@ -0,0 +1,73 @@
+package com.example.samuraitravel.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.Reservation;
+
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+
+/*
+ * 民宿の検索条件を組み立てるクラス
+ * 指定された条件だけをANDで結合し、1回のクエリで検索する
+ */
+public class HouseSpecifications {
+    private HouseSpecifications() {
+    }
+
+    // candidateHouseIdsはキーワード・空室の条件に一致する民宿のid（HouseSearchIndexとHouseAvailabilityIndexで求める）、どちらの条件もなければnull
+    public static Specification<House> matches(HouseSearchCriteria criteria, Collection<Integer> candidateHouseIds) {
+        return (root, query, criteriaBuilder) -> {
+            List<Predicate> predicates = new ArrayList<>();
+
+            // キーワードを民宿名または住所に含み、指定した期間に空室がある（LIKE '%keyword%'による全件走査を避け、idで絞り込む）
+            if (candidateHouseIds != null) {
+                predicates.add(root.get("id").in(candidateHouseIds));
+            }
+
+            // エリアを住所に含む
+            if (hasText(criteria.getArea())) {
+                predicates.add(criteriaBuilder.like(root.get("address"), "%" + criteria.getArea() + "%"));
+            }
+
+            // 宿泊料金が指定した金額以下
+            if (criteria.getPrice() != null) {
+                predicates.add(criteriaBuilder.lessThanOrEqualTo(root.get("price"), criteria.getPrice()));
+            }
+
+            // 定員が指定した人数以上
+            if (criteria.getCapacity() != null) {
+                predicates.add(criteriaBuilder.greaterThanOrEqualTo(root.get("capacity"), criteria.getCapacity()));
+            }
+
+            return criteriaBuilder.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    // 期間[チェックイン日, チェックアウト日)と重なる予約がない（HouseAvailabilityIndexの予約可能期間外の日付を含む場合に使用する）
+    public static Specification<House> availableBetween(LocalDate checkinDate, LocalDate checkoutDate) {
+        return (root, query, criteriaBuilder) -> {
+            Subquery<Integer> subquery = query.subquery(Integer.class);
+            Root<Reservation> reservation = subquery.from(Reservation.class);
+
+            subquery.select(reservation.get("id")).where(
+                    criteriaBuilder.equal(reservation.get("house"), root),
+                    criteriaBuilder.lessThan(reservation.get("checkinDate"), checkoutDate),
+                    criteriaBuilder.greaterThan(reservation.get("checkoutDate"), checkinDate));
+
+            return criteriaBuilder.not(criteriaBuilder.exists(subquery));
+        };
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !value.isEmpty();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.samuraitravel.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import com.example.samuraitravel.entity.HouseStats;
+
+public interface HouseStatsRepository extends JpaRepository<HouseStats, Integer> {
+    // 指定した民宿の予約数を1加算する（集計行がなければ作成する）
+    @Modifying
+    @Query(value = "INSERT INTO house_stats (house_id, reservation_count) VALUES (:houseId, 1) "
+            + "ON DUPLICATE KEY UPDATE reservation_count = reservation_count + 1", nativeQuery = true)
+    public void incrementReservationCount(Integer houseId);
+
+    // 予約テーブルからすべての民宿の予約数を再集計する
+    @Modifying
+    @Query(value = "INSERT INTO house_stats (house_id, reservation_count) "
+            + "SELECT h.id, COUNT(r.id) FROM houses h LEFT JOIN reservations r ON r.house_id = h.id GROUP BY h.id "
+            + "ON DUPLICATE KEY UPDATE reservation_count = VALUES(reservation_count)", nativeQuery = true)
+    public int rebuildReservationCounts();
+
+    // 指定した民宿のお気に入り数に、メモリ上で数えた差分を加算する
+    @Modifying
+    @Query(value = "UPDATE house_stats SET favorite_count = favorite_count + :delta WHERE house_id = :houseId", nativeQuery = true)
+    public int addFavoriteCount(Integer houseId, int delta);
+
+    // お気に入りテーブルからすべての民宿のお気に入り数を再集計する
+    @Modifying
+    @Query(value = "UPDATE house_stats s LEFT JOIN (SELECT house_id, COUNT(*) AS favorite_count FROM favorites GROUP BY house_id) f "
+            + "ON f.house_id = s.house_id SET s.favorite_count = COALESCE(f.favorite_count, 0)", nativeQuery = true)
+    public int rebuildFavoriteCounts();
+
+    // 民宿削除時に、集計行を削除する
+    @Modifying
+    @Query("DELETE FROM HouseStats s WHERE s.houseId = :houseId")
+    public void deleteByHouseId(Integer houseId);
+}
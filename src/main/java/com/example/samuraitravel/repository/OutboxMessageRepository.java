@@ -0,0 +1,50 @@
+package com.example.samuraitravel.repository;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import com.example.samuraitravel.entity.OutboxMessage;
+
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, Integer> {
+    // 送信を開始できるメールのidを、再試行時刻が早い順に取得する
+    @Query("SELECT m.id FROM OutboxMessage m WHERE m.status = 'PENDING' AND m.nextAttemptAt <= :now ORDER BY m.nextAttemptAt")
+    public List<Integer> findDueIds(Timestamp now, Pageable pageable);
+
+    // 指定したメールをまとめて送信中にする（他のディスパッチャーが先に取得したメールは変更しない）
+    @Modifying
+    @Query("UPDATE OutboxMessage m SET m.status = 'PROCESSING', m.lockedAt = :now, m.lockToken = :lockToken, m.attempts = m.attempts + 1 "
+            + "WHERE m.id IN :ids AND m.status = 'PENDING'")
+    public int claim(Collection<Integer> ids, Timestamp now, String lockToken);
+
+    public List<OutboxMessage> findByLockToken(String lockToken);
+
+    // 送信中のままディスパッチャーが停止したメールを未送信に戻す
+    @Modifying
+    @Query("UPDATE OutboxMessage m SET m.status = 'PENDING', m.lockToken = null WHERE m.status = 'PROCESSING' AND m.lockedAt < :lockedBefore")
+    public int releaseStale(Timestamp lockedBefore);
+
+    @Modifying
+    @Query("UPDATE OutboxMessage m SET m.status = 'DONE', m.lockedAt = null, m.lockToken = null, m.lastError = null WHERE m.id IN :ids")
+    public void markDone(Collection<Integer> ids);
+
+    @Modifying
+    @Query("UPDATE OutboxMessage m SET m.status = 'PENDING', m.lockedAt = null, m.lockToken = null, m.nextAttemptAt = :nextAttemptAt, m.lastError = :lastError WHERE m.id = :id")
+    public void markRetry(Integer id, Timestamp nextAttemptAt, String lastError);
+
+    @Modifying
+    @Query("UPDATE OutboxMessage m SET m.status = 'DEAD', m.lockedAt = null, m.lockToken = null, m.lastError = :lastError WHERE m.id = :id")
+    public void markDead(Integer id, String lastError);
+
+    public long countByStatus(String status);
+
+    // 指定した日時より前に送信済みになったメールを、指定件数まで削除する（DEADのメールは調査のために残す）
+    @Modifying
+    @Query(value = "DELETE FROM outbox WHERE status = 'DONE' AND updated_at < :doneBefore LIMIT :limit", nativeQuery = true)
+    public int deleteDone(Timestamp doneBefore, int limit);
+}
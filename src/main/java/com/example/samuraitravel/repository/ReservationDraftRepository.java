@@ -0,0 +1,24 @@
+package com.example.samuraitravel.repository;
+
+import java.sql.Timestamp;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import com.example.samuraitravel.entity.ReservationDraft;
+
+public interface ReservationDraftRepository extends JpaRepository<ReservationDraft, Integer> {
+    public Optional<ReservationDraft> findBySessionId(String sessionId);
+
+    // 民宿削除時に、関連する下書きを一括削除する
+    @Modifying
+    @Query("DELETE FROM ReservationDraft d WHERE d.houseId = :houseId")
+    public void deleteByHouseId(Integer houseId);
+
+    // 指定した日時より前に作成された下書き（セッションの有効期限が切れたもの）を一括削除する
+    @Modifying
+    @Query("DELETE FROM ReservationDraft d WHERE d.createdAt < :createdBefore")
+    public int deleteByCreatedAtBefore(Timestamp createdBefore);
+}
@@ -0,0 +1,51 @@
+package com.example.samuraitravel.repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import com.example.samuraitravel.entity.ReservationHoldRecord;
+
+public interface ReservationHoldRecordRepository extends JpaRepository<ReservationHoldRecord, String> {
+    // 仮押さえを保存する（idを指定して保存するため、エンティティの存在確認のクエリを実行せずに挿入する）
+    @Modifying
+    @Query(value = "INSERT INTO reservation_holds (id, house_id, user_id, checkin_date, checkout_date, expires_at) "
+            + "VALUES (:id, :houseId, :userId, :checkinDate, :checkoutDate, :expiresAt)", nativeQuery = true)
+    public void insert(String id, Integer houseId, Integer userId, LocalDate checkinDate, LocalDate checkoutDate,
+            Timestamp expiresAt);
+
+    // ロック付きの読み取りで、指定した民宿の期間[チェックイン日, チェックアウト日)と重なる、他のユーザーの有効な仮押さえの件数を取得する
+    @Query(value = "SELECT COUNT(*) FROM reservation_holds WHERE house_id = :houseId AND user_id <> :userId AND expires_at > :now "
+            + "AND checkin_date < :checkoutDate AND checkout_date > :checkinDate LOCK IN SHARE MODE", nativeQuery = true)
+    public long countOverlappingByOtherUsersForShare(Integer houseId, Integer userId, LocalDate checkinDate,
+            LocalDate checkoutDate, Timestamp now);
+
+    // ロック付きの読み取りで、指定したidの有効な仮押さえの件数を取得する
+    @Query(value = "SELECT COUNT(*) FROM reservation_holds WHERE id = :id AND house_id = :houseId AND expires_at > :now FOR UPDATE",
+            nativeQuery = true)
+    public long countActiveByIdForUpdate(String id, Integer houseId, Timestamp now);
+
+    // 指定したユーザーの、指定した民宿の期間[チェックイン日, チェックアウト日)と重なる仮押さえを削除する
+    @Modifying
+    @Query("DELETE FROM ReservationHoldRecord h WHERE h.houseId = :houseId AND h.userId = :userId "
+            + "AND h.checkinDate < :checkoutDate AND h.checkoutDate > :checkinDate")
+    public int deleteOverlappingByUser(Integer houseId, Integer userId, LocalDate checkinDate, LocalDate checkoutDate);
+
+    // 指定したidの仮押さえを、エンティティを読み込まずに削除する
+    @Modifying
+    @Query("DELETE FROM ReservationHoldRecord h WHERE h.id = :id AND h.houseId = :houseId")
+    public int deleteByIdAndHouseId(String id, Integer houseId);
+
+    // 民宿削除時に、関連する仮押さえを一括削除する
+    @Modifying
+    @Query("DELETE FROM ReservationHoldRecord h WHERE h.houseId = :houseId")
+    public void deleteByHouseId(Integer houseId);
+
+    // 有効期限が切れた仮押さえを一括削除する
+    @Modifying
+    @Query("DELETE FROM ReservationHoldRecord h WHERE h.expiresAt <= :now")
+    public int deleteExpired(Timestamp now);
+}
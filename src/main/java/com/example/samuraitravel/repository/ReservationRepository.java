@@ -1,16 +1,59 @@
 package com.example.samuraitravel.repository;
 
+import java.time.LocalDate;
+import java.util.List;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
+import com.example.samuraitravel.dto.ReservationPeriod;
+import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.entity.Reservation;
 import com.example.samuraitravel.entity.User;
 
 public interface ReservationRepository extends JpaRepository<Reservation, Integer> {
+    // 予約一覧ページでは民宿名を表示するため、民宿を同じクエリで取得する
+    @EntityGraph(attributePaths = {"house"})
     public Page<Reservation> findByUserOrderByCreatedAtDesc(User user, Pageable pageable);
+
+    // 空室状況の作成用に、チェックアウト日が指定した日より後の予約の期間だけを取得する
+    @Query("SELECT new com.example.samuraitravel.dto.ReservationPeriod(r.house.id, r.checkinDate, r.checkoutDate) FROM Reservation r WHERE r.checkoutDate > :date")
+    public List<ReservationPeriod> findPeriodsByCheckoutDateAfter(LocalDate date);
+
+    // 他のサーバーで登録された予約を空室状況に取り込むため、idが(afterId, untilId]の範囲でチェックアウト日が指定した日より後の予約の期間を取得する
+    @Query("SELECT new com.example.samuraitravel.dto.ReservationPeriod(r.house.id, r.checkinDate, r.checkoutDate) FROM Reservation r "
+            + "WHERE r.id > :afterId AND r.id <= :untilId AND r.checkoutDate > :date")
+    public List<ReservationPeriod> findPeriodsByIdBetween(Integer afterId, Integer untilId, LocalDate date);
+
+    // 予約のidの最大値を取得する（予約がなければ0）
+    @Query("SELECT COALESCE(MAX(r.id), 0) FROM Reservation r")
+    public Integer findMaxId();
+
+    // 指定した民宿に、期間[チェックイン日, チェックアウト日)と重なる予約があるかどうか
+    @Query("SELECT COUNT(r) > 0 FROM Reservation r WHERE r.house.id = :houseId AND r.checkinDate < :checkoutDate AND r.checkoutDate > :checkinDate")
+    public boolean existsOverlapping(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate);
+
+    // ロック付きの読み取りで、指定した民宿に期間[チェックイン日, チェックアウト日)と重なる予約の件数を取得する
+    // （REPEATABLE READのスナップショットではなく、他のサーバーが直前にコミットした予約も含めて数える）
+    @Query(value = "SELECT COUNT(*) FROM reservations WHERE house_id = :houseId AND checkin_date < :checkoutDate "
+            + "AND checkout_date > :checkinDate LOCK IN SHARE MODE", nativeQuery = true)
+    public long countOverlappingForShare(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate);
+
+    // ロック付きの読み取りで、指定したPaymentIntentの予約の件数を取得する
+    @Query(value = "SELECT COUNT(*) FROM reservations WHERE payment_intent_id = :paymentIntentId LOCK IN SHARE MODE", nativeQuery = true)
+    public long countByPaymentIntentIdForShare(String paymentIntentId);
+
+    // 民宿削除時に、関連する予約をエンティティを読み込まずに一括削除する
+    @Modifying
+    @Query("DELETE FROM Reservation r WHERE r.house = :house")
+    public void deleteByHouse(House house);
     
+    public boolean existsByPaymentIntentId(String paymentIntentId);
+
     //　テスト用
     public Reservation findFirstByOrderByIdDesc();
 }
-
@@ -2,18 +2,35 @@ package com.example.samuraitravel.repository;
 
 import java.util.List;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
+import com.example.samuraitravel.dto.ReviewSummary;
 import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.entity.Review;
 import com.example.samuraitravel.entity.User;
 
 public interface ReviewRepository extends JpaRepository<Review, Integer> {
-    public List<Review> findTop6ByHouseOrderByCreatedAtDesc(House house);
+    // 民宿詳細ページに表示するレビューを、投稿者の氏名とともに必要な列のみ作成日時が新しい順に取得する
+    @Query("SELECT new com.example.samuraitravel.dto.ReviewSummary(r.id, u.id, u.name, r.score, r.content, r.createdAt) "
+            + "FROM Review r JOIN r.user u WHERE r.house.id = :houseId ORDER BY r.createdAt DESC, r.id DESC")
+    public List<ReviewSummary> findSummariesByHouseId(Integer houseId, Pageable pageable);
     public Review findByHouseAndUser(House house, User user);
-    public long countByHouse(House house);
+    @EntityGraph(attributePaths = {"user"})
     public Page<Review> findByHouseOrderByCreatedAtDesc(House house, Pageable pageable);
-}
+    @EntityGraph(attributePaths = {"user"})
+    public Window<Review> findByHouse(House house, ScrollPosition position, Sort sort, Limit limit);
 
+    // 民宿削除時に、関連するレビューをエンティティを読み込まずに一括削除する
+    @Modifying
+    @Query("DELETE FROM Review r WHERE r.house = :house")
+    public void deleteByHouse(House house);
+}
@@ -1,14 +1,35 @@
 package com.example.samuraitravel.repository;
 
+import java.util.Collection;
+import java.util.Optional;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
+import com.example.samuraitravel.dto.UserPrincipal;
 import com.example.samuraitravel.entity.User;
 
 public interface UserRepository extends JpaRepository<User, Integer> {
 
     public User findByEmail(String email);
+
+    // 認証に必要な情報のみを、ロールとともに1回のクエリで取得する
+    @Query("SELECT new com.example.samuraitravel.dto.UserPrincipal(u.id, u.name, u.email, u.password, r.name, u.enabled) "
+            + "FROM User u JOIN u.role r WHERE u.email = :email")
+    public Optional<UserPrincipal> findPrincipalByEmail(String email);
+
     public Page<User> findByNameLikeOrFuriganaLike(String nameKeyword, String furiganaKeyword, Pageable pageable);
-}
 
+    // 指定したidのうち、メール認証が済んでいない会員を削除する
+    @Modifying
+    @Query("DELETE FROM User u WHERE u.id IN :ids AND u.enabled = false")
+    public int deleteUnverifiedByIdIn(Collection<Integer> ids);
+
+    // ログイン時に、古い形式のパスワードのハッシュを新しいハッシュに置き換える
+    @Modifying
+    @Query("UPDATE User u SET u.password = :password WHERE u.email = :email")
+    public int updatePasswordByEmail(String email, String password);
+}
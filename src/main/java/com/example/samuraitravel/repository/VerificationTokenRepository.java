@@ -1,10 +1,38 @@
 package com.example.samuraitravel.repository;
 
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import com.example.samuraitravel.entity.VerificationToken;
 
 public interface VerificationTokenRepository extends JpaRepository< VerificationToken, Integer> {
     public VerificationToken findByToken(String token);
-}
 
+    // 有効期限が切れていないトークンの文字列を、指定した文字列より後ろから順に取得する（tokenの一意インデックスを使用する）
+    @Query("SELECT t.token FROM VerificationToken t WHERE t.token > :afterToken AND t.expiresAt > :now ORDER BY t.token")
+    public List<String> findActiveTokensAfter(String afterToken, Timestamp now, Pageable pageable);
+
+    public long countByExpiresAtAfter(Timestamp now);
+
+    // 有効期限が切れたトークンのidを、有効期限が古い順に取得する
+    @Query("SELECT t.id FROM VerificationToken t WHERE t.expiresAt <= :now ORDER BY t.expiresAt")
+    public List<Integer> findExpiredIds(Timestamp now, Pageable pageable);
+
+    // 指定したトークンの会員のうち、メール認証が済んでおらず、予約などのデータを持たない会員のidを取得する
+    @Query("SELECT t.user.id FROM VerificationToken t WHERE t.id IN :ids AND t.user.enabled = false "
+            + "AND NOT EXISTS (SELECT r FROM Reservation r WHERE r.user = t.user) "
+            + "AND NOT EXISTS (SELECT d FROM ReservationDraft d WHERE d.userId = t.user.id) "
+            + "AND NOT EXISTS (SELECT v FROM Review v WHERE v.user = t.user) "
+            + "AND NOT EXISTS (SELECT f FROM Favorite f WHERE f.user = t.user)")
+    public List<Integer> findUnverifiedUserIds(Collection<Integer> ids);
+
+    @Modifying
+    @Query("DELETE FROM VerificationToken t WHERE t.id IN :ids")
+    public int deleteByIdIn(Collection<Integer> ids);
+}
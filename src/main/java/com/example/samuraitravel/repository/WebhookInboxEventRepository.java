@@ -0,0 +1,52 @@
+package com.example.samuraitravel.repository;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import com.example.samuraitravel.entity.WebhookInboxEvent;
+
+public interface WebhookInboxEventRepository extends JpaRepository<WebhookInboxEvent, Integer> {
+    // イベントを保存する（Stripeが同じイベントを再送した場合は何もしない）
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO webhook_inbox (event_id, event_type, payload, next_attempt_at) "
+            + "VALUES (:eventId, :eventType, :payload, :nextAttemptAt)", nativeQuery = true)
+    public int insertIgnore(String eventId, String eventType, String payload, Timestamp nextAttemptAt);
+
+    // 処理を開始できるイベントのidを、再試行時刻が早い順に取得する
+    @Query("SELECT e.id FROM WebhookInboxEvent e WHERE e.status = 'PENDING' AND e.nextAttemptAt <= :now ORDER BY e.nextAttemptAt")
+    public List<Integer> findDueIds(Timestamp now, Pageable pageable);
+
+    // イベントを処理中にする（他のワーカーが先に取得した場合は0を返す）
+    @Modifying
+    @Query("UPDATE WebhookInboxEvent e SET e.status = 'PROCESSING', e.lockedAt = :now, e.attempts = e.attempts + 1 WHERE e.id = :id AND e.status = 'PENDING'")
+    public int claim(Integer id, Timestamp now);
+
+    // 処理中のままワーカーが停止したイベントを未処理に戻す
+    @Modifying
+    @Query("UPDATE WebhookInboxEvent e SET e.status = 'PENDING' WHERE e.status = 'PROCESSING' AND e.lockedAt < :lockedBefore")
+    public int releaseStale(Timestamp lockedBefore);
+
+    @Modifying
+    @Query("UPDATE WebhookInboxEvent e SET e.status = 'DONE', e.lockedAt = null, e.lastError = null WHERE e.id = :id")
+    public void markDone(Integer id);
+
+    @Modifying
+    @Query("UPDATE WebhookInboxEvent e SET e.status = 'PENDING', e.lockedAt = null, e.nextAttemptAt = :nextAttemptAt, e.lastError = :lastError WHERE e.id = :id")
+    public void markRetry(Integer id, Timestamp nextAttemptAt, String lastError);
+
+    @Modifying
+    @Query("UPDATE WebhookInboxEvent e SET e.status = 'DEAD', e.lockedAt = null, e.lastError = :lastError WHERE e.id = :id")
+    public void markDead(Integer id, String lastError);
+
+    public long countByStatus(String status);
+
+    // 指定した日時より前に処理済みになったイベントを、指定件数まで削除する（DEADのイベントは調査のために残す）
+    @Modifying
+    @Query(value = "DELETE FROM webhook_inbox WHERE status = 'DONE' AND updated_at < :doneBefore LIMIT :limit", nativeQuery = true)
+    public int deleteDone(Timestamp doneBefore, int limit);
+}
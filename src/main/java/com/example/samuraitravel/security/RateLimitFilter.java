@@ -0,0 +1,94 @@
+package com.example.samuraitravel.security;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/*
+ * ログイン・会員登録・StripeのWebhookなどへのリクエスト数を、トークンバケットで制限するフィルター
+ * クライアントのIPアドレスごとに制限し、メールアドレスを送信するルートでは、メールアドレスごとにも制限する
+ * ログインでは、他人が誤ったパスワードを送り続けて本人をログインできなくすることがないよう、メールアドレスごとの制限をIPアドレスとの組み合わせごとに行う
+ * 上限を超えた場合は、パスワードのハッシュ化などの処理を行わずに429（Too Many Requests）を返す
+ * WebSecurityConfigでSecurityFilterChainに追加する（サーブレットのフィルターとしては登録しない）
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+    // route：メトリクスと設定に使う名前、emailParameter：メールアドレスを送信するパラメーター名（ない場合はnull）
+    // emailPerIp：trueの場合は、メールアドレスごとの制限をIPアドレスとメールアドレスの組み合わせごとに行う
+    public record Rule(String route, RequestMatcher requestMatcher, RateLimiter.Limit ipLimit, String emailParameter,
+            RateLimiter.Limit emailLimit, boolean emailPerIp) {
+
+        public Rule(String route, RequestMatcher requestMatcher, RateLimiter.Limit ipLimit, String emailParameter,
+                RateLimiter.Limit emailLimit) {
+            this(route, requestMatcher, ipLimit, emailParameter, emailLimit, false);
+        }
+    }
+
+    private final RateLimiter rateLimiter;
+    private final List<Rule> rules;
+
+    public RateLimitFilter(RateLimiter rateLimiter, List<Rule> rules) {
+        this.rateLimiter = rateLimiter;
+        this.rules = rules;
+    }
+
+    // rate-limit.<name>.capacityとrate-limit.<name>.periodで上書きできる制限を返す
+    public static RateLimiter.Limit limit(Environment environment, String name, int capacity, Duration period) {
+        return new RateLimiter.Limit(
+                environment.getProperty("rate-limit." + name + ".capacity", Integer.class, capacity),
+                environment.getProperty("rate-limit." + name + ".period", Duration.class, period));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        for (Rule rule : rules) {
+            if (!rule.requestMatcher().matches(request)) {
+                continue;
+            }
+
+            long waitNanos = rateLimiter.tryAcquire(rule.route(), "ip", request.getRemoteAddr(), rule.ipLimit());
+
+            if (waitNanos == 0 && rule.emailParameter() != null) {
+                String email = request.getParameter(rule.emailParameter());
+
+                if (email != null && !email.isBlank()) {
+                    String key = email.strip().toLowerCase(Locale.ROOT);
+
+                    waitNanos = rule.emailPerIp()
+                            ? rateLimiter.tryAcquire(rule.route(), "ip_email", request.getRemoteAddr() + "|" + key, rule.emailLimit())
+                            : rateLimiter.tryAcquire(rule.route(), "email", key, rule.emailLimit());
+                }
+            }
+
+            if (waitNanos > 0) {
+                reject(response, waitNanos);
+                return;
+            }
+
+            break;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    private static void reject(HttpServletResponse response, long waitNanos) throws IOException {
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write("リクエストが多すぎます。しばらくしてからもう一度お試しください。");
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.samuraitravel.security;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * ルートとキー（IPアドレスやメールアドレス）ごとのトークンバケットを保持し、リクエストを許可するかどうかを判定するクラス
+ * バケットの数には上限を設け、上限に達した場合や定期的に、満杯の（しばらく使われていない）バケットから削除する
+ * それでも上限を超える場合（多数のIPアドレスからの攻撃など）は、任意のバケットを削除してメモリの使用量を抑える
+ */
+@Component
+public class RateLimiter {
+    private static final int MAX_BUCKETS = 100000;
+
+    // 容量（capacity）までリクエストを許可し、period経過ごとに容量分のトークンを補充する
+    public record Limit(int capacity, Duration period) {
+    }
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final MeterRegistry meterRegistry;
+
+    public RateLimiter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("rate_limit.buckets", buckets, Map::size).register(meterRegistry);
+    }
+
+    // リクエストを許可する場合は0を、拒否する場合は再試行できるまでの時間（ナノ秒）を返す
+    public long tryAcquire(String route, String keyType, String key, Limit limit) {
+        long now = System.nanoTime();
+        String bucketKey = route + "|" + keyType + "|" + key;
+        TokenBucket tokenBucket = buckets.get(bucketKey);
+
+        if (tokenBucket == null) {
+            if (buckets.size() >= MAX_BUCKETS) {
+                evict(now);
+            }
+
+            tokenBucket = buckets.computeIfAbsent(bucketKey, k -> new TokenBucket(limit, now));
+        }
+
+        long waitNanos = tokenBucket.tryConsume(now);
+
+        if (waitNanos > 0) {
+            meterRegistry.counter("rate_limit.rejected", "route", route, "key", keyType).increment();
+        }
+
+        return waitNanos;
+    }
+
+    // 満杯のバケットを1分ごとに削除する
+    @Scheduled(fixedDelay = 60000)
+    public void evictFullBuckets() {
+        evict(System.nanoTime());
+    }
+
+    private void evict(long now) {
+        // 他のスレッドが削除している間は、そのスレッドに任せる
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            buckets.values().removeIf(tokenBucket -> tokenBucket.isFull(now));
+
+            Iterator<TokenBucket> iterator = buckets.values().iterator();
+
+            // 満杯のバケットを削除しても上限の9割を超えている場合は、9割を下回るまで任意のバケットを削除する
+            while (buckets.size() > MAX_BUCKETS * 9 / 10 && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+}
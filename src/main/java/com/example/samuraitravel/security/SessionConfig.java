@@ -0,0 +1,26 @@
+package com.example.samuraitravel.security;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.session.FlushMode;
+import org.springframework.session.SaveMode;
+import org.springframework.session.jdbc.config.annotation.web.http.EnableJdbcHttpSession;
+
+/*
+ * 本番環境ではHTTPセッションをMySQL（SPRING_SESSIONテーブル）に保存し、複数のインスタンスで共有する
+ * セッション以外の状態も、webプロセスを複数起動できるよう次のように扱う
+ * ・仮押さえ（ReservationHoldManager）はreservation_holdsテーブルに保存し、民宿の行のロック内で確認する
+ * ・認証トークンのブルームフィルター（VerificationTokenService）に含まれないトークンは、データベースで確認する
+ * ・空室状況（HouseAvailabilityIndex）と検索インデックス（HouseSearchIndex）はメモリ上の複製で、他のサーバーでの変更を定期的に取り込む
+ *   予約の登録時は空室状況ではなくデータベースで重複を確認するため、取り込みが遅れても二重に予約されることはない
+ * ・リクエスト数の制限（RateLimiter）はサーバーごとに数えるため、全体の上限はプロセス数倍になる
+ * ・民宿の画像（HouseService.STORAGE_DIRECTORY）と縮小画像（HouseImageProcessor）は各サーバーのディスクに保存するため、
+ *   管理画面から画像を登録する場合は、すべてのwebプロセスから参照できるディスクを保存先にする必要がある
+ * リクエスト中に変更（setAttribute）された属性のみを、レスポンスを返す前にまとめて書き込む
+ * 開発環境とテストでは、これまでどおりTomcatのメモリ上にセッションを保持する
+ */
+@Configuration
+@Profile("production")
+@EnableJdbcHttpSession(maxInactiveIntervalInSeconds = 30 * 60, flushMode = FlushMode.ON_SAVE, saveMode = SaveMode.ON_SET_ATTRIBUTE)
+public class SessionConfig {
+}
@@ -0,0 +1,50 @@
+package com.example.samuraitravel.security;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * トークンバケット（容量までトークンを貯め、一定の速度で補充する）
+ * 状態を不変オブジェクトにまとめてCASで更新するため、ロックを使わずに複数のスレッドから呼び出せる
+ */
+class TokenBucket {
+    private record State(double tokens, long refilledAtNanos) {
+    }
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private final AtomicReference<State> state;
+
+    TokenBucket(RateLimiter.Limit limit, long nowNanos) {
+        this.capacity = limit.capacity();
+        this.tokensPerNano = limit.capacity() / (double) limit.period().toNanos();
+        this.state = new AtomicReference<>(new State(capacity, nowNanos));
+    }
+
+    // トークンを1つ消費できれば0を、できなければ次のトークンが補充されるまでの時間（ナノ秒）を返す
+    long tryConsume(long nowNanos) {
+        while (true) {
+            State current = state.get();
+            long refilledAtNanos = Math.max(current.refilledAtNanos(), nowNanos);
+            double tokens = available(current, nowNanos);
+
+            if (tokens < 1) {
+                return (long) Math.ceil((1 - tokens) / tokensPerNano);
+            }
+
+            if (state.compareAndSet(current, new State(tokens - 1, refilledAtNanos))) {
+                return 0;
+            }
+        }
+    }
+
+    // トークンが満杯であれば、削除しても新しく作り直したバケットと変わらない
+    boolean isFull(long nowNanos) {
+        return available(state.get(), nowNanos) >= capacity;
+    }
+
+    private double available(State current, long nowNanos) {
+        long elapsedNanos = Math.max(0, nowNanos - current.refilledAtNanos());
+
+        return Math.min(capacity, current.tokens() + elapsedNanos * tokensPerNano);
+    }
+}
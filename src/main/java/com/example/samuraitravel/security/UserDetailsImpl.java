@@ -2,34 +2,52 @@ package com.example.samuraitravel.security;
 
 import java.util.Collection;
 
+import org.springframework.security.core.CredentialsContainer;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
-import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.dto.UserPrincipal;
 
-public class UserDetailsImpl implements UserDetails {
-    private final User user;
+/*
+ * ログイン中の会員を表すクラス
+ * 会員のエンティティ全体ではなく認証に必要な情報（UserPrincipal）のみを保持する
+ * 会員のエンティティが必要な場合は、getUserIdで取得したidを使ってUserServiceから取得する
+ * 認証後はパスワードを消去するため、HTTPセッション（Spring Session）にはid・氏名・メールアドレス・ロールのみが保存される
+ */
+public class UserDetailsImpl implements UserDetails, CredentialsContainer {
+    private static final long serialVersionUID = 1L;
+
+    private UserPrincipal userPrincipal;
     private final Collection<GrantedAuthority> authorities;
 
-    public UserDetailsImpl(User user, Collection<GrantedAuthority> authorities) {
-        this.user = user;
+    public UserDetailsImpl(UserPrincipal userPrincipal, Collection<GrantedAuthority> authorities) {
+        this.userPrincipal = userPrincipal;
         this.authorities = authorities;
     }
 
-    public User getUser() {
-        return user;
+    UserPrincipal getUserPrincipal() {
+        return userPrincipal;
+    }
+
+    public Integer getUserId() {
+        return userPrincipal.getId();
+    }
+
+    // ヘッダーなどに表示する氏名を返す
+    public String getName() {
+        return userPrincipal.getName();
     }
 
     // ハッシュ化済みのパスワードを返す
     @Override
     public String getPassword() {
-        return user.getPassword();
+        return userPrincipal.getPassword();
     }
 
     // ログイン時に利用するユーザー名（メールアドレス）を返す
     @Override
     public String getUsername() {
-        return user.getEmail();
+        return userPrincipal.getEmail();
     }
 
     // ロールのコレクションを返す
@@ -56,10 +74,16 @@ public class UserDetailsImpl implements UserDetails {
         return true;
     }
 
+    // 認証が済んだらパスワードを消去する（AuthenticationManagerから呼び出される）
+    @Override
+    public void eraseCredentials() {
+        userPrincipal = userPrincipal.withoutPassword();
+    }
+
     // ユーザーが有効であればtrueを返す
     @Override
     public boolean isEnabled() {
-        return user.getEnabled();
+        return userPrincipal.getEnabled();
     }
 }
 
@@ -6,32 +6,52 @@ import java.util.Collection;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.dto.UserPrincipal;
 import com.example.samuraitravel.repository.UserRepository;
 
 @Service
-public class UserDetailsServiceImpl implements UserDetailsService {
+public class UserDetailsServiceImpl implements UserDetailsService, UserDetailsPasswordService {
     private final UserRepository userRepository;
+    private final UserPrincipalCache userPrincipalCache;
 
-    public UserDetailsServiceImpl(UserRepository userRepository) {
+    public UserDetailsServiceImpl(UserRepository userRepository, UserPrincipalCache userPrincipalCache) {
         this.userRepository = userRepository;
+        this.userPrincipalCache = userPrincipalCache;
     }
 
+    // 認証に必要な情報をキャッシュから取得する（キャッシュになければ1回のクエリで読み込む）
     @Override
     public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException {
-        try {
-            User user = userRepository.findByEmail(email);
-            String userRoleName = user.getRole().getName();
-            Collection<GrantedAuthority> authorities = new ArrayList<>();
-            authorities.add(new SimpleGrantedAuthority(userRoleName));
-            return new UserDetailsImpl(user, authorities);
-        } catch (Exception e) {
-            throw new UsernameNotFoundException("ユーザーが見つかりませんでした。");
-        }
+        UserPrincipal userPrincipal = userPrincipalCache.get(email, userRepository::findPrincipalByEmail)
+                .orElseThrow(() -> new UsernameNotFoundException("ユーザーが見つかりませんでした。"));
+
+        return toUserDetails(userPrincipal);
     }
-}
 
+    // ログインに成功した際、保存済みのハッシュが古い形式や低いコストであれば、新しいハッシュに置き換える
+    // （DaoAuthenticationProviderから、PasswordEncoder.upgradeEncodingがtrueの場合に呼び出される）
+    @Override
+    @Transactional
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        userRepository.updatePasswordByEmail(userDetails.getUsername(), newPassword);
+        userPrincipalCache.evict(userDetails.getUsername());
+
+        UserPrincipal userPrincipal = ((UserDetailsImpl) userDetails).getUserPrincipal();
+
+        return toUserDetails(new UserPrincipal(userPrincipal.getId(), userPrincipal.getName(), userPrincipal.getEmail(),
+                newPassword, userPrincipal.getRoleName(), userPrincipal.getEnabled()));
+    }
+
+    private static UserDetails toUserDetails(UserPrincipal userPrincipal) {
+        Collection<GrantedAuthority> authorities = new ArrayList<>();
+        authorities.add(new SimpleGrantedAuthority(userPrincipal.getRoleName()));
+
+        return new UserDetailsImpl(userPrincipal, authorities);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.samuraitravel.security;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.samuraitravel.dto.UserPrincipal;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/*
+ * ログイン時に使用する会員の認証情報（UserPrincipal）を、メールアドレスをキーとしてメモリ上に保持するキャッシュ
+ * 件数の上限を超えた場合は最も長く使われていないものから削除し（LRU）、有効期限が切れたものは読み込み直す
+ * 会員情報の変更時はUserServiceから削除する
+ */
+@Component
+public class UserPrincipalCache {
+    private static final int MAX_ENTRIES = 10000;
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    private record Entry(UserPrincipal userPrincipal, long expiresAtNanos) {
+    }
+
+    // アクセス順のLinkedHashMap（thisで同期する）
+    private final Map<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    // 削除した回数（読み込み中に削除された場合は、読み込んだ古い情報をキャッシュしない）
+    private long evictions;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public UserPrincipalCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.hitCounter = meterRegistry.counter("user.principal.cache", "result", "hit");
+        this.missCounter = meterRegistry.counter("user.principal.cache", "result", "miss");
+    }
+
+    // キャッシュの件数のゲージはthisを参照するため、コンストラクタではなく構築後に登録する
+    @PostConstruct
+    private void registerSizeGauge() {
+        Gauge.builder("user.principal.cache.size", this, UserPrincipalCache::size).register(meterRegistry);
+    }
+
+    // キャッシュにあればそれを返し、なければloaderで読み込んでキャッシュする（存在しない会員はキャッシュしない）
+    public Optional<UserPrincipal> get(String email, Function<String, Optional<UserPrincipal>> loader) {
+        String key = normalize(email);
+        long now = System.nanoTime();
+        long evictionsBeforeLoad;
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+
+            if (entry != null && now - entry.expiresAtNanos() < 0) {
+                hitCounter.increment();
+                return Optional.of(entry.userPrincipal());
+            }
+
+            evictionsBeforeLoad = evictions;
+        }
+
+        missCounter.increment();
+        Optional<UserPrincipal> optionalUserPrincipal = loader.apply(email);
+
+        optionalUserPrincipal.ifPresent(userPrincipal -> {
+            synchronized (this) {
+                if (evictions == evictionsBeforeLoad) {
+                    entries.put(key, new Entry(userPrincipal, now + TTL.toNanos()));
+                }
+            }
+        });
+
+        return optionalUserPrincipal;
+    }
+
+    // 指定したメールアドレスの認証情報を削除する
+    // トランザクション内で呼び出した場合は、変更前の情報が読み込み直されないよう、コミット後にも削除する
+    public void evict(String email) {
+        if (email == null) {
+            return;
+        }
+
+        String key = normalize(email);
+        remove(key);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(key);
+                }
+            });
+        }
+    }
+
+    private synchronized void remove(String key) {
+        entries.remove(key);
+        evictions++;
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    // MySQLの照合順序に合わせ、大文字・小文字を区別しない
+    private static String normalize(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,26 +1,50 @@
 package com.example.samuraitravel.security;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 @Configuration
 @EnableWebSecurity
 @EnableMethodSecurity
 public class WebSecurityConfig {
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, RateLimiter rateLimiter, Environment environment)
+            throws Exception {
+        // ルートごとのリクエスト数の制限（application.propertiesのrate-limit.*で上書きできる）
+        // ログインのメールアドレスごとの制限はIPアドレスとの組み合わせごとに行い、他のIPアドレスからの試行で本人がログインできなくならないようにする
+        List<RateLimitFilter.Rule> rateLimitRules = List.of(
+                new RateLimitFilter.Rule("login", new AntPathRequestMatcher("/login", "POST"),
+                        RateLimitFilter.limit(environment, "login.ip", 30, Duration.ofMinutes(1)),
+                        "username", RateLimitFilter.limit(environment, "login.email", 10, Duration.ofMinutes(5)), true),
+                new RateLimitFilter.Rule("signup", new AntPathRequestMatcher("/signup/**", "POST"),
+                        RateLimitFilter.limit(environment, "signup.ip", 10, Duration.ofHours(1)),
+                        "email", RateLimitFilter.limit(environment, "signup.email", 3, Duration.ofHours(1))),
+                new RateLimitFilter.Rule("webhook", new AntPathRequestMatcher("/stripe/webhook", "POST"),
+                        RateLimitFilter.limit(environment, "webhook.ip", 300, Duration.ofMinutes(1)), null, null));
+
         http
                 .authorizeHttpRequests((requests) -> requests
                         .requestMatchers("/css/**", "/images/**", "/js/**", "/storage/**", "/", "/signup/**", "/houses",
-                                "/houses/{id}", "/stripe/webhook", "/houses/{houseId}/reviews", "/faqs").permitAll() // すべてのユーザーにアクセスを許可するURL
-                        .requestMatchers("/admin/**").hasRole("ADMIN") // 管理者にのみアクセスを許可するURL
+                                "/houses/{id}", "/houses/{id}/availability", "/stripe/webhook", "/houses/{houseId}/reviews", "/faqs").permitAll() // すべてのユーザーにアクセスを許可するURL
+                        .requestMatchers("/actuator/health").permitAll() // 死活監視用のURL
+                        .requestMatchers("/admin/**", "/actuator/**").hasRole("ADMIN") // 管理者にのみアクセスを許可するURL
                         .anyRequest().authenticated() // 上記以外のURLはログインが必要（会員または管理者のどちらでもOK）
                 )
                 .formLogin((form) -> form
@@ -34,13 +58,30 @@ public class WebSecurityConfig {
                         .permitAll()
                         )
                 // 外部からPOST送信を受ける場合、CSRF対策によってアクセスが拒否されるため、StripeのWebhookの場合はCSRF対策を無効にする
-                .csrf(csrf -> csrf.ignoringRequestMatchers(new AntPathRequestMatcher("/stripe/webhook")));     
+                .csrf(csrf -> csrf.ignoringRequestMatchers(new AntPathRequestMatcher("/stripe/webhook")))
+                // 認証やパスワードのハッシュ化の前に、リクエスト数を制限する
+                .addFilterBefore(new RateLimitFilter(rateLimiter, rateLimitRules), UsernamePasswordAuthenticationFilter.class);
         
         return http.build();
     }
 
+    // 新しいハッシュは「{bcrypt}」を先頭に付けて保存し、接頭辞のない既存のハッシュもBCryptとして照合する
+    // 保存済みのハッシュが古い形式や低いコストの場合は、ログイン時にUserDetailsServiceImpl.updatePasswordで作り直す
+    // コスト（strength）の根拠はPasswordEncoderBenchmarkを参照
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${security.password.bcrypt-strength:10}") int bcryptStrength,
+            @Value("${security.password.hashing.concurrency:0}") int concurrency,
+            @Value("${security.password.hashing.queue-capacity:64}") int queueCapacity,
+            @Value("${security.password.hashing.max-wait:5s}") Duration maxWait,
+            MeterRegistry meterRegistry) {
+        BCryptPasswordEncoder bcryptPasswordEncoder = new BCryptPasswordEncoder(bcryptStrength);
+        DelegatingPasswordEncoder delegatingPasswordEncoder = new DelegatingPasswordEncoder("bcrypt",
+                Map.of("bcrypt", bcryptPasswordEncoder));
+        delegatingPasswordEncoder.setDefaultPasswordEncoderForMatches(bcryptPasswordEncoder);
+
+        // 0の場合はCPUのコア数の半分（最低1）とし、残りのコアをページの表示に使えるようにする
+        int hashingConcurrency = concurrency > 0 ? concurrency : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        return new BoundedPasswordEncoder(delegatingPasswordEncoder, hashingConcurrency, queueCapacity, maxWait, meterRegistry);
     }
 }
@@ -0,0 +1,108 @@
+package com.example.samuraitravel.service;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/*
+ * HouseFavoriteCounterで数えたお気に入り数の差分を、house_statsテーブルにまとめて書き込むクラス
+ * 一定件数の民宿ごとに1回のトランザクションで書き込み、コミットされた差分のみを書き込み済みにする（失敗した差分は次回に再試行する）
+ * 書き込み前にサーバーが停止した場合は差分が失われるため、毎日お気に入りテーブルから再集計して修復する
+ * 書き込み・読み込み・再集計はこのクラスのロック内で順に行う
+ */
+@Component
+public class FavoriteCountFlushJob {
+    private static final Logger log = LoggerFactory.getLogger(FavoriteCountFlushJob.class);
+
+    private static final int BATCH_SIZE = 100;
+
+    // 1回の実行で書き込むバッチ数の上限（書き込み中に加えられた差分は次回に書き込む）
+    private static final int MAX_BATCHES_PER_RUN = 10;
+
+    private final HouseFavoriteCounter houseFavoriteCounter;
+    private final FavoriteService favoriteService;
+
+    private final Counter flushedCounter;
+
+    public FavoriteCountFlushJob(HouseFavoriteCounter houseFavoriteCounter, FavoriteService favoriteService, MeterRegistry meterRegistry) {
+        this.houseFavoriteCounter = houseFavoriteCounter;
+        this.favoriteService = favoriteService;
+
+        this.flushedCounter = meterRegistry.counter("favorite.count.flushed");
+    }
+
+    // 5秒ごとに、まだ書き込んでいない差分を書き込む
+    @Scheduled(fixedDelay = 5000)
+    public synchronized void flush() {
+        for (int i = 0; i < MAX_BATCHES_PER_RUN && flushBatch(); i++) {
+            // バッチが満杯の間は続けて書き込む
+        }
+    }
+
+    // 起動時と5分ごとに、house_statsテーブルから書き込み済みの値を読み込む
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public synchronized void reload() {
+        houseFavoriteCounter.load(favoriteService.findFavoriteCounts());
+    }
+
+    // 毎日午前4時30分に、お気に入りテーブルからお気に入り数を再集計する
+    // お気に入りの追加・削除はコミット後にカウンターに加えられるため、再集計の開始前に加えられた差分は再集計に含まれる
+    // それらの差分は書き込むと二重に数えることになるため、書き込まずに書き込み済みにしてから再集計した値を読み込む
+    // （再集計中にコミットされた差分のみ二重に数えることがあるが、ずれは翌日の再集計で解消される）
+    @Scheduled(cron = "0 30 4 * * *")
+    public synchronized void repair() {
+        Map<Integer, Long> coveredTotals = houseFavoriteCounter.findAddedTotals();
+        int repaired;
+
+        try {
+            repaired = favoriteService.rebuildFavoriteCounts();
+        } catch (RuntimeException e) {
+            log.warn("お気に入り数の再集計に失敗しました。", e);
+            return;
+        }
+
+        houseFavoriteCounter.markCovered(coveredTotals);
+        reload();
+
+        System.out.println(repaired + "件の民宿のお気に入り数を再集計しました。");
+    }
+
+    // アプリケーションの停止時に、まだ書き込んでいない差分をすべて書き込む
+    @PreDestroy
+    public synchronized void flushAll() {
+        while (flushBatch()) {
+            // 差分がなくなるか、書き込みに失敗するまで続ける
+        }
+    }
+
+    // 1バッチ分の差分を1回のトランザクションで書き込む（バッチが満杯で、まだ差分が残っている可能性がある場合はtrueを返す）
+    private boolean flushBatch() {
+        Map<Integer, Integer> deltas = houseFavoriteCounter.findPendingDeltas(BATCH_SIZE);
+
+        if (deltas.isEmpty()) {
+            return false;
+        }
+
+        try {
+            favoriteService.applyFavoriteCountDeltas(deltas);
+        } catch (RuntimeException e) {
+            log.warn("お気に入り数の書き込みに失敗しました（{}件の民宿）。", deltas.size(), e);
+            return false;
+        }
+
+        houseFavoriteCounter.markFlushed(deltas);
+        flushedCounter.increment(deltas.size());
+
+        return deltas.size() == BATCH_SIZE;
+    }
+}
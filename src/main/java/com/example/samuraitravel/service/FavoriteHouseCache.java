@@ -0,0 +1,89 @@
+package com.example.samuraitravel.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import org.springframework.stereotype.Component;
+
+import com.example.samuraitravel.dto.HouseIdBitmap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/*
+ * 会員ごとのお気に入りの民宿のidの集合（HouseIdBitmap）を、会員のidをキーとしてメモリ上に保持するキャッシュ
+ * 初めて参照したときに1回のクエリで読み込み、お気に入りの追加・削除のコミット後に更新する
+ * 件数の上限を超えた場合は最も長く使われていない会員のものから削除する（LRU）
+ */
+@Component
+public class FavoriteHouseCache {
+    private static final int MAX_USERS = 10000;
+
+    // アクセス順のLinkedHashMap（thisで同期する）
+    private final Map<Integer, HouseIdBitmap> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, HouseIdBitmap> eldest) {
+            return size() > MAX_USERS;
+        }
+    };
+
+    // 更新した回数（読み込み中に更新された場合は、読み込んだ古い集合をキャッシュしない）
+    private long updates;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public FavoriteHouseCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.hitCounter = meterRegistry.counter("favorite.house.cache", "result", "hit");
+        this.missCounter = meterRegistry.counter("favorite.house.cache", "result", "miss");
+    }
+
+    // 件数のゲージは同期のためにthisを使うので、Beanの初期化後に登録する
+    @PostConstruct
+    private void registerSizeGauge() {
+        Gauge.builder("favorite.house.cache.size", this, FavoriteHouseCache::size).register(meterRegistry);
+    }
+
+    // キャッシュにあればそれを返し、なければloaderで読み込んでキャッシュする
+    public HouseIdBitmap get(Integer userId, Function<Integer, HouseIdBitmap> loader) {
+        long updatesBeforeLoad;
+
+        synchronized (this) {
+            HouseIdBitmap houseIds = entries.get(userId);
+
+            if (houseIds != null) {
+                hitCounter.increment();
+                return houseIds;
+            }
+
+            updatesBeforeLoad = updates;
+        }
+
+        missCounter.increment();
+        HouseIdBitmap houseIds = loader.apply(userId);
+
+        synchronized (this) {
+            if (updates == updatesBeforeLoad) {
+                entries.put(userId, houseIds);
+            }
+        }
+
+        return houseIds;
+    }
+
+    // キャッシュ済みの会員の集合を更新する（キャッシュしていない会員は、次に参照したときに読み込む）
+    public synchronized void update(Integer userId, UnaryOperator<HouseIdBitmap> operator) {
+        entries.computeIfPresent(userId, (key, houseIds) -> operator.apply(houseIds));
+        updates++;
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+}
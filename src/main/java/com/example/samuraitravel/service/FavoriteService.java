@@ -1,23 +1,39 @@
 package com.example.samuraitravel.service;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.function.UnaryOperator;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.example.samuraitravel.dto.HouseIdBitmap;
 import com.example.samuraitravel.entity.Favorite;
 import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.HouseStats;
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.repository.FavoriteRepository;
+import com.example.samuraitravel.repository.HouseStatsRepository;
 
 @Service
 public class FavoriteService {
     private final FavoriteRepository favoriteRepository;
+    private final FavoriteHouseCache favoriteHouseCache;
+    private final HouseStatsRepository houseStatsRepository;
+    private final HouseFavoriteCounter houseFavoriteCounter;
 
-    public FavoriteService(FavoriteRepository favoriteRepository) {
+    public FavoriteService(FavoriteRepository favoriteRepository, FavoriteHouseCache favoriteHouseCache,
+            HouseStatsRepository houseStatsRepository, HouseFavoriteCounter houseFavoriteCounter) {
         this.favoriteRepository = favoriteRepository;
+        this.favoriteHouseCache = favoriteHouseCache;
+        this.houseStatsRepository = houseStatsRepository;
+        this.houseFavoriteCounter = houseFavoriteCounter;
     }
 
     // 指定したidを持つお気に入りを取得する
@@ -43,15 +59,71 @@ public class FavoriteService {
         favorite.setUser(user);
 
         favoriteRepository.save(favorite);
+
+        Integer houseId = house.getId();
+        updateAfterCommit(user.getId(), houseId, houseIds -> houseIds.with(houseId), 1);
     }
 
     @Transactional
     public void deleteFavorite(Favorite favorite) {
         favoriteRepository.delete(favorite);
+
+        Integer houseId = favorite.getHouse().getId();
+        updateAfterCommit(favorite.getUser().getId(), houseId, houseIds -> houseIds.without(houseId), -1);
+    }
+
+    // 指定した会員のお気に入りの民宿のidの集合を取得する（一覧ページでカードごとにクエリを実行せずに判定するため）
+    public HouseIdBitmap findFavoriteHouseIds(Integer userId) {
+        return favoriteHouseCache.get(userId, id -> HouseIdBitmap.of(favoriteRepository.findHouseIdsByUserId(id)));
+    }
+
+    // 指定した民宿のお気に入り数を取得する（お気に入りテーブルを数えず、メモリ上のカウンターの値を使う）
+    public long getFavoriteCount(Integer houseId) {
+        return houseFavoriteCounter.get(houseId);
+    }
+
+    // 指定した民宿のお気に入り数を、民宿のid → お気に入り数のMapで取得する（一覧ページのカード用）
+    public Map<Integer, Long> getFavoriteCounts(Collection<Integer> houseIds) {
+        return houseFavoriteCounter.get(houseIds);
+    }
+
+    // メモリ上で数えたお気に入り数の差分を、1回のトランザクションでhouse_statsテーブルに加算する
+    @Transactional
+    public void applyFavoriteCountDeltas(Map<Integer, Integer> deltas) {
+        deltas.forEach(houseStatsRepository::addFavoriteCount);
+    }
+
+    // house_statsテーブルに書き込み済みのお気に入り数を、民宿のid → お気に入り数のMapで取得する
+    public Map<Integer, Integer> findFavoriteCounts() {
+        return houseStatsRepository.findAll().stream()
+                .collect(Collectors.toMap(HouseStats::getHouseId, HouseStats::getFavoriteCount));
+    }
+
+    // お気に入りテーブルからすべての民宿のお気に入り数を再集計する
+    @Transactional
+    public int rebuildFavoriteCounts() {
+        return houseStatsRepository.rebuildFavoriteCounts();
     }
 
     // 指定したユーザーが指定した民宿をすでにお気に入りに追加済みかどうかをチェックする
     public boolean isFavorite(House house, User user) {
         return favoriteRepository.findByHouseAndUser(house, user) != null;
     }
+
+    // トランザクションがコミットされた後に、キャッシュしているお気に入りの民宿のidの集合と、民宿のお気に入り数を更新する
+    private void updateAfterCommit(Integer userId, Integer houseId, UnaryOperator<HouseIdBitmap> operator, int delta) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            favoriteHouseCache.update(userId, operator);
+            houseFavoriteCounter.add(houseId, delta);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                favoriteHouseCache.update(userId, operator);
+                houseFavoriteCounter.add(houseId, delta);
+            }
+        });
+    }
 }
@@ -0,0 +1,325 @@
+package com.example.samuraitravel.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.samuraitravel.dto.BookedDateRange;
+import com.example.samuraitravel.dto.ReservationPeriod;
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.ReservationRepository;
+
+/*
+ * 民宿ごとの空室状況（予約可能期間の1日を1ビットで表したビットマップ）をメモリ上に保持するクラス
+ * 予約可能期間は今日からHORIZON_DAYS日間で、5分ごと（日付が変わった直後を含む）にデータベースから作り直す
+ * 他のサーバーで登録された予約は、予約のidを手がかりに10秒ごとにデータベースから取り込む
+ * 予約可能期間外の日付を含む問い合わせは、データベースで判定する
+ */
+@Component
+public class HouseAvailabilityIndex {
+    // 予約可能期間の日数（カレンダーで選択できる3か月先までを含む）
+    public static final int HORIZON_DAYS = 128;
+    private static final int WORDS = HORIZON_DAYS / Long.SIZE;
+
+    private final HouseRepository houseRepository;
+    private final ReservationRepository reservationRepository;
+
+    // 民宿と予約の登録（読み取りロック）と全体の作り直し（書き込みロック）を排他にする
+    // 作り直しの途中の登録は、作り直しの完了を待ってから新しい空室状況に反映する
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile Snapshot snapshot = new Snapshot(LocalDate.now().toEpochDay(), System.currentTimeMillis(), new ConcurrentHashMap<>(),
+            new AtomicInteger());
+
+    public HouseAvailabilityIndex(HouseRepository houseRepository, ReservationRepository reservationRepository) {
+        this.houseRepository = houseRepository;
+        this.reservationRepository = reservationRepository;
+    }
+
+    // アプリケーションの起動時と5分ごとに、データベースから空室状況を作り直す
+    // 他のサーバーでの民宿の登録・更新・削除と、取り込みで漏れた予約もここで反映する
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "0 */5 * * * *")
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            LocalDate today = LocalDate.now();
+            Map<Integer, HouseCalendar> calendars = new ConcurrentHashMap<>();
+
+            for (House house : houseRepository.findAll()) {
+                calendars.put(house.getId(), new HouseCalendar(house.getCapacity()));
+            }
+
+            // 予約を読み込む前にidの最大値を記録する（読み込みと重複して取り込んでも、同じ日付を予約済みにするだけで結果は変わらない）
+            Snapshot newSnapshot = new Snapshot(today.toEpochDay(), System.currentTimeMillis(), calendars,
+                    new AtomicInteger(reservationRepository.findMaxId()));
+
+            for (ReservationPeriod period : reservationRepository.findPeriodsByCheckoutDateAfter(today)) {
+                newSnapshot.markBooked(period.getHouseId(), period.getCheckinDate(), period.getCheckoutDate());
+            }
+
+            snapshot = newSnapshot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 前回の取り込み以降に登録された予約（他のサーバーで登録されたものを含む）を、10秒ごとにデータベースから取り込む
+    // idの採番順とコミット順は一致しないため、取り込み時にコミットされていなかった予約は漏れる場合があるが、次の作り直しで反映される
+    // （予約の登録時は空室状況ではなくデータベースで重複を確認するため、漏れても二重に予約されることはない）
+    @Scheduled(fixedDelay = 10000, initialDelay = 10000)
+    public void refresh() {
+        lock.readLock().lock();
+        try {
+            Snapshot current = snapshot;
+            int syncedId = current.syncedReservationId.get();
+            int maxId = reservationRepository.findMaxId();
+
+            if (maxId <= syncedId) {
+                return;
+            }
+
+            for (ReservationPeriod period : reservationRepository.findPeriodsByIdBetween(syncedId, maxId,
+                    LocalDate.ofEpochDay(current.baseDay))) {
+                current.markBooked(period.getHouseId(), period.getCheckinDate(), period.getCheckoutDate());
+            }
+
+            current.syncedReservationId.set(maxId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 民宿を登録または更新する（予約済みの日付は維持する）
+    public void putHouse(House house) {
+        lock.readLock().lock();
+        try {
+            snapshot.calendars.compute(house.getId(), (id, calendar) -> {
+                if (calendar == null) {
+                    return new HouseCalendar(house.getCapacity());
+                }
+
+                calendar.capacity = house.getCapacity();
+                return calendar;
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 民宿を削除する
+    public void removeHouse(Integer houseId) {
+        lock.readLock().lock();
+        try {
+            snapshot.calendars.remove(houseId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 指定した期間[チェックイン日, チェックアウト日)を予約済みにする
+    public void markBooked(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+        lock.readLock().lock();
+        try {
+            snapshot.markBooked(houseId, checkinDate, checkoutDate);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 期間が予約可能期間内に収まっているかどうか（収まっていなければデータベースで判定する必要がある）
+    public boolean covers(LocalDate checkinDate, LocalDate checkoutDate) {
+        return snapshot.covers(checkinDate, checkoutDate);
+    }
+
+    // 指定した民宿が期間[チェックイン日, チェックアウト日)のすべての日で空室かどうか（covers()がtrueの場合のみ使用する）
+    public boolean isAvailable(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+        Snapshot current = snapshot;
+        HouseCalendar calendar = current.calendars.get(houseId);
+
+        return calendar != null && calendar.isFree(current.toMasks(checkinDate, checkoutDate));
+    }
+
+    // 期間[チェックイン日, チェックアウト日)のすべての日で空室があり、定員が宿泊人数以上の民宿のidを取得する（covers()がtrueの場合のみ使用する）
+    public List<Integer> findAvailableHouseIds(LocalDate checkinDate, LocalDate checkoutDate, Integer numberOfPeople) {
+        Snapshot current = snapshot;
+        long[] masks = current.toMasks(checkinDate, checkoutDate);
+        List<Integer> houseIds = new ArrayList<>();
+
+        current.calendars.forEach((houseId, calendar) -> {
+            if ((numberOfPeople == null || calendar.capacity >= numberOfPeople) && calendar.isFree(masks)) {
+                houseIds.add(houseId);
+            }
+        });
+
+        return houseIds;
+    }
+
+    // 指定した民宿の空室状況のバージョン（予約が登録されるか、空室状況が作り直されるたびに変わる。民宿が存在しなければnull）
+    public String getVersion(Integer houseId) {
+        Snapshot current = snapshot;
+        HouseCalendar calendar = current.calendars.get(houseId);
+
+        if (calendar == null) {
+            return null;
+        }
+
+        return current.baseDay + "-" + Long.toHexString(current.generation) + "-" + calendar.version.get();
+    }
+
+    // 指定した民宿の期間[from, to)のうち、予約済みの日付の範囲を取得する（予約可能期間外の日付は含まない）
+    public List<BookedDateRange> findBookedRanges(Integer houseId, LocalDate from, LocalDate to) {
+        Snapshot current = snapshot;
+        HouseCalendar calendar = current.calendars.get(houseId);
+        List<BookedDateRange> ranges = new ArrayList<>();
+
+        if (calendar == null) {
+            return ranges;
+        }
+
+        // 遠い過去や未来の日付でもintに収まるよう、longのまま予約可能期間[0, HORIZON_DAYS]に切り詰めてから変換する
+        int fromIndex = (int) Math.min(Math.max(from.toEpochDay() - current.baseDay, 0), HORIZON_DAYS);
+        int toIndex = (int) Math.min(Math.max(to.toEpochDay() - current.baseDay, 0), HORIZON_DAYS);
+
+        if (fromIndex >= toIndex) {
+            return ranges;
+        }
+
+        int day = calendar.nextSetBit(fromIndex, toIndex);
+
+        while (day >= 0) {
+            int end = calendar.nextClearBit(day, toIndex);
+            ranges.add(new BookedDateRange(LocalDate.ofEpochDay(current.baseDay + day),
+                    LocalDate.ofEpochDay(current.baseDay + end - 1)));
+            day = calendar.nextSetBit(end, toIndex);
+        }
+
+        return ranges;
+    }
+
+    // syncedReservationIdは、この空室状況に取り込み済みの予約のidの最大値
+    private record Snapshot(long baseDay, long generation, Map<Integer, HouseCalendar> calendars,
+            AtomicInteger syncedReservationId) {
+        boolean covers(LocalDate checkinDate, LocalDate checkoutDate) {
+            return checkinDate.toEpochDay() >= baseDay && checkoutDate.toEpochDay() <= baseDay + HORIZON_DAYS;
+        }
+
+        void markBooked(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+            HouseCalendar calendar = calendars.get(houseId);
+
+            if (calendar != null) {
+                calendar.set(toClippedMasks(checkinDate, checkoutDate));
+            }
+        }
+
+        long[] toMasks(LocalDate checkinDate, LocalDate checkoutDate) {
+            return toMasks(checkinDate.toEpochDay() - baseDay, checkoutDate.toEpochDay() - baseDay);
+        }
+
+        // 予約可能期間外の日付を切り捨ててビットマスクに変換する
+        long[] toClippedMasks(LocalDate checkinDate, LocalDate checkoutDate) {
+            long from = Math.max(checkinDate.toEpochDay() - baseDay, 0);
+            long to = Math.min(checkoutDate.toEpochDay() - baseDay, HORIZON_DAYS);
+
+            return toMasks(from, to);
+        }
+
+        // 日付の範囲[from, to)（予約可能期間の先頭からの日数）をワードごとのビットマスクに変換する
+        private static long[] toMasks(long from, long to) {
+            long[] masks = new long[WORDS];
+
+            for (int i = 0; i < WORDS; i++) {
+                long wordStart = (long) i * Long.SIZE;
+                long lo = Math.max(from, wordStart);
+                long hi = Math.min(to, wordStart + Long.SIZE);
+
+                if (lo < hi) {
+                    int bits = (int) (hi - lo);
+                    long mask = bits == Long.SIZE ? -1L : (1L << bits) - 1;
+                    masks[i] = mask << (lo - wordStart);
+                }
+            }
+
+            return masks;
+        }
+    }
+
+    private static final class HouseCalendar {
+        private volatile int capacity;
+        private final AtomicLongArray words = new AtomicLongArray(WORDS);
+        private final AtomicLong version = new AtomicLong();
+
+        HouseCalendar(int capacity) {
+            this.capacity = capacity;
+        }
+
+        boolean isFree(long[] masks) {
+            for (int i = 0; i < WORDS; i++) {
+                if ((words.get(i) & masks[i]) != 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        void set(long[] masks) {
+            for (int i = 0; i < WORDS; i++) {
+                if (masks[i] != 0) {
+                    words.accumulateAndGet(i, masks[i], (word, mask) -> word | mask);
+                }
+            }
+
+            version.incrementAndGet();
+        }
+
+        // [from, to)の範囲で最初に予約済みの日のインデックス（なければ-1）
+        int nextSetBit(int from, int to) {
+            return nextBit(from, to, false);
+        }
+
+        // [from, to)の範囲で最初に空室の日のインデックス（なければto）
+        int nextClearBit(int from, int to) {
+            int index = nextBit(from, to, true);
+
+            return index < 0 ? to : index;
+        }
+
+        // ワード単位で走査し、ワード内の位置はnumberOfTrailingZerosで求める
+        private int nextBit(int from, int to, boolean clear) {
+            if (from >= to) {
+                return -1;
+            }
+
+            int wordIndex = from / Long.SIZE;
+            long word = (clear ? ~words.get(wordIndex) : words.get(wordIndex)) & (-1L << (from % Long.SIZE));
+
+            while (true) {
+                if (word != 0) {
+                    int index = wordIndex * Long.SIZE + Long.numberOfTrailingZeros(word);
+
+                    return index < to ? index : -1;
+                }
+
+                if (++wordIndex >= WORDS || wordIndex * Long.SIZE >= to) {
+                    return -1;
+                }
+
+                word = clear ? ~words.get(wordIndex) : words.get(wordIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.samuraitravel.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * 民宿ごとのお気に入り数をメモリ上で数えるカウンター
+ * お気に入りの追加・削除のコミット後に、民宿ごとのLongAdder（内部でスレッドごとに分散して加算する）に差分を加える
+ * 加えた差分の累計と、そのうちhouse_statsテーブルに書き込み済みの分を分けて保持し、表示には読み込んだ値に未書き込みの差分を加えた値を使う
+ * 差分の書き込みと書き込み済みの値の読み込みはFavoriteCountFlushJobが行う
+ */
+@Component
+public class HouseFavoriteCounter {
+    private static final class Count {
+        // 加えた差分の累計（書き込み後も減らさない）
+        private final LongAdder added = new LongAdder();
+
+        // addedのうち、house_statsテーブルに書き込み済み（または再集計に含まれた）分
+        // 以下の2つはFavoriteCountFlushJobのロック内でのみ更新する
+        private volatile long flushed;
+
+        // 表示する値からaddedを引いた値（読み込んだ値 - 読み込み時点のflushed）
+        // 書き込み済みにしてもoffset + addedは変わらないため、書き込みの前後で表示する値が一時的にずれることはない
+        private volatile long offset;
+
+        private long get() {
+            return Math.max(offset + added.sum(), 0);
+        }
+
+        private long pending() {
+            return added.sum() - flushed;
+        }
+    }
+
+    // 民宿のid → お気に入り数（エントリは民宿の削除時のみ削除するため、件数は民宿の数までに収まる）
+    private final Map<Integer, Count> counts = new ConcurrentHashMap<>();
+
+    public HouseFavoriteCounter(MeterRegistry meterRegistry) {
+        // ゲージにはthisではなくcountsを渡す（構築中のオブジェクトを公開しない）
+        Gauge.builder("favorite.count.pending", counts, HouseFavoriteCounter::countPendingHouses).register(meterRegistry);
+    }
+
+    // 指定した民宿のお気に入り数に差分を加える（データベースへの書き込みは後でまとめて行う）
+    public void add(Integer houseId, int delta) {
+        counts.computeIfAbsent(houseId, id -> new Count()).added.add(delta);
+    }
+
+    // 指定した民宿のお気に入り数を取得する
+    public long get(Integer houseId) {
+        Count count = counts.get(houseId);
+
+        return count != null ? count.get() : 0;
+    }
+
+    // 指定した民宿のお気に入り数を、民宿のid → お気に入り数のMapで取得する
+    public Map<Integer, Long> get(Collection<Integer> houseIds) {
+        Map<Integer, Long> result = new HashMap<>();
+
+        for (Integer houseId : houseIds) {
+            result.put(houseId, get(houseId));
+        }
+
+        return result;
+    }
+
+    // 民宿の削除時に、その民宿のお気に入り数を削除する
+    public void remove(Integer houseId) {
+        counts.remove(houseId);
+    }
+
+    // まだ書き込んでいない差分を、最大limit件の民宿の分だけ取得する
+    Map<Integer, Integer> findPendingDeltas(int limit) {
+        Map<Integer, Integer> deltas = new LinkedHashMap<>();
+
+        for (Map.Entry<Integer, Count> entry : counts.entrySet()) {
+            long delta = entry.getValue().pending();
+
+            if (delta != 0) {
+                deltas.put(entry.getKey(), (int) Math.max(Math.min(delta, Integer.MAX_VALUE), Integer.MIN_VALUE));
+
+                if (deltas.size() >= limit) {
+                    break;
+                }
+            }
+        }
+
+        return deltas;
+    }
+
+    // 書き込みがコミットされた差分を書き込み済みにする
+    // 取得後に加えられた差分は未書き込みのまま残るため、次回の書き込みの対象になる
+    void markFlushed(Map<Integer, Integer> deltas) {
+        deltas.forEach((houseId, delta) -> {
+            Count count = counts.get(houseId);
+
+            if (count != null) {
+                count.flushed += delta;
+            }
+        });
+    }
+
+    // 民宿ごとに、これまでに加えた差分の累計を取得する（再集計の直前に呼び出し、再集計に含まれる差分を記録する）
+    Map<Integer, Long> findAddedTotals() {
+        Map<Integer, Long> addedTotals = new HashMap<>();
+        counts.forEach((houseId, count) -> addedTotals.put(houseId, count.added.sum()));
+
+        return addedTotals;
+    }
+
+    // 再集計に含まれた差分（findAddedTotalsで取得した累計まで）を、書き込まずに書き込み済みにする
+    void markCovered(Map<Integer, Long> addedTotals) {
+        addedTotals.forEach((houseId, addedTotal) -> {
+            Count count = counts.get(houseId);
+
+            if (count != null && count.flushed < addedTotal) {
+                count.flushed = addedTotal;
+            }
+        });
+    }
+
+    // house_statsテーブルから読み込んだ値を表示する値の基準にする（他のサーバーで書き込まれた差分も反映される）
+    void load(Map<Integer, Integer> persistedCounts) {
+        persistedCounts.forEach((houseId, persisted) -> {
+            Count count = counts.computeIfAbsent(houseId, id -> new Count());
+            count.offset = persisted - count.flushed;
+        });
+    }
+
+    private static int countPendingHouses(Map<Integer, Count> counts) {
+        int pendingHouses = 0;
+
+        for (Count count : counts.values()) {
+            if (count.pending() != 0) {
+                pendingHouses++;
+            }
+        }
+
+        return pendingHouses;
+    }
+}
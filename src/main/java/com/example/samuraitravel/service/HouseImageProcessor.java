@@ -0,0 +1,369 @@
+package com.example.samuraitravel.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.samuraitravel.entity.House;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/*
+ * アップロードされた民宿の画像から、表示サイズごとの縮小画像をバックグラウンドで作成するクラス
+ * カード用（480px）・詳細ページ用（960px）・高解像度ディスプレイ用（1920px）の幅のJPEG（プログレッシブ）を作成し、
+ * 作成した幅を民宿に記録する（テンプレートではsrcset属性で、表示サイズに合った画像をブラウザに選ばせる）
+ * 作成はスレッド数を制限したスレッドプールで並行して行い、待ち行列が満杯の場合は受け付けずに定期的な再確認で作成する
+ * 縮小画像はソースツリーの外のディレクトリ（image.variants.directory）に保存し、/storage/variants/で配信する（WebMvcConfigを参照）
+ * Herokuなどではディレクトリが再起動で消えるため、起動時にファイルが失われた民宿を未作成に戻してから作成し直す
+ */
+@Component
+public class HouseImageProcessor {
+    private static final Logger log = LoggerFactory.getLogger(HouseImageProcessor.class);
+
+    // 作成する縮小画像の幅（元の画像より大きい幅は作成しない）
+    private static final int[] VARIANT_WIDTHS = { 1920, 960, 480 };
+
+    private static final float JPEG_QUALITY = 0.8f;
+
+    // 起動時に縮小画像のファイルを確認する民宿の1回あたりの件数
+    private static final int VERIFY_BATCH_SIZE = 100;
+
+    private final HouseImageService houseImageService;
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+
+    // falseの場合は縮小画像を作成しない（テストではapplication-test.propertiesで無効にする）
+    private final boolean enabled;
+
+    private final Path variantDirectory;
+
+    // 読み込む画像の画素数の上限（展開後のメモリ使用量が大きすぎる画像は、読み込む前に作成失敗とする）
+    private final long maxPixels;
+
+    // 待ち行列に入っている、または作成中の画像（民宿のid:画像のファイル名）
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final Counter createdCounter;
+    private final Counter failedCounter;
+    private final Counter rejectedCounter;
+    private final Timer processingTimer;
+
+    public HouseImageProcessor(HouseImageService houseImageService, MeterRegistry meterRegistry,
+            @Value("${image.variants.concurrency:2}") int concurrency,
+            @Value("${image.variants.queue-capacity:100}") int queueCapacity,
+            @Value("${image.variants.enabled:true}") boolean enabled,
+            @Value("${image.variants.directory:image-variants}") String variantDirectory,
+            @Value("${image.variants.max-pixels:40000000}") long maxPixels) {
+        this.houseImageService = houseImageService;
+        this.queueCapacity = queueCapacity;
+        this.enabled = enabled;
+        this.variantDirectory = Paths.get(variantDirectory).toAbsolutePath().normalize();
+        this.maxPixels = maxPixels;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "house-image");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        this.createdCounter = meterRegistry.counter("image.variants", "outcome", "created");
+        this.failedCounter = meterRegistry.counter("image.variants", "outcome", "failed");
+        this.rejectedCounter = meterRegistry.counter("image.variants", "outcome", "rejected");
+        this.processingTimer = Timer.builder("image.variants.processing").register(meterRegistry);
+
+        Gauge.builder("image.variants.queued", executor, e -> e.getQueue().size()).register(meterRegistry);
+    }
+
+    // 縮小画像を保存するディレクトリ
+    public Path getVariantDirectory() {
+        return variantDirectory;
+    }
+
+    // トランザクションがコミットされた後に、縮小画像の作成を依頼する
+    public void submitAfterCommit(Integer houseId, String imageName) {
+        if (!enabled) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(houseId, imageName);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit(houseId, imageName);
+            }
+        });
+    }
+
+    // 起動時に、縮小画像のファイルが失われた民宿を未作成に戻してから、縮小画像をまだ作成していない民宿の画像を作成する
+    @EventListener(ApplicationReadyEvent.class)
+    public void verifyAndSubmitPending() {
+        if (!enabled) {
+            return;
+        }
+
+        int cleared = clearMissingImageVariants();
+
+        if (cleared > 0) {
+            System.out.println(cleared + "件の民宿の縮小画像が見つからないため、作成し直します。");
+        }
+
+        submitPending();
+    }
+
+    // 10分ごとに、縮小画像をまだ作成していない民宿の画像を、待ち行列の空きの分だけ作成する
+    // （このクラスの導入前に登録された画像や、待ち行列が満杯で受け付けなかった画像を作成する）
+    @Scheduled(fixedDelay = 600000, initialDelay = 600000)
+    public void submitPending() {
+        if (!enabled) {
+            return;
+        }
+
+        int available = queueCapacity - executor.getQueue().size();
+
+        if (available <= 0) {
+            return;
+        }
+
+        for (House house : houseImageService.findHousesWithoutImageVariants(available)) {
+            if (!submit(house.getId(), house.getImageName())) {
+                return;
+            }
+        }
+    }
+
+    // 記録された幅の縮小画像のファイルが1つでも存在しない民宿を未作成に戻し、戻した件数を返す
+    // （未作成の民宿は元の画像で表示されるため、再作成が終わるまで存在しないファイルを参照しない）
+    private int clearMissingImageVariants() {
+        int afterId = 0;
+        int cleared = 0;
+        List<House> houses;
+
+        do {
+            houses = houseImageService.findHousesWithImageVariantsAfter(afterId, VERIFY_BATCH_SIZE);
+
+            if (houses.isEmpty()) {
+                break;
+            }
+
+            List<Integer> missingIds = houses.stream()
+                    .filter(house -> !hasImageVariantFiles(house))
+                    .map(House::getId)
+                    .toList();
+
+            if (!missingIds.isEmpty()) {
+                houseImageService.clearImageVariants(missingIds);
+                cleared += missingIds.size();
+            }
+
+            afterId = houses.get(houses.size() - 1).getId();
+        } while (houses.size() == VERIFY_BATCH_SIZE);
+
+        return cleared;
+    }
+
+    private boolean hasImageVariantFiles(House house) {
+        return house.getImageVariantWidths().stream()
+                .allMatch(width -> Files.exists(variantDirectory.resolve(House.toImageVariantName(house.getImageName(), width))));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // 縮小画像の作成を待ち行列に追加する（待ち行列が満杯の場合はfalseを返す）
+    private boolean submit(Integer houseId, String imageName) {
+        String key = houseId + ":" + imageName;
+
+        if (!inFlight.add(key)) {
+            return true;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    processingTimer.record(() -> process(houseId, imageName));
+                } finally {
+                    inFlight.remove(key);
+                }
+            });
+
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            rejectedCounter.increment();
+
+            return false;
+        }
+    }
+
+    private void process(Integer houseId, String imageName) {
+        Path imagePath = HouseService.STORAGE_DIRECTORY.resolve(imageName);
+        Set<Integer> widths = new TreeSet<>();
+
+        try {
+            BufferedImage image = readImage(imagePath);
+            Files.createDirectories(variantDirectory);
+
+            // 大きい幅から順に、1つ前に作成した画像を縮小して作成する（元の画像から毎回縮小するより速い）
+            BufferedImage source = toRgb(image);
+
+            for (int variantWidth : VARIANT_WIDTHS) {
+                int width = Math.min(variantWidth, image.getWidth());
+
+                if (!widths.add(width)) {
+                    continue;
+                }
+
+                source = resize(source, width, (int) Math.max(1, Math.round((double) image.getHeight() * width / image.getWidth())));
+                writeJpeg(source, variantDirectory.resolve(House.toImageVariantName(imageName, width)));
+            }
+
+            houseImageService.recordImageVariants(houseId, imageName,
+                    widths.stream().map(String::valueOf).collect(Collectors.joining(",")));
+            createdCounter.increment();
+        } catch (IOException | RuntimeException | Error e) {
+            // 展開時のOutOfMemoryErrorなども作成失敗として記録し、起動時や定期的な再確認で同じ画像を繰り返し読み込まないようにする
+            log.warn("縮小画像の作成に失敗しました（民宿のid：{}、画像：{}）。", houseId, imageName, e);
+            houseImageService.recordImageVariants(houseId, imageName, "");
+            failedCounter.increment();
+        }
+    }
+
+    // 画像を読み込む（展開する前にヘッダーから幅と高さを読み取り、画素数が上限を超える場合は読み込まない）
+    private BufferedImage readImage(Path imagePath) throws IOException {
+        if (!Files.exists(imagePath)) {
+            throw new IOException("画像が見つかりません");
+        }
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(imagePath.toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("画像を読み込めません");
+            }
+
+            ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(input, true, true);
+
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+
+                if (pixels > maxPixels) {
+                    throw new IOException("画像の画素数が上限を超えています（" + reader.getWidth(0) + "x" + reader.getHeight(0) + "）");
+                }
+
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // 透過部分を白で塗りつぶし、JPEGで保存できるRGBの画像に変換する
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+
+        try {
+            graphics.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return rgb;
+    }
+
+    // 指定した大きさに縮小する（一度に大きく縮小すると画質が落ちるため、半分ずつ段階的に縮小する）
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage result = image;
+
+        while (result.getWidth() != width) {
+            int stepWidth = Math.max(result.getWidth() / 2, width);
+            int stepHeight = stepWidth == width ? height
+                    : (int) Math.max(1, Math.round((double) result.getHeight() * stepWidth / result.getWidth()));
+
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = step.createGraphics();
+
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(result, 0, 0, stepWidth, stepHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+
+            result = step;
+        }
+
+        return result;
+    }
+
+    // プログレッシブJPEGで保存する（書き込み途中のファイルが配信されないよう、一時ファイルに書き込んでから置き換える）
+    private static void writeJpeg(BufferedImage image, Path path) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(tempPath.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
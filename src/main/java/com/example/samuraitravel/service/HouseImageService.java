@@ -0,0 +1,45 @@
+package com.example.samuraitravel.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.repository.HouseRepository;
+
+/*
+ * 民宿の画像の縮小画像（HouseImageProcessorで作成する）の作成状況を読み書きするクラス
+ */
+@Service
+public class HouseImageService {
+    private final HouseRepository houseRepository;
+
+    public HouseImageService(HouseRepository houseRepository) {
+        this.houseRepository = houseRepository;
+    }
+
+    // 縮小画像をまだ作成していない民宿を、指定件数まで取得する
+    public List<House> findHousesWithoutImageVariants(int limit) {
+        return houseRepository.findByImageNameIsNotNullAndImageVariantsIsNullOrderByIdAsc(PageRequest.of(0, limit));
+    }
+
+    // 縮小画像を作成済みの民宿を、指定したidより後から指定件数まで取得する
+    public List<House> findHousesWithImageVariantsAfter(Integer afterId, int limit) {
+        return houseRepository.findWithImageVariantsAfter(afterId, PageRequest.of(0, limit));
+    }
+
+    // 指定した民宿の縮小画像を未作成に戻す
+    @Transactional
+    public void clearImageVariants(Collection<Integer> houseIds) {
+        houseRepository.clearImageVariants(houseIds);
+    }
+
+    // 作成した縮小画像の幅を記録する（作成に失敗した場合は空文字を記録し、再作成しない）
+    @Transactional
+    public void recordImageVariants(Integer houseId, String imageName, String imageVariants) {
+        houseRepository.updateImageVariants(houseId, imageName, imageVariants);
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.samuraitravel.service;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.repository.HouseRepository;
+
+/*
+ * 民宿名・住所の部分一致検索用の転置インデックス（メモリ上に保持する）
+ * 日本語は単語の区切りがないため、1文字（ユニグラム）と2文字（バイグラム）の文字列ごとに民宿のidを記録する
+ * キーワードのN-gramをすべて含む民宿を候補とし、最後に元の文字列と照合して誤検出を取り除く
+ */
+@Component
+public class HouseSearchIndex {
+    private static final int[] EMPTY = new int[0];
+
+    private final HouseRepository houseRepository;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // N-gram → 民宿のid（昇順）
+    private final Map<String, IntPostingList> postings = new HashMap<>();
+
+    // 民宿のid → 正規化済みの民宿名・住所（削除時と照合時に使用する）
+    private final Map<Integer, IndexedHouse> houses = new HashMap<>();
+
+    public HouseSearchIndex(HouseRepository houseRepository) {
+        this.houseRepository = houseRepository;
+    }
+
+    // アプリケーションの起動時と5分ごとに、データベースからインデックスを作成する（他のサーバーでの民宿の登録・更新・削除を反映する）
+    // 読み込みも書き込みロック内で行い、読み込み中にコミットされた民宿の登録・削除（put・delete）を、古い一覧で上書きしないようにする
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "0 */5 * * * *")
+    public void rebuild() {
+        lock.writeLock().lock();
+        try {
+            List<House> allHouses = houseRepository.findAll();
+
+            postings.clear();
+            houses.clear();
+
+            for (House house : allHouses) {
+                add(house.getId(), house.getName(), house.getAddress());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 民宿を登録または更新する
+    public void put(House house) {
+        lock.writeLock().lock();
+        try {
+            remove(house.getId());
+            add(house.getId(), house.getName(), house.getAddress());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 民宿を削除する
+    public void delete(Integer houseId) {
+        lock.writeLock().lock();
+        try {
+            remove(houseId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // キーワードを民宿名に含む民宿のidを昇順で取得する
+    public int[] findIdsByNameLike(String keyword) {
+        return search(keyword, false);
+    }
+
+    // キーワードを民宿名または住所に含む民宿のidを昇順で取得する
+    public int[] findIdsByNameLikeOrAddressLike(String keyword) {
+        return search(keyword, true);
+    }
+
+    private int[] search(String keyword, boolean includeAddress) {
+        String normalizedKeyword = normalize(keyword);
+
+        if (normalizedKeyword.isEmpty()) {
+            return EMPTY;
+        }
+
+        String[] grams = toQueryGrams(normalizedKeyword);
+
+        lock.readLock().lock();
+        try {
+            // 件数が少ないN-gramから順に共通部分を求める
+            IntPostingList[] lists = new IntPostingList[grams.length];
+
+            for (int i = 0; i < grams.length; i++) {
+                IntPostingList list = postings.get(grams[i]);
+
+                if (list == null) {
+                    return EMPTY;
+                }
+
+                lists[i] = list;
+            }
+
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+
+            int[] candidates = Arrays.copyOf(lists[0].ids, lists[0].size);
+            int candidateCount = candidates.length;
+
+            for (int i = 1; i < lists.length && candidateCount > 0; i++) {
+                candidateCount = lists[i].retainAll(candidates, candidateCount);
+            }
+
+            // N-gramがすべて含まれていても連続しているとは限らないため、元の文字列と照合する
+            int matchCount = 0;
+
+            for (int i = 0; i < candidateCount; i++) {
+                IndexedHouse indexedHouse = houses.get(candidates[i]);
+
+                if (indexedHouse.name.contains(normalizedKeyword)
+                        || (includeAddress && indexedHouse.address.contains(normalizedKeyword))) {
+                    candidates[matchCount++] = candidates[i];
+                }
+            }
+
+            return Arrays.copyOf(candidates, matchCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 書き込みロックを取得した状態で呼び出す
+    private void add(Integer houseId, String name, String address) {
+        IndexedHouse indexedHouse = new IndexedHouse(normalize(name), normalize(address));
+        houses.put(houseId, indexedHouse);
+
+        for (String gram : indexedHouse.grams()) {
+            postings.computeIfAbsent(gram, key -> new IntPostingList()).add(houseId);
+        }
+    }
+
+    // 書き込みロックを取得した状態で呼び出す
+    private void remove(Integer houseId) {
+        IndexedHouse indexedHouse = houses.remove(houseId);
+
+        if (indexedHouse == null) {
+            return;
+        }
+
+        for (String gram : indexedHouse.grams()) {
+            IntPostingList list = postings.get(gram);
+
+            if (list != null && list.remove(houseId) && list.size == 0) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    // 全角・半角の違いと大文字・小文字の違いを吸収する
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase();
+    }
+
+    // キーワードが1文字ならユニグラム、2文字以上ならバイグラムで検索する
+    private static String[] toQueryGrams(String text) {
+        if (text.length() == 1) {
+            return new String[] { text };
+        }
+
+        String[] grams = new String[text.length() - 1];
+
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = text.substring(i, i + 2);
+        }
+
+        return grams;
+    }
+
+    private record IndexedHouse(String name, String address) {
+        // 民宿名と住所に含まれるユニグラムとバイグラム（重複なし）
+        Set<String> grams() {
+            Set<String> grams = new HashSet<>();
+
+            for (String text : new String[] { name, address }) {
+                for (int i = 0; i < text.length(); i++) {
+                    grams.add(text.substring(i, i + 1));
+
+                    if (i + 1 < text.length()) {
+                        grams.add(text.substring(i, i + 2));
+                    }
+                }
+            }
+
+            return grams;
+        }
+    }
+
+    // 昇順に並んだintの配列で民宿のidを保持するポスティングリスト
+    private static final class IntPostingList {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+
+            if (index >= 0) {
+                return;
+            }
+
+            int insertionPoint = -index - 1;
+
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+
+            System.arraycopy(ids, insertionPoint, ids, insertionPoint + 1, size - insertionPoint);
+            ids[insertionPoint] = id;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+
+            if (index < 0) {
+                return false;
+            }
+
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+
+            return true;
+        }
+
+        // candidatesの先頭count件のうち、このリストに含まれるものだけを先頭に詰めて件数を返す
+        int retainAll(int[] candidates, int count) {
+            int retained = 0;
+            int from = 0;
+
+            for (int i = 0; i < count; i++) {
+                int index = Arrays.binarySearch(ids, from, size, candidates[i]);
+
+                if (index >= 0) {
+                    candidates[retained++] = candidates[i];
+                    from = index + 1;
+                } else {
+                    from = -index - 1;
+                }
+            }
+
+            return retained;
+        }
+    }
+}
@@ -4,28 +4,79 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.example.samuraitravel.dto.CursorPage;
+import com.example.samuraitravel.dto.HouseAvailability;
+import com.example.samuraitravel.dto.HouseSearchCriteria;
+import com.example.samuraitravel.dto.HouseViewerContext;
 import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.HouseStats;
 import com.example.samuraitravel.form.HouseEditForm;
 import com.example.samuraitravel.form.HouseRegisterForm;
+import com.example.samuraitravel.repository.FavoriteRepository;
 import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.HouseSpecifications;
+import com.example.samuraitravel.repository.HouseStatsRepository;
+import com.example.samuraitravel.repository.ReservationDraftRepository;
+import com.example.samuraitravel.repository.ReservationHoldRecordRepository;
+import com.example.samuraitravel.repository.ReservationRepository;
+import com.example.samuraitravel.repository.ReviewRepository;
 
 @Service
 public class HouseService {
-    private final HouseRepository houseRepository;
+    // アップロードされた画像と、その縮小画像を保存するディレクトリ
+    public static final Path STORAGE_DIRECTORY = Paths.get("src/main/resources/static/storage");
 
-    public HouseService(HouseRepository houseRepository) {
+    private final HouseRepository houseRepository;
+    private final ReservationRepository reservationRepository;
+    private final ReviewRepository reviewRepository;
+    private final FavoriteRepository favoriteRepository;
+    private final HouseStatsRepository houseStatsRepository;
+    private final ReservationDraftRepository reservationDraftRepository;
+    private final ReservationHoldRecordRepository reservationHoldRecordRepository;
+    private final HouseSearchIndex houseSearchIndex;
+    private final HouseAvailabilityIndex houseAvailabilityIndex;
+    private final HouseFavoriteCounter houseFavoriteCounter;
+    private final HouseImageProcessor houseImageProcessor;
+
+    public HouseService(HouseRepository houseRepository, ReservationRepository reservationRepository,
+            ReviewRepository reviewRepository, FavoriteRepository favoriteRepository,
+            HouseStatsRepository houseStatsRepository, ReservationDraftRepository reservationDraftRepository,
+            ReservationHoldRecordRepository reservationHoldRecordRepository, HouseSearchIndex houseSearchIndex,
+            HouseAvailabilityIndex houseAvailabilityIndex, HouseFavoriteCounter houseFavoriteCounter,
+            HouseImageProcessor houseImageProcessor) {
         this.houseRepository = houseRepository;
+        this.reservationRepository = reservationRepository;
+        this.reviewRepository = reviewRepository;
+        this.favoriteRepository = favoriteRepository;
+        this.houseStatsRepository = houseStatsRepository;
+        this.reservationDraftRepository = reservationDraftRepository;
+        this.reservationHoldRecordRepository = reservationHoldRecordRepository;
+        this.houseSearchIndex = houseSearchIndex;
+        this.houseAvailabilityIndex = houseAvailabilityIndex;
+        this.houseFavoriteCounter = houseFavoriteCounter;
+        this.houseImageProcessor = houseImageProcessor;
     }
 
     // すべての民宿をページングされた状態で取得する
@@ -35,7 +86,13 @@ public class HouseService {
 
     // 指定されたキーワードを民宿名に含む民宿を、ページングされた状態で取得する
     public Page<House> findHousesByNameLike(String keyword, Pageable pageable) {
-        return houseRepository.findByNameLike("%" + keyword + "%", pageable);
+        int[] houseIds = houseSearchIndex.findIdsByNameLike(keyword);
+
+        if (houseIds.length == 0) {
+            return Page.empty(pageable);
+        }
+
+        return houseRepository.findByIdIn(toList(houseIds), pageable);
     }
 
     // 指定したidを持つ民宿を取得する
@@ -43,6 +100,11 @@ public class HouseService {
         return houseRepository.findById(id);
     }
 
+    // 民宿と、閲覧者（未ログインの場合はnull）のその民宿へのレビュー・お気に入りを1回のクエリで取得する
+    public Optional<HouseViewerContext> findHouseViewerContext(Integer id, Integer userId) {
+        return houseRepository.findViewerContext(id, userId);
+    }
+
     // 民宿のレコード数を取得する
     public long countHouses() {
         return houseRepository.count();
@@ -53,48 +115,99 @@ public class HouseService {
         return houseRepository.findFirstByOrderByIdDesc();
     }
 
-    // 指定されたキーワードを民宿名または住所に含む民宿を作成日時が新しい順に並べ替え、ページングされた状態で取得する
-    public Page<House> findHousesByNameLikeOrAddressLikeOrderByCreatedAtDesc(String nameKeyword, String addressKeyword,
-            Pageable pageable) {
-        return houseRepository.findByNameLikeOrAddressLikeOrderByCreatedAtDesc("%" + nameKeyword + "%",
-                "%" + addressKeyword + "%", pageable);
+    // 指定された検索条件をすべて満たす民宿を、検索条件の並べ替え順でページングされた状態で取得する
+    public Page<House> searchHouses(HouseSearchCriteria criteria, Pageable pageable) {
+        Pageable sortedPageable = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), criteria.getSort());
+        List<Integer> candidateHouseIds = findCandidateHouseIds(criteria);
+
+        if (candidateHouseIds != null && candidateHouseIds.isEmpty()) {
+            return Page.empty(sortedPageable);
+        }
+
+        return houseRepository.findAll(toSpecification(criteria, candidateHouseIds), sortedPageable);
     }
 
-    // 指定されたキーワードを民宿名または住所に含む民宿を宿泊料金が安い順に並べ替え、ページングされた状態で取得する
-    public Page<House> findHousesByNameLikeOrAddressLikeOrderByPriceAsc(String nameKeyword, String addressKeyword,
-            Pageable pageable) {
-        return houseRepository.findByNameLikeOrAddressLikeOrderByPriceAsc("%" + nameKeyword + "%",
-                "%" + addressKeyword + "%", pageable);
+    // 指定された検索条件をすべて満たす民宿を、カーソルの位置から検索条件の並べ替え順で指定件数取得する（キーセットページング）
+    public CursorPage<House> scrollHouses(HouseSearchCriteria criteria, String cursor, int size) {
+        KeysetScrollPosition position = CursorPage.decode(cursor, criteria.getSort());
+        List<Integer> candidateHouseIds = findCandidateHouseIds(criteria);
+
+        if (candidateHouseIds != null && candidateHouseIds.isEmpty()) {
+            return new CursorPage<>(List.of(), null, null, 0L);
+        }
+
+        Window<House> window = houseRepository.findBy(toSpecification(criteria, candidateHouseIds),
+                query -> query.sortBy(criteria.getSort()).limit(size).scroll(position));
+
+        return CursorPage.of(window, position, estimateTotal(criteria, candidateHouseIds));
     }
 
-    // 指定されたキーワードを住所に含む民宿を作成日時が新しい順に並べ替え、ページングされた状態で取得する
-    public Page<House> findHousesByAddressLikeOrderByCreatedAtDesc(String area, Pageable pageable) {
-        return houseRepository.findByAddressLikeOrderByCreatedAtDesc("%" + area + "%", pageable);
+    // キーワードと空室の条件に一致する民宿のidはインデックスから求め、データベースには該当ページの取得のみを問い合わせる（どちらの条件もなければnull）
+    private List<Integer> findCandidateHouseIds(HouseSearchCriteria criteria) {
+        List<Integer> keywordHouseIds = null;
+
+        if (criteria.getKeyword() != null && !criteria.getKeyword().isEmpty()) {
+            keywordHouseIds = toList(houseSearchIndex.findIdsByNameLikeOrAddressLike(criteria.getKeyword()));
+        }
+
+        if (!isAvailabilityIndexed(criteria)) {
+            return keywordHouseIds;
+        }
+
+        List<Integer> availableHouseIds = houseAvailabilityIndex.findAvailableHouseIds(criteria.getCheckinDate(),
+                criteria.getCheckoutDate(), criteria.getCapacity());
+
+        if (keywordHouseIds == null) {
+            return availableHouseIds;
+        }
+
+        Set<Integer> availableHouseIdSet = new HashSet<>(availableHouseIds);
+        keywordHouseIds.removeIf(houseId -> !availableHouseIdSet.contains(houseId));
+
+        return keywordHouseIds;
     }
 
-    // 指定されたキーワードを住所に含む民宿を宿泊料金が安い順に並べ替え、ページングされた状態で取得する
-    public Page<House> findHousesByAddressLikeOrderByPriceAsc(String area, Pageable pageable) {
-        return houseRepository.findByAddressLikeOrderByPriceAsc("%" + area + "%", pageable);
+    // 空室の条件をインデックスで判定できるかどうか（予約可能期間外の日付を含む場合はデータベースで判定する）
+    private boolean isAvailabilityIndexed(HouseSearchCriteria criteria) {
+        return criteria.hasDates() && houseAvailabilityIndex.covers(criteria.getCheckinDate(), criteria.getCheckoutDate());
     }
 
-    // 指定された宿泊料金以下の民宿を作成日時が新しい順に並べ替え、ページングされた状態で取得する
-    public Page<House> findHousesByPriceLessThanEqualOrderByCreatedAtDesc(Integer price, Pageable pageable) {
-        return houseRepository.findByPriceLessThanEqualOrderByCreatedAtDesc(price, pageable);
+    private Specification<House> toSpecification(HouseSearchCriteria criteria, List<Integer> candidateHouseIds) {
+        Specification<House> specification = HouseSpecifications.matches(criteria, candidateHouseIds);
+
+        if (criteria.hasDates() && !isAvailabilityIndexed(criteria)) {
+            specification = specification.and(HouseSpecifications.availableBetween(criteria.getCheckinDate(), criteria.getCheckoutDate()));
+        }
+
+        return specification;
     }
 
-    // 指定された宿泊料金以下の民宿を宿泊料金が安い順に並べ替え、ページングされた状態で取得する
-    public Page<House> findHousesByPriceLessThanEqualOrderByPriceAsc(Integer price, Pageable pageable) {
-        return houseRepository.findByPriceLessThanEqualOrderByPriceAsc(price, pageable);
+    // COUNT(*)を実行せずに求められる場合のみ、おおよその総件数を返す
+    private Long estimateTotal(HouseSearchCriteria criteria, List<Integer> candidateHouseIds) {
+        boolean hasOtherConditions = (criteria.getArea() != null && !criteria.getArea().isEmpty())
+                || criteria.getPrice() != null
+                || (criteria.getCapacity() != null && !isAvailabilityIndexed(criteria))
+                || (criteria.hasDates() && !isAvailabilityIndexed(criteria));
+
+        if (hasOtherConditions) {
+            return null;
+        }
+
+        if (candidateHouseIds != null) {
+            return (long) candidateHouseIds.size();
+        }
+
+        return houseRepository.estimateCount();
     }
 
-    // すべての民宿を作成日時が新しい順に並べ替え、ページングされた状態で取得する
-    public Page<House> findAllHousesByOrderByCreatedAtDesc(Pageable pageable) {
-        return houseRepository.findAllByOrderByCreatedAtDesc(pageable);
+    // 民宿詳細ページのカレンダー用に、期間[from, to)の予約済みの日付の範囲を取得する
+    public HouseAvailability findAvailability(Integer houseId, LocalDate from, LocalDate to) {
+        return new HouseAvailability(houseId, from, to, houseAvailabilityIndex.findBookedRanges(houseId, from, to));
     }
 
-    // すべての民宿を宿泊料金が安い順に並べ替え、ページングされた状態で取得する
-    public Page<House> findAllHousesByOrderByPriceAsc(Pageable pageable) {
-        return houseRepository.findAllByOrderByPriceAsc(pageable);
+    // 空室状況のバージョンを取得する（ETagに使用する。民宿が存在しなければnull）
+    public String findAvailabilityVersion(Integer houseId) {
+        return houseAvailabilityIndex.getVersion(houseId);
     }
 
     // 作成日時が新しい順に8件の民宿を取得する
@@ -115,9 +228,10 @@ public class HouseService {
         if (!imageFile.isEmpty()) {
             String imageName = imageFile.getOriginalFilename();
             String hashedImageName = generateNewFileName(imageName);
-            Path filePath = Paths.get("src/main/resources/static/storage/" + hashedImageName);
+            Path filePath = STORAGE_DIRECTORY.resolve(hashedImageName);
             copyImageFile(imageFile, filePath);
             house.setImageName(hashedImageName);
+            house.setImageVariants(null);
         }
 
         house.setName(houseRegisterForm.getName());
@@ -129,6 +243,19 @@ public class HouseService {
         house.setPhoneNumber(houseRegisterForm.getPhoneNumber());
 
         houseRepository.save(house);
+        submitImageVariants(house, imageFile);
+
+        // 予約数・お気に入り数の集計行を作成する
+        HouseStats houseStats = new HouseStats();
+        houseStats.setHouseId(house.getId());
+        houseStats.setReservationCount(0);
+        houseStats.setFavoriteCount(0);
+        houseStatsRepository.save(houseStats);
+
+        updateIndexesAfterCommit(() -> {
+            houseSearchIndex.put(house);
+            houseAvailabilityIndex.putHouse(house);
+        });
     }
 
     @Transactional
@@ -138,9 +265,10 @@ public class HouseService {
         if (!imageFile.isEmpty()) {
             String imageName = imageFile.getOriginalFilename();
             String hashedImageName = generateNewFileName(imageName);
-            Path filePath = Paths.get("src/main/resources/static/storage/" + hashedImageName);
+            Path filePath = STORAGE_DIRECTORY.resolve(hashedImageName);
             copyImageFile(imageFile, filePath);
             house.setImageName(hashedImageName);
+            house.setImageVariants(null);
         }
 
         house.setName(houseEditForm.getName());
@@ -152,11 +280,64 @@ public class HouseService {
         house.setPhoneNumber(houseEditForm.getPhoneNumber());
 
         houseRepository.save(house);
+        submitImageVariants(house, imageFile);
+        updateIndexesAfterCommit(() -> {
+            houseSearchIndex.put(house);
+            houseAvailabilityIndex.putHouse(house);
+        });
     }
 
+    // 子テーブル（予約・レビュー・お気に入り・仮押さえなど）のレコードを一括削除してから民宿を削除する
     @Transactional
     public void deleteHouse(House house) {
+        reservationRepository.deleteByHouse(house);
+        reviewRepository.deleteByHouse(house);
+        favoriteRepository.deleteByHouse(house);
+        houseStatsRepository.deleteByHouseId(house.getId());
+        reservationDraftRepository.deleteByHouseId(house.getId());
+        reservationHoldRecordRepository.deleteByHouseId(house.getId());
         houseRepository.delete(house);
+
+        Integer houseId = house.getId();
+        updateIndexesAfterCommit(() -> {
+            houseSearchIndex.delete(houseId);
+            houseAvailabilityIndex.removeHouse(houseId);
+            houseFavoriteCounter.remove(houseId);
+        });
+    }
+
+    // 予約テーブルからすべての民宿の予約数を再集計する
+    @Transactional
+    public int rebuildHouseStats() {
+        return houseStatsRepository.rebuildReservationCounts();
+    }
+
+    // トランザクションがコミットされた後に、メモリ上の検索インデックス・空室状況・お気に入り数を更新する
+    // （ロールバックされた登録・更新・削除を反映しないようにする）
+    private void updateIndexesAfterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
+
+    // 画像がアップロードされた場合は、コミット後にバックグラウンドで縮小画像を作成する
+    private void submitImageVariants(House house, MultipartFile imageFile) {
+        if (!imageFile.isEmpty()) {
+            houseImageProcessor.submitAfterCommit(house.getId(), house.getImageName());
+        }
+    }
+
+    // int型の配列をIntegerのリストに変換する
+    private List<Integer> toList(int[] values) {
+        return Arrays.stream(values).boxed().collect(Collectors.toCollection(ArrayList::new));
     }
 
     // UUIDを使って生成したファイル名を返す
@@ -0,0 +1,179 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.samuraitravel.entity.OutboxMessage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * outboxテーブルに保存したメールを、バックグラウンドでまとめて送信するクラス
+ * 1回のバッチは1回のsend呼び出しで送信するため、SMTPの接続はバッチ内で使い回される
+ * 送信に失敗したメールは指数バックオフ（ジッター付き）で再試行し、上限に達したメールはDEAD（デッドレター）にする
+ */
+@Component
+public class OutboxDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(OutboxDispatcher.class);
+
+    private static final int BATCH_SIZE = 50;
+
+    // 1回の実行で送信するバッチ数の上限（未送信のメールが多い場合も、他の処理を長時間妨げないようにする）
+    private static final int MAX_BATCHES_PER_RUN = 10;
+
+    private static final int MAX_ATTEMPTS = 8;
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(30);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(30);
+
+    // この時間を過ぎても送信中のままのメールは、ディスパッチャーが停止したとみなして未送信に戻す
+    private static final Duration STALE_LOCK = Duration.ofMinutes(5);
+
+    private final OutboxService outboxService;
+    private final JavaMailSender javaMailSender;
+
+    private final AtomicLong backlog = new AtomicLong();
+
+    private final Counter sentCounter;
+    private final Counter retriedCounter;
+    private final Counter deadCounter;
+    private final Timer sendTimer;
+
+    public OutboxDispatcher(OutboxService outboxService, JavaMailSender javaMailSender, MeterRegistry meterRegistry) {
+        this.outboxService = outboxService;
+        this.javaMailSender = javaMailSender;
+
+        this.sentCounter = meterRegistry.counter("mail.outbox.messages", "outcome", "sent");
+        this.retriedCounter = meterRegistry.counter("mail.outbox.messages", "outcome", "retried");
+        this.deadCounter = meterRegistry.counter("mail.outbox.messages", "outcome", "dead");
+        this.sendTimer = Timer.builder("mail.outbox.send")
+                .description("1バッチの送信にかかった時間")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        Gauge.builder("mail.outbox.backlog", backlog, AtomicLong::get).register(meterRegistry);
+    }
+
+    // 送信を開始できるメールをバッチ単位で送信する（バッチが満杯の間は続けて送信する）
+    @Scheduled(fixedDelay = 1000)
+    public void dispatch() {
+        backlog.set(outboxService.countPending());
+
+        for (int i = 0; i < MAX_BATCHES_PER_RUN; i++) {
+            List<OutboxMessage> outboxMessages = outboxService.claimBatch(BATCH_SIZE);
+
+            if (outboxMessages.isEmpty()) {
+                return;
+            }
+
+            send(outboxMessages);
+
+            if (outboxMessages.size() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    // 送信中のままディスパッチャーが停止したメールを1分ごとに未送信に戻す
+    @Scheduled(fixedDelay = 60000)
+    public void releaseStale() {
+        outboxService.releaseStale(Instant.now().minus(STALE_LOCK));
+    }
+
+    private void send(List<OutboxMessage> outboxMessages) {
+        SimpleMailMessage[] mailMessages = new SimpleMailMessage[outboxMessages.size()];
+
+        for (int i = 0; i < mailMessages.length; i++) {
+            mailMessages[i] = toMailMessage(outboxMessages.get(i));
+        }
+
+        // 失敗したメール → 例外（接続や認証に失敗した場合はすべてのメールが失敗する）
+        Map<Object, Exception> failedMessages = Map.of();
+        MailException batchException = null;
+        Timer.Sample sample = Timer.start();
+
+        try {
+            javaMailSender.send(mailMessages);
+        } catch (MailSendException e) {
+            failedMessages = e.getFailedMessages();
+            batchException = failedMessages.isEmpty() ? e : null;
+        } catch (MailException e) {
+            batchException = e;
+        } finally {
+            sample.stop(sendTimer);
+        }
+
+        List<Integer> sentIds = new ArrayList<>();
+
+        for (int i = 0; i < mailMessages.length; i++) {
+            OutboxMessage outboxMessage = outboxMessages.get(i);
+            Exception exception = batchException != null ? batchException : failedMessages.get(mailMessages[i]);
+
+            if (exception == null) {
+                sentIds.add(outboxMessage.getId());
+            } else {
+                fail(outboxMessage, exception);
+            }
+        }
+
+        outboxService.markDone(sentIds);
+        sentCounter.increment(sentIds.size());
+    }
+
+    private void fail(OutboxMessage outboxMessage, Exception e) {
+        String lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+
+        if (!isRetryable(e) || outboxMessage.getAttempts() >= MAX_ATTEMPTS) {
+            outboxService.markDead(outboxMessage.getId(), lastError);
+            deadCounter.increment();
+            log.warn("メールの送信を中止しました（{}、{}回目）。", outboxMessage.getId(), outboxMessage.getAttempts(), e);
+        } else {
+            outboxService.markRetry(outboxMessage.getId(), Instant.now().plus(backoff(outboxMessage.getAttempts())), lastError);
+            retriedCounter.increment();
+            log.warn("メールの送信に失敗したため再試行します（{}、{}回目）。", outboxMessage.getId(), outboxMessage.getAttempts(), e);
+        }
+    }
+
+    private static SimpleMailMessage toMailMessage(OutboxMessage outboxMessage) {
+        SimpleMailMessage mailMessage = new SimpleMailMessage();
+        mailMessage.setFrom(outboxMessage.getSender());
+        mailMessage.setTo(outboxMessage.getRecipient());
+        mailMessage.setSubject(outboxMessage.getSubject());
+        mailMessage.setText(outboxMessage.getBody());
+
+        return mailMessage;
+    }
+
+    // メールアドレスの形式の誤りなど、再試行しても成功しないエラーは再試行しない
+    private static boolean isRetryable(Exception e) {
+        return !(e instanceof MailParseException || e instanceof MailPreparationException);
+    }
+
+    // 試行回数に応じて待ち時間を倍にし（上限あり）、再試行が集中しないように±20%のジッターを加える
+    private static Duration backoff(int attempts) {
+        long baseMillis = BASE_BACKOFF.toMillis() << Math.min(attempts - 1, 16);
+        long millis = Math.min(baseMillis, MAX_BACKOFF.toMillis());
+        double jitter = 0.8 + ThreadLocalRandom.current().nextDouble() * 0.4;
+
+        return Duration.ofMillis((long) (millis * jitter));
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/*
+ * 送信済み（DONE）のメールを、保持期間（outbox.retention）の経過後に定期的に削除するクラス
+ * 本文には認証用のURL（トークン）が含まれるため、送信の確認に必要な期間（既定では7日）を過ぎたら残さない
+ * 送信に失敗した（DEAD）メールは、原因の調査のために削除しない
+ * 長時間ロックを保持しないよう、一定件数ごとに別々のトランザクションで削除し、間に短い休止を挟む
+ */
+@Component
+public class OutboxPurgeJob {
+    private static final int CHUNK_SIZE = 500;
+    private static final long PAUSE_MILLIS = 100;
+
+    private final OutboxService outboxService;
+    private final Duration retention;
+
+    public OutboxPurgeJob(OutboxService outboxService,
+            @Value("${outbox.retention:7d}") Duration retention) {
+        this.outboxService = outboxService;
+        this.retention = retention;
+    }
+
+    // 毎日午前3時50分に、保持期間を過ぎた送信済みのメールを削除する
+    @Scheduled(cron = "0 50 3 * * *")
+    public void purge() throws InterruptedException {
+        Instant doneBefore = Instant.now().minus(retention);
+        int purged = 0;
+        int deleted;
+
+        do {
+            deleted = outboxService.purgeDone(doneBefore, CHUNK_SIZE);
+            purged += deleted;
+
+            if (deleted == CHUNK_SIZE) {
+                Thread.sleep(PAUSE_MILLIS);
+            }
+        } while (deleted == CHUNK_SIZE);
+
+        if (purged > 0) {
+            System.out.println("保持期間を過ぎた送信済みのメールを" + purged + "件削除しました。");
+        }
+    }
+}
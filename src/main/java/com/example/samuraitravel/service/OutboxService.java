@@ -0,0 +1,98 @@
+package com.example.samuraitravel.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.samuraitravel.entity.OutboxMessage;
+import com.example.samuraitravel.repository.OutboxMessageRepository;
+
+@Service
+public class OutboxService {
+    // エラーメッセージの最大文字数（last_errorカラムの長さ）
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final OutboxMessageRepository outboxMessageRepository;
+
+    public OutboxService(OutboxMessageRepository outboxMessageRepository) {
+        this.outboxMessageRepository = outboxMessageRepository;
+    }
+
+    // 送信するメールを保存する（呼び出し元のトランザクションがコミットされた場合のみ送信される）
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void enqueue(String sender, String recipient, String subject, String body) {
+        OutboxMessage outboxMessage = new OutboxMessage();
+
+        outboxMessage.setSender(sender);
+        outboxMessage.setRecipient(recipient);
+        outboxMessage.setSubject(subject);
+        outboxMessage.setBody(body);
+
+        outboxMessageRepository.save(outboxMessage);
+    }
+
+    // 送信を開始できるメールを指定件数までまとめて送信中にし、取得する
+    @Transactional
+    public List<OutboxMessage> claimBatch(int limit) {
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Integer> ids = outboxMessageRepository.findDueIds(now, PageRequest.of(0, limit));
+
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        String lockToken = UUID.randomUUID().toString();
+        outboxMessageRepository.claim(ids, now, lockToken);
+
+        return outboxMessageRepository.findByLockToken(lockToken);
+    }
+
+    @Transactional
+    public void markDone(Collection<Integer> ids) {
+        if (!ids.isEmpty()) {
+            outboxMessageRepository.markDone(ids);
+        }
+    }
+
+    @Transactional
+    public void markRetry(Integer id, Instant nextAttemptAt, String lastError) {
+        outboxMessageRepository.markRetry(id, Timestamp.from(nextAttemptAt), truncate(lastError));
+    }
+
+    @Transactional
+    public void markDead(Integer id, String lastError) {
+        outboxMessageRepository.markDead(id, truncate(lastError));
+    }
+
+    // 指定した時刻より前から送信中のままのメールを未送信に戻す
+    @Transactional
+    public int releaseStale(Instant lockedBefore) {
+        return outboxMessageRepository.releaseStale(Timestamp.from(lockedBefore));
+    }
+
+    // 指定した日時より前に送信済みになったメールを、指定件数まで削除する
+    @Transactional
+    public int purgeDone(Instant doneBefore, int limit) {
+        return outboxMessageRepository.deleteDone(Timestamp.from(doneBefore), limit);
+    }
+
+    // 未送信・再試行待ちのメールの件数を取得する
+    public long countPending() {
+        return outboxMessageRepository.countByStatus(OutboxMessage.PENDING);
+    }
+
+    private static String truncate(String message) {
+        if (message == null || message.length() <= MAX_ERROR_LENGTH) {
+            return message;
+        }
+
+        return message.substring(0, MAX_ERROR_LENGTH);
+    }
+}
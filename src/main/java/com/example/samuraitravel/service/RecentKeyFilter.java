@@ -0,0 +1,56 @@
+package com.example.samuraitravel.service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/*
+ * 最近処理したキー（StripeのイベントのidやPaymentIntentのid）を一定件数だけメモリ上に保持するフィルター
+ * 再送が集中した場合に、データベースに問い合わせずに重複を判定するために使用する（判定できなかったキーはデータベースの一意制約で弾く）
+ * 件数が上限に達した場合は、古いキーから順に忘れる
+ */
+class RecentKeyFilter {
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+    private final String[] ring;
+    private int next;
+
+    RecentKeyFilter(int capacity) {
+        this.ring = new String[capacity];
+    }
+
+    boolean contains(String key) {
+        return key != null && keys.contains(key);
+    }
+
+    synchronized void add(String key) {
+        if (key == null || !keys.add(key)) {
+            return;
+        }
+
+        String evicted = ring[next];
+
+        if (evicted != null) {
+            keys.remove(evicted);
+        }
+
+        ring[next] = key;
+        next = (next + 1) % ring.length;
+    }
+
+    // トランザクションがコミットされた後にキーを追加する（ロールバックされた場合は追加しない）
+    void addAfterCommit(String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            add(key);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                add(key);
+            }
+        });
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.samuraitravel.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.samuraitravel.dto.ReservationHold;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.ReservationHoldRecordRepository;
+
+/*
+ * 予約内容の確認（Stripeのセッション作成）から決済完了（Webhook）までの間、民宿の日程を仮押さえするクラス
+ * 仮押さえはreservation_holdsテーブルに保存し、複数のサーバーで共有する
+ * 民宿の行をロックしてから仮押さえを確認・保存するため、同じ民宿の仮押さえは順に行われ、異なる民宿の仮押さえは競合しない
+ * 有効期限が切れた仮押さえはバックグラウンドで定期的に削除する
+ */
+@Component
+public class ReservationHoldManager {
+    // 仮押さえの有効期限（Stripeのセッションの有効期限に、Webhookの到着までの余裕を加えた時間）
+    public static final Duration HOLD_TTL = Duration.ofMinutes(35);
+
+    // Stripeのセッションの有効期限（Stripeで指定できる最短の30分）
+    public static final Duration CHECKOUT_TTL = Duration.ofMinutes(30);
+
+    private final ReservationHoldRecordRepository reservationHoldRecordRepository;
+    private final HouseRepository houseRepository;
+
+    public ReservationHoldManager(ReservationHoldRecordRepository reservationHoldRecordRepository, HouseRepository houseRepository) {
+        this.reservationHoldRecordRepository = reservationHoldRecordRepository;
+        this.houseRepository = houseRepository;
+    }
+
+    // 日程を仮押さえする（他のユーザーの仮押さえと重なる場合、isAvailableがfalseの場合、または民宿が存在しない場合は空を返す）
+    // 同じユーザーの重なる仮押さえ（確認ページの再表示など）は新しい仮押さえに置き換える
+    @Transactional
+    public Optional<ReservationHold> hold(Integer houseId, Integer userId, LocalDate checkinDate, LocalDate checkoutDate,
+            BooleanSupplier isAvailable) {
+        if (houseRepository.lockById(houseId) == null) {
+            return Optional.empty();
+        }
+
+        Instant now = Instant.now();
+
+        if (reservationHoldRecordRepository.countOverlappingByOtherUsersForShare(houseId, userId, checkinDate, checkoutDate,
+                Timestamp.from(now)) > 0) {
+            return Optional.empty();
+        }
+
+        if (!isAvailable.getAsBoolean()) {
+            return Optional.empty();
+        }
+
+        reservationHoldRecordRepository.deleteOverlappingByUser(houseId, userId, checkinDate, checkoutDate);
+
+        ReservationHold newHold = new ReservationHold(UUID.randomUUID().toString(), houseId, userId, checkinDate,
+                checkoutDate, now.plus(HOLD_TTL));
+        reservationHoldRecordRepository.insert(newHold.getId(), houseId, userId, checkinDate, checkoutDate,
+                Timestamp.from(newHold.getExpiresAt()));
+
+        return Optional.of(newHold);
+    }
+
+    // 仮押さえを予約に変換した結果
+    public enum Confirmation {
+        // 予約を登録してよい
+        CONFIRMED,
+        // 同じ決済の予約がすでに登録済み（重複した通知のため、何もせずに成功として扱う）
+        DUPLICATE,
+        // 仮押さえが失われ、その間に日程が埋まった
+        UNAVAILABLE
+    }
+
+    // 仮押さえを予約に変換する（民宿の行をロックした状態で、isDuplicate → 他のユーザーの仮押さえ → isAvailableの順に判定する）
+    // 呼び出し元の予約を登録するトランザクション内で実行し、仮押さえの削除は予約の登録と同時にコミットされる
+    // ロールバックされた場合は仮押さえが残るため、再試行で同じ仮押さえを使える
+    // onCommitted（空室状況への反映など）は、トランザクションがコミットされた後に実行する
+    @Transactional
+    public Confirmation confirm(String holdId, Integer houseId, Integer userId, LocalDate checkinDate, LocalDate checkoutDate,
+            BooleanSupplier isDuplicate, BooleanSupplier isAvailable, Runnable onCommitted) {
+        houseRepository.lockById(houseId);
+
+        if (isDuplicate.getAsBoolean()) {
+            return Confirmation.DUPLICATE;
+        }
+
+        Timestamp now = Timestamp.from(Instant.now());
+        boolean held = holdId != null && reservationHoldRecordRepository.countActiveByIdForUpdate(holdId, houseId, now) > 0;
+
+        if (!held) {
+            boolean conflicts = reservationHoldRecordRepository.countOverlappingByOtherUsersForShare(houseId, userId,
+                    checkinDate, checkoutDate, now) > 0;
+
+            if (conflicts || !isAvailable.getAsBoolean()) {
+                return Confirmation.UNAVAILABLE;
+            }
+        }
+
+        if (holdId != null) {
+            reservationHoldRecordRepository.deleteByIdAndHouseId(holdId, houseId);
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                onCommitted.run();
+            }
+        });
+
+        return Confirmation.CONFIRMED;
+    }
+
+    // 仮押さえを解放する
+    @Transactional
+    public void release(String holdId, Integer houseId) {
+        reservationHoldRecordRepository.deleteByIdAndHouseId(holdId, houseId);
+    }
+
+    // 有効期限が切れた仮押さえを1分ごとに削除する（各サーバーで実行されるが、削除済みの行は対象にならない）
+    @Scheduled(fixedDelay = 60000)
+    @Transactional
+    public void sweepExpiredHolds() {
+        reservationHoldRecordRepository.deleteExpired(Timestamp.from(Instant.now()));
+    }
+}
@@ -1,5 +1,8 @@
 package com.example.samuraitravel.service;
 
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
@@ -8,14 +11,20 @@ import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.BindingResult;
 
+import com.example.samuraitravel.dto.ReservationDTO;
+import com.example.samuraitravel.dto.ReservationHold;
 import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.entity.Reservation;
+import com.example.samuraitravel.entity.ReservationDraft;
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.HouseStatsRepository;
+import com.example.samuraitravel.repository.ReservationDraftRepository;
 import com.example.samuraitravel.repository.ReservationRepository;
 import com.example.samuraitravel.repository.UserRepository;
 
@@ -23,14 +32,31 @@ import jakarta.persistence.EntityNotFoundException;
 
 @Service
 public class ReservationService {
+    // 重複判定のためにメモリ上に保持する、最近登録した予約のPaymentIntentのidの件数
+    private static final int RECENT_PAYMENT_INTENT_CAPACITY = 10000;
+
+    // 予約内容の下書きを保持する期間
+    private static final Duration DRAFT_RETENTION = Duration.ofDays(2);
+
+    private final RecentKeyFilter recentPaymentIntentIds = new RecentKeyFilter(RECENT_PAYMENT_INTENT_CAPACITY);
     private final ReservationRepository reservationRepository;
     private final HouseRepository houseRepository;
     private final UserRepository userRepository;
+    private final HouseStatsRepository houseStatsRepository;
+    private final HouseAvailabilityIndex houseAvailabilityIndex;
+    private final ReservationHoldManager reservationHoldManager;
+    private final ReservationDraftRepository reservationDraftRepository;
 
-    public ReservationService(ReservationRepository reservationRepository, HouseRepository houseRepository, UserRepository userRepository) {
+    public ReservationService(ReservationRepository reservationRepository, HouseRepository houseRepository, UserRepository userRepository,
+            HouseStatsRepository houseStatsRepository, HouseAvailabilityIndex houseAvailabilityIndex,
+            ReservationHoldManager reservationHoldManager, ReservationDraftRepository reservationDraftRepository) {
         this.reservationRepository = reservationRepository;
         this.houseRepository = houseRepository;
         this.userRepository = userRepository;
+        this.houseStatsRepository = houseStatsRepository;
+        this.houseAvailabilityIndex = houseAvailabilityIndex;
+        this.reservationHoldManager = reservationHoldManager;
+        this.reservationDraftRepository = reservationDraftRepository;
     }
 
     // 指定されたユーザーに紐づく予約を作成日時が新しい順に並べ替え、ページングされた状態で取得する
@@ -48,6 +74,37 @@ public class ReservationService {
         return numberOfPeople <= capacity;
     }
 
+    // 指定した民宿の期間[チェックイン日, チェックアウト日)に、既存の予約と重なる日がないかどうかをチェックする
+    public boolean isAvailable(House house, LocalDate checkinDate, LocalDate checkoutDate) {
+        return isAvailable(house.getId(), checkinDate, checkoutDate);
+    }
+
+    private boolean isAvailable(Integer houseId, LocalDate checkinDate, LocalDate checkoutDate) {
+        if (houseAvailabilityIndex.covers(checkinDate, checkoutDate)) {
+            return houseAvailabilityIndex.isAvailable(houseId, checkinDate, checkoutDate);
+        }
+
+        // 予約可能期間外の日付を含む場合はデータベースで判定する
+        return !reservationRepository.existsOverlapping(houseId, checkinDate, checkoutDate);
+    }
+
+    // 決済が完了するまで予約内容の日程を仮押さえする（他のユーザーが手続き中または予約済みの場合は空を返す）
+    public Optional<ReservationHold> holdReservation(ReservationDTO reservationDTO, User user) {
+        Integer houseId = reservationDTO.getHouseId();
+        LocalDate checkinDate = reservationDTO.getCheckinDate();
+        LocalDate checkoutDate = reservationDTO.getCheckoutDate();
+
+        // 空室状況はサーバーごとにメモリ上で管理しているため、空室と判定した場合も他のサーバーで登録された予約をデータベースで確認する
+        return reservationHoldManager.hold(houseId, user.getId(), checkinDate, checkoutDate,
+                () -> isAvailable(houseId, checkinDate, checkoutDate)
+                        && reservationRepository.countOverlappingForShare(houseId, checkinDate, checkoutDate) == 0);
+    }
+
+    // 仮押さえを解放する
+    public void releaseHold(ReservationHold reservationHold) {
+        reservationHoldManager.release(reservationHold.getId(), reservationHold.getHouseId());
+    }
+
     // チェックイン・チェックアウト日の入力に不備がない場合は以前の入力値を取得する
     public String getPreviousDates(LocalDate checkinDate, LocalDate checkoutDate, BindingResult bindingResult) {
         if (checkinDate != null && checkoutDate != null && !bindingResult.hasFieldErrors("checkinDate")
@@ -70,12 +127,61 @@ public class ReservationService {
         return amount;
     }
 
+    // Stripeのセッション作成時に予約内容の下書きを保存する
     @Transactional
-    public void createReservation(Map<String, String> sessionMetadata) {    
-        Reservation reservation = new Reservation();
-        
-        Integer houseId = Integer.valueOf(sessionMetadata.get("houseId"));
-        Integer userId = Integer.valueOf(sessionMetadata.get("userId"));         
+    public void createDraft(String sessionId, ReservationDTO reservationDTO, User user, ReservationHold reservationHold) {
+        ReservationDraft reservationDraft = new ReservationDraft();
+        reservationDraft.setSessionId(sessionId);
+        reservationDraft.setHouseId(reservationDTO.getHouseId());
+        reservationDraft.setUserId(user.getId());
+        reservationDraft.setCheckinDate(reservationDTO.getCheckinDate());
+        reservationDraft.setCheckoutDate(reservationDTO.getCheckoutDate());
+        reservationDraft.setNumberOfPeople(reservationDTO.getNumberOfPeople());
+        reservationDraft.setAmount(reservationDTO.getAmount());
+        reservationDraft.setHoldId(reservationHold.getId());
+
+        reservationDraftRepository.save(reservationDraft);
+    }
+
+    // 指定したStripeのセッションのidを持つ下書きを取得する
+    public Optional<ReservationDraft> findDraftBySessionId(String sessionId) {
+        return reservationDraftRepository.findBySessionId(sessionId);
+    }
+
+    // 作成から2日以上経過した下書きを毎時0分に削除する（セッションの有効期限は30分のため、決済に使われることはない）
+    @Scheduled(cron = "0 0 * * * *")
+    @Transactional
+    public int deleteExpiredDrafts() {
+        return reservationDraftRepository.deleteByCreatedAtBefore(Timestamp.from(Instant.now().minus(DRAFT_RETENTION)));
+    }
+
+    // 下書きから決済済みの予約を登録する（同じPaymentIntentの予約がすでに登録されている場合は何もせずfalseを返す）
+    @Transactional
+    public boolean createReservation(String paymentIntentId, ReservationDraft reservationDraft) {
+        return createReservation(paymentIntentId, reservationDraft.getHouseId(), reservationDraft.getUserId(),
+                reservationDraft.getCheckinDate(), reservationDraft.getCheckoutDate(),
+                reservationDraft.getNumberOfPeople(), reservationDraft.getAmount(), reservationDraft.getHoldId());
+    }
+
+    // Stripeのメタデータから決済済みの予約を登録する（同じPaymentIntentの予約がすでに登録されている場合は何もせずfalseを返す）
+    @Transactional
+    public boolean createReservation(String paymentIntentId, Map<String, String> sessionMetadata) {    
+        return createReservation(paymentIntentId,
+                Integer.valueOf(sessionMetadata.get("houseId")),
+                Integer.valueOf(sessionMetadata.get("userId")),
+                LocalDate.parse(sessionMetadata.get("checkinDate")),
+                LocalDate.parse(sessionMetadata.get("checkoutDate")),
+                Integer.valueOf(sessionMetadata.get("numberOfPeople")),
+                Integer.valueOf(sessionMetadata.get("amount")),
+                sessionMetadata.get("holdId"));
+    }
+
+    private boolean createReservation(String paymentIntentId, Integer houseId, Integer userId, LocalDate checkinDate,
+            LocalDate checkoutDate, Integer numberOfPeople, Integer amount, String holdId) {
+        // 最近登録したPaymentIntentはデータベースに問い合わせずに重複と判定する
+        if (isAlreadyReserved(paymentIntentId)) {
+            return false;
+        }
 
         Optional<House> optionalHouse = houseRepository.findById(houseId);
         House house = optionalHouse.orElseThrow(() -> new EntityNotFoundException("指定されたIDの民宿が存在しません。"));
@@ -83,20 +189,65 @@ public class ReservationService {
         Optional<User> optionalUser = userRepository.findById(userId);
         User user = optionalUser.orElseThrow(() -> new EntityNotFoundException("指定されたIDのユーザーが存在しません。"));    
 
-        LocalDate checkinDate = LocalDate.parse(sessionMetadata.get("checkinDate"));
-        LocalDate checkoutDate = LocalDate.parse(sessionMetadata.get("checkoutDate"));
-        Integer numberOfPeople = Integer.valueOf(sessionMetadata.get("numberOfPeople"));
-        Integer amount = Integer.valueOf(sessionMetadata.get("amount"));   
+        // 仮押さえを予約に変換する（仮押さえが失われ、その間に日程が埋まった場合は予約を登録しない）
+        // 民宿の行をロックして同じ民宿の予約の登録を順に行い、ロック付きの読み取りで他のサーバーが直前にコミットした予約も確認する
+        // 同じ決済の通知が同時に届き、先に処理した方がコミット済みの場合は、民宿のロック内で重複と判定して成功として扱う
+        // 空室状況への反映は、予約の登録がコミットされた後に行う
+        ReservationHoldManager.Confirmation confirmation = reservationHoldManager.confirm(holdId, houseId, userId,
+                checkinDate, checkoutDate,
+                () -> recentPaymentIntentIds.contains(paymentIntentId)
+                        || reservationRepository.countByPaymentIntentIdForShare(paymentIntentId) > 0,
+                () -> reservationRepository.countOverlappingForShare(houseId, checkinDate, checkoutDate) == 0,
+                () -> {
+                    recentPaymentIntentIds.add(paymentIntentId);
+                    houseAvailabilityIndex.markBooked(houseId, checkinDate, checkoutDate);
+                });
+
+        if (confirmation == ReservationHoldManager.Confirmation.DUPLICATE) {
+            return false;
+        }
+
+        if (confirmation == ReservationHoldManager.Confirmation.UNAVAILABLE) {
+            throw new IllegalStateException("仮押さえの有効期限が切れ、選択された日程はすでに他の予約で埋まっています。");
+        }
+
+        // 有効な仮押さえがある場合も、仮押さえを経由せずに登録された予約と重ならないことを民宿のロック内で確かめる
+        if (reservationRepository.countOverlappingForShare(houseId, checkinDate, checkoutDate) > 0) {
+            throw new IllegalStateException("選択された日程はすでに他の予約で埋まっています。");
+        }
 
+        Reservation reservation = new Reservation();
         reservation.setHouse(house);
         reservation.setUser(user);
         reservation.setCheckinDate(checkinDate);
         reservation.setCheckoutDate(checkoutDate);
         reservation.setNumberOfPeople(numberOfPeople);
         reservation.setAmount(amount);
+        reservation.setPaymentIntentId(paymentIntentId);
 
+        // 民宿の行のロックにより同じPaymentIntentの予約は上で重複と判定されるが、一意制約でも後の登録が失敗する
         reservationRepository.save(reservation);
-    }  
+
+        // 人気ランキング用の予約数を同じトランザクション内で加算する
+        houseStatsRepository.incrementReservationCount(houseId);
+
+        return true;
+    }
+
+    // 指定したPaymentIntentの予約がすでに登録されているかどうか
+    public boolean isAlreadyReserved(String paymentIntentId) {
+        if (recentPaymentIntentIds.contains(paymentIntentId)) {
+            return true;
+        }
+
+        if (reservationRepository.existsByPaymentIntentId(paymentIntentId)) {
+            recentPaymentIntentIds.add(paymentIntentId);
+
+            return true;
+        }
+
+        return false;
+    }
 
     // 予約のレコード数を取得する（テスト用）
     public long countReservations() {
@@ -0,0 +1,58 @@
+package com.example.samuraitravel.service;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/*
+ * 民宿ごとのレビューの集計値を、レビューテーブルから定期的に再集計して修復するクラス
+ * 通常はReviewServiceでレビューの書き込みと同時に更新しているため、手作業でのデータ修正などでずれた場合に備える
+ * 長時間ロックを保持しないよう、一定件数の民宿ごとに別々のトランザクションで再集計し、間に短い休止を挟む
+ */
+@Component
+public class ReviewAggregateRepairJob {
+    private static final Logger log = LoggerFactory.getLogger(ReviewAggregateRepairJob.class);
+
+    private static final int BATCH_SIZE = 100;
+    private static final long PAUSE_MILLIS = 100;
+
+    private final ReviewService reviewService;
+
+    public ReviewAggregateRepairJob(ReviewService reviewService) {
+        this.reviewService = reviewService;
+    }
+
+    // 毎日午前4時に、すべての民宿のレビューの集計値を再集計する
+    @Scheduled(cron = "0 0 4 * * *")
+    public void repair() throws InterruptedException {
+        int afterId = 0;
+        int repaired = 0;
+        List<Integer> houseIds;
+
+        try {
+            do {
+                houseIds = reviewService.findHouseIdsAfter(afterId, BATCH_SIZE);
+
+                if (houseIds.isEmpty()) {
+                    break;
+                }
+
+                repaired += reviewService.recomputeReviewAggregates(houseIds);
+                afterId = houseIds.get(houseIds.size() - 1);
+
+                if (houseIds.size() == BATCH_SIZE) {
+                    Thread.sleep(PAUSE_MILLIS);
+                }
+            } while (houseIds.size() == BATCH_SIZE);
+        } catch (RuntimeException e) {
+            // 再集計済みのバッチはコミットされているため、残りは翌日の再集計で修復する
+            log.warn("民宿のレビューの集計値の再集計に失敗しました（id {}より後、{}件は再集計済み）。", afterId, repaired, e);
+            return;
+        }
+
+        System.out.println(repaired + "件の民宿のレビューの集計値を再集計しました。");
+    }
+}
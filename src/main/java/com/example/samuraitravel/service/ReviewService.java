@@ -3,24 +3,34 @@ package com.example.samuraitravel.service;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.example.samuraitravel.dto.CursorPage;
+import com.example.samuraitravel.dto.ReviewSummary;
 import com.example.samuraitravel.entity.House;
 import com.example.samuraitravel.entity.Review;
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.form.ReviewEditForm;
 import com.example.samuraitravel.form.ReviewRegisterForm;
+import com.example.samuraitravel.repository.HouseRepository;
 import com.example.samuraitravel.repository.ReviewRepository;
 
 @Service
 public class ReviewService {
     private final ReviewRepository reviewRepository;
+    private final HouseRepository houseRepository;
 
-    public ReviewService(ReviewRepository reviewRepository) {
+    public ReviewService(ReviewRepository reviewRepository, HouseRepository houseRepository) {
         this.reviewRepository = reviewRepository;
+        this.houseRepository = houseRepository;
     }
 
     // 指定したidを持つレビューを取得する
@@ -28,9 +38,9 @@ public class ReviewService {
         return reviewRepository.findById(id);
     }
 
-    // 指定した民宿のレビューを作成日時が新しい順に6件取得する
-    public List<Review> findTop6ReviewsByHouseOrderByCreatedAtDesc(House house) {
-        return reviewRepository.findTop6ByHouseOrderByCreatedAtDesc(house);
+    // 指定した民宿のレビューを作成日時が新しい順に指定件数取得する（民宿詳細ページ用）
+    public List<ReviewSummary> findLatestReviewSummaries(Integer houseId, int limit) {
+        return reviewRepository.findSummariesByHouseId(houseId, PageRequest.of(0, limit));
     }
 
     // 指定した民宿とユーザーのレビューを取得する
@@ -38,16 +48,20 @@ public class ReviewService {
         return reviewRepository.findByHouseAndUser(house, user);
     }
 
-    // 指定した民宿のレビュー件数を取得する
-    public long countReviewsByHouse(House house) {
-        return reviewRepository.countByHouse(house);
-    }
-
     // 指定した民宿のすべてのレビューを作成日時が新しい順に並べ替え、ページングされた状態で取得する
     public Page<Review> findReviewsByHouseOrderByCreatedAtDesc(House house, Pageable pageable) {
         return reviewRepository.findByHouseOrderByCreatedAtDesc(house, pageable);
     }
 
+    // 指定した民宿のレビューを作成日時が新しい順に、カーソルの位置から指定件数取得する（キーセットページング）
+    public CursorPage<Review> scrollReviewsByHouse(House house, String cursor, int size) {
+        Sort sort = Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("id"));
+        KeysetScrollPosition position = CursorPage.decode(cursor, sort);
+        Window<Review> window = reviewRepository.findByHouse(house, position, sort, Limit.of(size));
+
+        return CursorPage.of(window, position, null);
+    }
+
     @Transactional
     public void createReview(ReviewRegisterForm reviewRegisterForm, House house, User user) {
         Review review = new Review();
@@ -58,24 +72,61 @@ public class ReviewService {
         review.setContent(reviewRegisterForm.getContent());
 
         reviewRepository.save(review);
+        addReviewAggregates(house, 1, null, review.getScore());
     }
 
     @Transactional
     public void updateReview(ReviewEditForm reviewEditForm, Review review) {
+        Integer previousScore = review.getScore();
+
         review.setScore(reviewEditForm.getScore());
         review.setContent(reviewEditForm.getContent());
 
         reviewRepository.save(review);
+
+        if (!previousScore.equals(review.getScore())) {
+            addReviewAggregates(review.getHouse(), 0, previousScore, review.getScore());
+        }
     }
 
     @Transactional
     public void deleteReview(Review review) {
         reviewRepository.delete(review);
+        addReviewAggregates(review.getHouse(), -1, review.getScore(), null);
     }
 
     // 指定したユーザーが指定した民宿のレビューをすでに投稿済みかどうかをチェックする
     public boolean hasUserAlreadyReviewed(House house, User user) {
         return reviewRepository.findByHouseAndUser(house, user) != null;
     }
-}
 
+    // 民宿のレビューの集計値（件数・評価の合計・評価ごとの件数）に、取り除いた評価と加えた評価の差分を加算する
+    private void addReviewAggregates(House house, int countDelta, Integer removedScore, Integer addedScore) {
+        int[] scoreDeltas = new int[6];
+        int scoreSumDelta = 0;
+
+        if (removedScore != null) {
+            scoreDeltas[removedScore]--;
+            scoreSumDelta -= removedScore;
+        }
+
+        if (addedScore != null) {
+            scoreDeltas[addedScore]++;
+            scoreSumDelta += addedScore;
+        }
+
+        houseRepository.addReviewAggregates(house.getId(), countDelta, scoreSumDelta, scoreDeltas[1], scoreDeltas[2],
+                scoreDeltas[3], scoreDeltas[4], scoreDeltas[5]);
+    }
+
+    // 指定した民宿のレビューの集計値を、レビューテーブルから再集計する（集計値の修復に使用する）
+    @Transactional
+    public int recomputeReviewAggregates(List<Integer> houseIds) {
+        return houseRepository.recomputeReviewAggregates(houseIds);
+    }
+
+    // idが指定した値より大きい民宿のidを、指定件数まで取得する
+    public List<Integer> findHouseIdsAfter(Integer afterId, int limit) {
+        return houseRepository.findIdsAfter(afterId, PageRequest.of(0, limit));
+    }
+}
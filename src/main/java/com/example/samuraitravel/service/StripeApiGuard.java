@@ -0,0 +1,282 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.net.RequestOptions;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+
+/*
+ * StripeのAPI呼び出しを保護するクラス
+ * ・バルクヘッド：同時に呼び出せる数を制限し、空きがなければ短時間だけ待って諦める
+ * ・サーキットブレーカー：直近の呼び出しの失敗率が閾値を超えたら一定時間すべての呼び出しを即座に失敗させ、その後1件だけ試す（半開）
+ * ・タイムアウト：接続と読み取りのタイムアウトを短めに指定する
+ * ・再試行：レート制限の場合のみ、ジッター付きの指数バックオフで再試行する
+ * 呼び出しを拒否した場合はApiConnectionExceptionを投げるため、呼び出し元は通信エラーと同じように扱える
+ * サーキットブレーカーの状態の変化はWARNでログに出力する
+ */
+@Component
+public class StripeApiGuard {
+    private static final Logger log = LoggerFactory.getLogger(StripeApiGuard.class);
+
+    // バルクヘッド
+    private static final int MAX_CONCURRENT_CALLS = 16;
+    private static final Duration MAX_WAIT = Duration.ofMillis(200);
+
+    // サーキットブレーカー
+    private static final int WINDOW_SIZE = 20;
+    private static final int MINIMUM_CALLS = 10;
+    private static final int FAILURE_RATE_THRESHOLD_PERCENT = 50;
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    // タイムアウト
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 8000;
+
+    // レート制限時の再試行
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Duration RETRY_BASE_BACKOFF = Duration.ofMillis(200);
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    @FunctionalInterface
+    public interface StripeCall<T> {
+        T call(RequestOptions requestOptions) throws StripeException;
+    }
+
+    private final Semaphore bulkhead = new Semaphore(MAX_CONCURRENT_CALLS);
+    private final MeterRegistry meterRegistry;
+
+    // 操作と結果の組み合わせごとのレイテンシのタイマー（呼び出しのたびにヒストグラム付きのタイマーを組み立て直さない）
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    // サーキットブレーカーの状態（thisで同期する）
+    private final boolean[] failures = new boolean[WINDOW_SIZE];
+    private int recordedCalls;
+    private int failureCount;
+    private int nextIndex;
+    private int state = CLOSED;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+
+    public StripeApiGuard(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    // 構築が終わってからゲージを登録する（コンストラクタ内でthisを渡さない）
+    @PostConstruct
+    private void registerGauges() {
+        Gauge.builder("stripe.api.circuit.state", this, StripeApiGuard::currentState)
+                .description("0: closed, 1: open, 2: half-open")
+                .register(meterRegistry);
+        Gauge.builder("stripe.api.bulkhead.in_use", bulkhead, semaphore -> MAX_CONCURRENT_CALLS - semaphore.availablePermits())
+                .register(meterRegistry);
+    }
+
+    // 指定した操作を保護して実行する（idempotencyKeyを指定すると、再試行してもStripe側で重複して処理されない）
+    public <T> T execute(String operation, String idempotencyKey, StripeCall<T> stripeCall) throws StripeException {
+        if (!tryAcquirePermission()) {
+            count(operation, "rejected_open");
+            throw new ApiConnectionException("Stripeへの接続を一時的に停止しています（サーキットブレーカー）。");
+        }
+
+        boolean acquired;
+
+        try {
+            acquired = bulkhead.tryAcquire(MAX_WAIT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            releaseProbe();
+            count(operation, "rejected_bulkhead");
+            throw new ApiConnectionException("Stripeへの同時接続数が上限に達しています（バルクヘッド）。");
+        }
+
+        RequestOptions.RequestOptionsBuilder requestOptionsBuilder = RequestOptions.builder()
+                .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setReadTimeout(READ_TIMEOUT_MILLIS);
+
+        if (idempotencyKey != null) {
+            requestOptionsBuilder.setIdempotencyKey(idempotencyKey);
+        }
+
+        RequestOptions requestOptions = requestOptionsBuilder.build();
+        boolean recorded = false;
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Timer.Sample sample = Timer.start(meterRegistry);
+
+                try {
+                    T result = stripeCall.call(requestOptions);
+                    sample.stop(timer(operation, "success"));
+                    count(operation, "success");
+                    recordOutcome(false);
+                    recorded = true;
+
+                    return result;
+                } catch (RateLimitException e) {
+                    sample.stop(timer(operation, "rate_limited"));
+
+                    if (attempt >= MAX_ATTEMPTS) {
+                        count(operation, "rate_limited");
+                        recordOutcome(false);
+                        recorded = true;
+                        throw e;
+                    }
+
+                    count(operation, "retried");
+                    sleep(backoff(attempt));
+                } catch (StripeException e) {
+                    // 通信エラーとStripe側のエラーのみ障害として数える（パラメーターの誤りなどは数えない）
+                    boolean failure = e instanceof ApiConnectionException || e instanceof ApiException;
+                    sample.stop(timer(operation, failure ? "failure" : "error"));
+                    count(operation, failure ? "failure" : "error");
+                    recordOutcome(failure);
+                    recorded = true;
+                    throw e;
+                }
+            }
+        } finally {
+            // 結果を記録せずに終わった場合（割り込みや想定外の例外）は、半開状態の試行枠を返却する
+            if (!recorded) {
+                releaseProbe();
+            }
+
+            bulkhead.release();
+        }
+    }
+
+    // 呼び出してよいかどうか（開いている間は拒否し、一定時間が経過したら1件だけ試す）
+    private synchronized boolean tryAcquirePermission() {
+        if (state == OPEN && System.nanoTime() - openedAtNanos >= OPEN_DURATION.toNanos()) {
+            state = HALF_OPEN;
+            probeInFlight = false;
+            log.warn("サーキットブレーカーを半開にし、Stripeの呼び出しを1件だけ試します。");
+        }
+
+        if (state == CLOSED) {
+            return true;
+        }
+
+        if (state == HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    private synchronized void releaseProbe() {
+        if (state == HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    private synchronized void recordOutcome(boolean failure) {
+        if (state == HALF_OPEN) {
+            // 試した1件の結果で閉じるか、再び開くかを決める
+            if (failure) {
+                open();
+            } else {
+                reset();
+                log.warn("試したStripeの呼び出しに成功したため、サーキットブレーカーを閉じました。");
+            }
+
+            return;
+        }
+
+        if (state != CLOSED) {
+            return;
+        }
+
+        if (recordedCalls == WINDOW_SIZE && failures[nextIndex]) {
+            failureCount--;
+        }
+
+        failures[nextIndex] = failure;
+        nextIndex = (nextIndex + 1) % WINDOW_SIZE;
+        recordedCalls = Math.min(recordedCalls + 1, WINDOW_SIZE);
+
+        if (failure) {
+            failureCount++;
+        }
+
+        if (recordedCalls >= MINIMUM_CALLS && failureCount * 100 >= FAILURE_RATE_THRESHOLD_PERCENT * recordedCalls) {
+            log.warn("Stripeの呼び出しの失敗が続いたため、サーキットブレーカーを開きました（直近{}件中{}件が失敗）。", recordedCalls, failureCount);
+            open();
+        }
+    }
+
+    private void open() {
+        if (state == HALF_OPEN) {
+            log.warn("試したStripeの呼び出しに失敗したため、サーキットブレーカーを再び開きました。");
+        }
+
+        state = OPEN;
+        openedAtNanos = System.nanoTime();
+        probeInFlight = false;
+    }
+
+    private void reset() {
+        state = CLOSED;
+        probeInFlight = false;
+        recordedCalls = 0;
+        failureCount = 0;
+        nextIndex = 0;
+    }
+
+    private synchronized int currentState() {
+        return state;
+    }
+
+    private void count(String operation, String outcome) {
+        meterRegistry.counter("stripe.api.calls", "operation", operation, "outcome", outcome).increment();
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return timers.computeIfAbsent(operation + "|" + outcome, key -> Timer.builder("stripe.api.latency")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    // 待ち時間を倍にしながら、0から上限までの間でランダムに決める（フルジッター）
+    private static Duration backoff(int attempt) {
+        long maxMillis = RETRY_BASE_BACKOFF.toMillis() << (attempt - 1);
+
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(maxMillis + 1));
+    }
+
+    private static void sleep(Duration duration) throws StripeException {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Stripeの呼び出しの再試行中に割り込まれました。", e);
+        }
+    }
+}
@@ -1,14 +1,18 @@
 package com.example.samuraitravel.service;
 
+import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
 
 import com.example.samuraitravel.dto.ReservationDTO;
+import com.example.samuraitravel.dto.ReservationHold;
 import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.ReservationDraft;
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.repository.HouseRepository;
 import com.stripe.Stripe;
@@ -20,6 +24,7 @@ import com.stripe.exception.PermissionException;
 import com.stripe.exception.RateLimitException;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Event;
+import com.stripe.model.PaymentIntent;
 import com.stripe.model.StripeObject;
 import com.stripe.model.checkout.Session;
 import com.stripe.param.checkout.SessionCreateParams;
@@ -51,12 +56,18 @@ public class StripeService {
     @Value("${stripe.cancel-url}")
     private String stripeCancelUrl;
 
+    // StripeのAPIの操作名（メトリクスのタグ）
+    private static final String SESSION_CREATE = "checkout.session.create";
+    private static final String SESSION_RETRIEVE = "checkout.session.retrieve";
+
     private final HouseRepository houseRepository;
     private final ReservationService reservationService;
+    private final StripeApiGuard stripeApiGuard;
 
-    public StripeService(HouseRepository houseRepository, ReservationService reservationService) {
+    public StripeService(HouseRepository houseRepository, ReservationService reservationService, StripeApiGuard stripeApiGuard) {
         this.houseRepository = houseRepository;
         this.reservationService = reservationService;
+        this.stripeApiGuard = stripeApiGuard;
     }
 
     // 依存性の注入後に一度だけ実行するメソッド
@@ -66,8 +77,8 @@ public class StripeService {
         Stripe.apiKey = stripeApiKey;
     }
 
-    // Stripeに送信する支払い情報をセッションとして作成する
-    public String createStripeSession(ReservationDTO reservationDTO, User user) {
+    // Stripeに送信する支払い情報をセッションとして作成する（セッションの有効期限は仮押さえの有効期限内に収める）
+    public String createStripeSession(ReservationDTO reservationDTO, User user, ReservationHold reservationHold) {
         Optional<House> optionalHouse = houseRepository.findById(reservationDTO.getHouseId());
         House house = optionalHouse.orElseThrow(() -> new EntityNotFoundException("指定されたIDの民宿が存在しません。"));
 
@@ -104,6 +115,7 @@ public class StripeService {
                 .setMode(MODE)
                 .setSuccessUrl(stripeSuccessUrl)
                 .setCancelUrl(stripeCancelUrl)
+                .setExpiresAt(Instant.now().plus(ReservationHoldManager.CHECKOUT_TTL).getEpochSecond())
                 .setPaymentIntentData(
                         SessionCreateParams.PaymentIntentData.builder()
                                 .putMetadata("houseId", houseId)
@@ -112,12 +124,23 @@ public class StripeService {
                                 .putMetadata("checkoutDate", checkoutDate)
                                 .putMetadata("numberOfPeople", numberOfPeople)
                                 .putMetadata("amount", amount)
+                                .putMetadata("holdId", reservationHold.getId())
                                 .build())
                 .build();
 
         try {
             // Stripeに送信する支払い情報をセッションとして作成する
-            Session session = Session.create(sessionCreateParams);
+            // 仮押さえのidを冪等キーにし、レート制限で再試行してもセッションが重複して作成されないようにする
+            Session session = stripeApiGuard.execute(SESSION_CREATE, "checkout-session-" + reservationHold.getId(),
+                    requestOptions -> Session.create(sessionCreateParams, requestOptions));
+
+            // 決済完了のWebhookでStripeのAPIを呼び出さずに予約を登録できるよう、予約内容の下書きを保存する
+            try {
+                reservationService.createDraft(session.getId(), reservationDTO, user, reservationHold);
+            } catch (DataAccessException e) {
+                // 下書きがなくても、決済完了時にStripeからメタデータを取得して予約を登録できる
+                System.out.println("予約内容の下書きを保存できませんでした。");
+            }
 
             // 作成したセッションのIDを返す
             return session.getId();
@@ -146,55 +169,82 @@ public class StripeService {
     }
 
     // セッションから予約情報を取得し、ReservationServiceクラスを介してデータベースに登録する
-    public void processSessionCompleted(Event event) {
+    // 失敗した場合は例外をそのまま投げ、呼び出し元（WebhookInboxWorker）が再試行するかどうかを判断する
+    public void processSessionCompleted(Event event) throws StripeException {
         // EventオブジェクトからStripeObjectオブジェクトを取得する
         Optional<StripeObject> optionalStripeObject = event.getDataObjectDeserializer().getObject();
 
-        optionalStripeObject.ifPresentOrElse(stripeObject -> {
-            // StripeObjectオブジェクトをSessionオブジェクトに型変換する
-            Session session = (Session) stripeObject;
+        if (optionalStripeObject.isEmpty()) {
+            // イベントのAPIバージョンとstripe-javaライブラリのバージョンが異なり、型変換できない場合
+            throw new IllegalStateException("予約情報の登録処理が失敗しました。Stripe API Version: " + event.getApiVersion()
+                    + ", stripe-java Version: " + Stripe.VERSION);
+        }
 
-            // "payment_intent"情報を展開する（詳細情報を含める）ように指定したSessionRetrieveParamsオブジェクトを生成する
-            SessionRetrieveParams sessionRetrieveParams = SessionRetrieveParams.builder().addExpand("payment_intent")
-                    .build();
+        // StripeObjectオブジェクトをSessionオブジェクトに型変換する
+        Session session = (Session) optionalStripeObject.get();
+        String paymentIntentId = session.getPaymentIntent();
 
-            try {
-                // 支払い情報を含む詳細なセッション情報を取得する
-                session = Session.retrieve(session.getId(), sessionRetrieveParams, null);
-
-                // 詳細なセッション情報からメタデータ（予約情報）を取り出す
-                Map<String, String> sessionMetadata = session.getPaymentIntentObject().getMetadata();
-
-                // 予約情報をデータベースに登録する
-                reservationService.createReservation(sessionMetadata);
-
-                System.out.println("予約情報の登録処理が成功しました。");
-
-            } catch (RateLimitException e) {
-                System.out.println("短時間のうちに過剰な回数のAPIコールが行われました。");
-            } catch (InvalidRequestException e) {
-                System.out.println("APIコールのパラメーターが誤っているか、状態が誤っているか、方法が無効でした。");
-            } catch (PermissionException e) {
-                System.out.println("このリクエストに使用されたAPIキーには必要な権限がありません。");
-            } catch (AuthenticationException e) {
-                System.out.println("Stripeは、提供された情報では認証できません。");
-            } catch (ApiConnectionException e) {
-                System.out.println("お客様のサーバーとStripeの間でネットワークの問題が発生しました。");
-            } catch (ApiException e) {
-                System.out.println("Stripe側で問題が発生しました（稀な状況です）。");
-            } catch (StripeException e) {
-                System.out.println("Stripeとの通信中に予期せぬエラーが発生しました。");
-            } catch (Exception e) {
-                System.out.println("予約情報の登録処理中に予期せぬエラーが発生しました。");
-            }
-        },
-                () -> {
-                    System.out.println("予約情報の登録処理が失敗しました。");
-                });
-
-        // StripeのAPIとstripe-javaライブラリのバージョンをコンソールに出力する
-        System.out.println("Stripe API Version: " + event.getApiVersion());
-        System.out.println("stripe-java Version: " + Stripe.VERSION);
+        if (paymentIntentId != null && reservationService.isAlreadyReserved(paymentIntentId)) {
+            System.out.println("この決済の予約情報はすでに登録されています。");
+            return;
+        }
+
+        // セッション作成時に保存した下書きがあれば、StripeのAPIを呼び出さずに予約を登録する
+        Optional<ReservationDraft> optionalReservationDraft = reservationService.findDraftBySessionId(session.getId());
+
+        if (paymentIntentId != null && optionalReservationDraft.isPresent()) {
+            logCreated(reservationService.createReservation(paymentIntentId, optionalReservationDraft.get()));
+            return;
+        }
+
+        // 下書きがない場合（下書きの導入前に作成されたセッションなど）は、Stripeからメタデータを取得する
+        // "payment_intent"情報を展開する（詳細情報を含める）ように指定したSessionRetrieveParamsオブジェクトを生成する
+        SessionRetrieveParams sessionRetrieveParams = SessionRetrieveParams.builder().addExpand("payment_intent")
+                .build();
+
+        try {
+            // 支払い情報を含む詳細なセッション情報を取得する
+            String sessionId = session.getId();
+            session = stripeApiGuard.execute(SESSION_RETRIEVE, null,
+                    requestOptions -> Session.retrieve(sessionId, sessionRetrieveParams, requestOptions));
+        } catch (StripeException e) {
+            System.out.println(describe(e));
+            throw e;
+        }
+
+        // 詳細なセッション情報からPaymentIntentのidとメタデータ（予約情報）を取り出す
+        PaymentIntent paymentIntent = session.getPaymentIntentObject();
+        Map<String, String> sessionMetadata = paymentIntent.getMetadata();
+
+        // 予約情報をデータベースに登録する（同じ決済の予約がすでに登録されている場合は何もしない）
+        logCreated(reservationService.createReservation(paymentIntent.getId(), sessionMetadata));
+    }
+
+    private static void logCreated(boolean created) {
+        if (created) {
+            System.out.println("予約情報の登録処理が成功しました。");
+        } else {
+            System.out.println("この決済の予約情報はすでに登録されています。");
+        }
+    }
+
+    // Stripeの例外の種類に応じたメッセージを返す
+    private static String describe(StripeException e) {
+        if (e instanceof RateLimitException) {
+            return "短時間のうちに過剰な回数のAPIコールが行われました。";
+        } else if (e instanceof InvalidRequestException) {
+            return "APIコールのパラメーターが誤っているか、状態が誤っているか、方法が無効でした。";
+        } else if (e instanceof PermissionException) {
+            return "このリクエストに使用されたAPIキーには必要な権限がありません。";
+        } else if (e instanceof AuthenticationException) {
+            return "Stripeは、提供された情報では認証できません。";
+        } else if (e instanceof ApiConnectionException) {
+            return "お客様のサーバーとStripeの間でネットワークの問題が発生しました。";
+        } else if (e instanceof ApiException) {
+            return "Stripe側で問題が発生しました（稀な状況です）。";
+        }
+
+        return "Stripeとの通信中に予期せぬエラーが発生しました。";
     }
 
 }
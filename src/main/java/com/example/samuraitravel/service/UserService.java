@@ -10,25 +10,33 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.example.samuraitravel.entity.Role;
 import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.event.SignupEventPublisher;
 import com.example.samuraitravel.form.SignupForm;
 import com.example.samuraitravel.form.UserEditForm;
 import com.example.samuraitravel.repository.RoleRepository;
 import com.example.samuraitravel.repository.UserRepository;
+import com.example.samuraitravel.security.UserPrincipalCache;
 
 @Service
 public class UserService {
     private final UserRepository userRepository;
     private final RoleRepository roleRepository;
     private final PasswordEncoder passwordEncoder;
+    private final SignupEventPublisher signupEventPublisher;
+    private final UserPrincipalCache userPrincipalCache;
 
-    public UserService(UserRepository userRepository, RoleRepository roleRepository, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, RoleRepository roleRepository, PasswordEncoder passwordEncoder,
+            SignupEventPublisher signupEventPublisher, UserPrincipalCache userPrincipalCache) {
         this.userRepository = userRepository;
         this.roleRepository = roleRepository;
         this.passwordEncoder = passwordEncoder;
+        this.signupEventPublisher = signupEventPublisher;
+        this.userPrincipalCache = userPrincipalCache;
     }
 
+    // 会員を登録し、同じトランザクション内で認証用のトークンと認証メール（outbox）を保存する
     @Transactional
-    public User createUser(SignupForm signupForm) {
+    public User createUser(SignupForm signupForm, String requestUrl) {
         User user = new User();
         Role role = roleRepository.findByName("ROLE_GENERAL");
 
@@ -43,11 +51,21 @@ public class UserService {
         user.setEnabled(false);
 
         // データベースに保存
-        return userRepository.save(user);
+        User createdUser = userRepository.save(user);
+        signupEventPublisher.publishSignupEvent(createdUser, requestUrl);
+
+        // 同じメールアドレスで削除された会員（未認証）の認証情報が残らないようにする
+        userPrincipalCache.evict(createdUser.getEmail());
+
+        return createdUser;
     }
 
     @Transactional
     public void updateUser(UserEditForm userEditForm, User user) {
+        // 変更前と変更後のメールアドレスの認証情報をキャッシュから削除する
+        userPrincipalCache.evict(user.getEmail());
+        userPrincipalCache.evict(userEditForm.getEmail());
+
         user.setName(userEditForm.getName());
         user.setFurigana(userEditForm.getFurigana());
         user.setPostalCode(userEditForm.getPostalCode());
@@ -75,6 +93,7 @@ public class UserService {
     public void enableUser(User user) {
         user.setEnabled(true);
         userRepository.save(user);
+        userPrincipalCache.evict(user.getEmail());
     }
 
     // メールアドレスが変更されたかどうかをチェックする
@@ -102,4 +121,9 @@ public class UserService {
     public Optional<User> findUserById(Integer id) {
         return userRepository.findById(id);
     }
+
+    // 指定したidを持つユーザーの参照を取得する（データベースには問い合わせず、関連の設定や検索条件にのみ使用する）
+    public User getUserReference(Integer id) {
+        return userRepository.getReferenceById(id);
+    }
 }
@@ -0,0 +1,41 @@
+package com.example.samuraitravel.service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/*
+ * 有効期限が切れた認証用のトークンと、メール認証が済んでいない会員を定期的に削除するクラス
+ * 長時間ロックを保持しないよう、一定件数ごとに別々のトランザクションで削除し、間に短い休止を挟む
+ */
+@Component
+public class VerificationTokenPurgeJob {
+    private static final int CHUNK_SIZE = 500;
+    private static final long PAUSE_MILLIS = 100;
+
+    private final VerificationTokenService verificationTokenService;
+
+    public VerificationTokenPurgeJob(VerificationTokenService verificationTokenService) {
+        this.verificationTokenService = verificationTokenService;
+    }
+
+    // 1時間ごとに期限切れのトークンを削除し、ブルームフィルターを作り直す
+    @Scheduled(cron = "0 15 * * * *")
+    public void purge() throws InterruptedException {
+        int purged = 0;
+        int deleted;
+
+        do {
+            deleted = verificationTokenService.purgeExpiredTokens(CHUNK_SIZE);
+            purged += deleted;
+
+            if (deleted == CHUNK_SIZE) {
+                Thread.sleep(PAUSE_MILLIS);
+            }
+        } while (deleted == CHUNK_SIZE);
+
+        if (purged > 0) {
+            System.out.println("有効期限が切れた認証用のトークンを" + purged + "件削除しました。");
+            verificationTokenService.rebuildTokenFilter();
+        }
+    }
+}
@@ -1,18 +1,51 @@
 package com.example.samuraitravel.service;
 
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.example.samuraitravel.entity.User;
 import com.example.samuraitravel.entity.VerificationToken;
+import com.example.samuraitravel.repository.UserRepository;
 import com.example.samuraitravel.repository.VerificationTokenRepository;
 
 @Service
 public class VerificationTokenService {
+    // トークンの有効期限
+    public static final Duration TOKEN_TTL = Duration.ofHours(24);
+
+    // ブルームフィルターの誤判定率と、作成時に見込む最小のトークン数
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MIN_EXPECTED_TOKENS = 10000;
+
+    // ブルームフィルターを作り直す際に、1回のクエリで読み込むトークンの件数
+    private static final int REBUILD_PAGE_SIZE = 5000;
+
+    // トークンの形式（UUIDの文字列表現）
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
     private final VerificationTokenRepository verificationTokenRepository;
+    private final UserRepository userRepository;
 
-    public VerificationTokenService(VerificationTokenRepository verificationTokenRepository) {
+    // このサーバーで発行したトークンと、起動時・削除後に読み込んだ有効なトークンを登録したブルームフィルター
+    private volatile TokenBloomFilter tokenFilter = new TokenBloomFilter(MIN_EXPECTED_TOKENS, FALSE_POSITIVE_RATE);
+
+    // 作り直し中のブルームフィルター（作り直している間に作成されたトークンは、両方のフィルターに登録する）
+    private volatile TokenBloomFilter rebuildingFilter;
+
+    public VerificationTokenService(VerificationTokenRepository verificationTokenRepository, UserRepository userRepository) {
         this.verificationTokenRepository = verificationTokenRepository;
+        this.userRepository = userRepository;
     }
 
     @Transactional
@@ -21,13 +54,105 @@ public class VerificationTokenService {
 
         verificationToken.setUser(user);
         verificationToken.setToken(token);
+        verificationToken.setExpiresAt(Timestamp.from(Instant.now().plus(TOKEN_TTL)));
 
         verificationTokenRepository.save(verificationToken);
+        addToFilterAfterCommit(token);
     }
 
-    // トークンの文字列で検索した結果を返す
+    // トークンの文字列で検索した結果を返す（存在しない場合や有効期限が切れている場合はnullを返す）
+    // 形式が正しくないトークン（途中で切れたリンクなど）は、データベースに問い合わせずに無効と判定する
+    // ブルームフィルターに含まれないトークンも、他のサーバーで発行された可能性があるためデータベースで確認し、有効であればフィルターに登録する
     public VerificationToken getVerificationToken(String token) {
-        return verificationTokenRepository.findByToken(token);
+        if (token == null || !TOKEN_PATTERN.matcher(token).matches()) {
+            return null;
+        }
+
+        boolean filtered = tokenFilter.mightContain(token);
+        VerificationToken verificationToken = verificationTokenRepository.findByToken(token);
+
+        if (verificationToken == null || !verificationToken.getExpiresAt().toInstant().isAfter(Instant.now())) {
+            return null;
+        }
+
+        if (!filtered) {
+            addToFilter(token);
+        }
+
+        return verificationToken;
     }
-}
 
+    // 有効期限が切れたトークンを指定件数まで削除する（メール認証が済んでいない会員も併せて削除する）
+    // 長時間ロックを保持しないよう、呼び出し元で件数を区切って繰り返し呼び出す
+    @Transactional
+    public int purgeExpiredTokens(int limit) {
+        List<Integer> ids = verificationTokenRepository.findExpiredIds(Timestamp.from(Instant.now()), PageRequest.of(0, limit));
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        List<Integer> unverifiedUserIds = verificationTokenRepository.findUnverifiedUserIds(ids);
+        verificationTokenRepository.deleteByIdIn(ids);
+
+        if (!unverifiedUserIds.isEmpty()) {
+            userRepository.deleteUnverifiedByIdIn(unverifiedUserIds);
+        }
+
+        return ids.size();
+    }
+
+    // 有効なトークンからブルームフィルターを作り直す（起動時と、期限切れのトークンを削除した後に実行する）
+    // 作り直し中のフィルターを公開してから読み込みを始め、各ページを別々のクエリで取得するため、途中でコミットされたトークンも漏れない
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void rebuildTokenFilter() {
+        Timestamp now = Timestamp.from(Instant.now());
+        long activeTokens = verificationTokenRepository.countByExpiresAtAfter(now);
+        int expectedTokens = (int) Math.min(Math.max(activeTokens * 2, MIN_EXPECTED_TOKENS), Integer.MAX_VALUE);
+
+        TokenBloomFilter nextFilter = new TokenBloomFilter(expectedTokens, FALSE_POSITIVE_RATE);
+        rebuildingFilter = nextFilter;
+
+        String afterToken = "";
+        List<String> tokens;
+
+        do {
+            tokens = verificationTokenRepository.findActiveTokensAfter(afterToken, now, PageRequest.of(0, REBUILD_PAGE_SIZE));
+            tokens.forEach(nextFilter::add);
+
+            if (!tokens.isEmpty()) {
+                afterToken = tokens.get(tokens.size() - 1);
+            }
+        } while (tokens.size() == REBUILD_PAGE_SIZE);
+
+        tokenFilter = nextFilter;
+        rebuildingFilter = null;
+    }
+
+    // トランザクションがコミットされた後にトークンをブルームフィルターに登録する
+    private void addToFilterAfterCommit(String token) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            addToFilter(token);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                addToFilter(token);
+            }
+        });
+    }
+
+    // 作り直し中のフィルターに先に登録してから、現在のフィルターに登録する
+    // （作り直しはtokenFilterを置き換えてからrebuildingFilterを外すため、rebuildingFilterがnullならtokenFilterはすでに新しいフィルターになっている）
+    private void addToFilter(String token) {
+        TokenBloomFilter nextFilter = rebuildingFilter;
+
+        if (nextFilter != null) {
+            nextFilter.add(token);
+        }
+
+        tokenFilter.add(token);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/*
+ * 処理済み（DONE）のWebhookのイベントを、保持期間（webhook.inbox.retention）の経過後に定期的に削除するクラス
+ * 処理に失敗した（DEAD）イベントは、原因の調査と手作業での再処理のために削除しない
+ * 長時間ロックを保持しないよう、一定件数ごとに別々のトランザクションで削除し、間に短い休止を挟む
+ */
+@Component
+public class WebhookInboxPurgeJob {
+    private static final int CHUNK_SIZE = 500;
+    private static final long PAUSE_MILLIS = 100;
+
+    private final WebhookInboxService webhookInboxService;
+    private final Duration retention;
+
+    public WebhookInboxPurgeJob(WebhookInboxService webhookInboxService,
+            @Value("${webhook.inbox.retention:30d}") Duration retention) {
+        this.webhookInboxService = webhookInboxService;
+        this.retention = retention;
+    }
+
+    // 毎日午前3時45分に、保持期間を過ぎた処理済みのイベントを削除する
+    @Scheduled(cron = "0 45 3 * * *")
+    public void purge() throws InterruptedException {
+        Instant doneBefore = Instant.now().minus(retention);
+        int purged = 0;
+        int deleted;
+
+        do {
+            deleted = webhookInboxService.purgeDone(doneBefore, CHUNK_SIZE);
+            purged += deleted;
+
+            if (deleted == CHUNK_SIZE) {
+                Thread.sleep(PAUSE_MILLIS);
+            }
+        } while (deleted == CHUNK_SIZE);
+
+        if (purged > 0) {
+            System.out.println("保持期間を過ぎた処理済みのWebhookのイベントを" + purged + "件削除しました。");
+        }
+    }
+}
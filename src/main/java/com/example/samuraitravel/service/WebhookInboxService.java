@@ -0,0 +1,99 @@
+package com.example.samuraitravel.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.samuraitravel.entity.WebhookInboxEvent;
+import com.example.samuraitravel.repository.WebhookInboxEventRepository;
+
+@Service
+public class WebhookInboxService {
+    // エラーメッセージの最大文字数（last_errorカラムの長さ）
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    // 重複判定のためにメモリ上に保持する、最近受け付けたイベントのidの件数
+    private static final int RECENT_EVENT_CAPACITY = 10000;
+
+    private final RecentKeyFilter recentEventIds = new RecentKeyFilter(RECENT_EVENT_CAPACITY);
+
+    private final WebhookInboxEventRepository webhookInboxEventRepository;
+
+    public WebhookInboxService(WebhookInboxEventRepository webhookInboxEventRepository) {
+        this.webhookInboxEventRepository = webhookInboxEventRepository;
+    }
+
+    // 署名を検証したイベントを保存する（同じイベントがすでに保存されている場合はfalseを返す）
+    // 最近受け付けたイベントの再送は、データベースに書き込まずに重複と判定する
+    @Transactional
+    public boolean enqueue(String eventId, String eventType, String payload) {
+        if (recentEventIds.contains(eventId)) {
+            return false;
+        }
+
+        boolean inserted = webhookInboxEventRepository.insertIgnore(eventId, eventType, payload, Timestamp.from(Instant.now())) > 0;
+        recentEventIds.addAfterCommit(eventId);
+
+        return inserted;
+    }
+
+    // 処理を開始できるイベントのidを指定件数まで取得する
+    public List<Integer> findDueIds(int limit) {
+        return webhookInboxEventRepository.findDueIds(Timestamp.from(Instant.now()), PageRequest.of(0, limit));
+    }
+
+    // イベントを処理中にする（他のワーカーが先に取得した場合はfalseを返す）
+    @Transactional
+    public boolean claim(Integer id) {
+        return webhookInboxEventRepository.claim(id, Timestamp.from(Instant.now())) > 0;
+    }
+
+    public Optional<WebhookInboxEvent> findById(Integer id) {
+        return webhookInboxEventRepository.findById(id);
+    }
+
+    @Transactional
+    public void markDone(Integer id) {
+        webhookInboxEventRepository.markDone(id);
+    }
+
+    @Transactional
+    public void markRetry(Integer id, Instant nextAttemptAt, String lastError) {
+        webhookInboxEventRepository.markRetry(id, Timestamp.from(nextAttemptAt), truncate(lastError));
+    }
+
+    @Transactional
+    public void markDead(Integer id, String lastError) {
+        webhookInboxEventRepository.markDead(id, truncate(lastError));
+    }
+
+    // 指定した時刻より前から処理中のままのイベントを未処理に戻す
+    @Transactional
+    public int releaseStale(Instant lockedBefore) {
+        return webhookInboxEventRepository.releaseStale(Timestamp.from(lockedBefore));
+    }
+
+    // 指定した日時より前に処理済みになったイベントを、指定件数まで削除する
+    @Transactional
+    public int purgeDone(Instant doneBefore, int limit) {
+        return webhookInboxEventRepository.deleteDone(Timestamp.from(doneBefore), limit);
+    }
+
+    // 未処理・再試行待ちのイベントの件数を取得する
+    public long countPending() {
+        return webhookInboxEventRepository.countByStatus(WebhookInboxEvent.PENDING);
+    }
+
+    private static String truncate(String message) {
+        if (message == null || message.length() <= MAX_ERROR_LENGTH) {
+            return message;
+        }
+
+        return message.substring(0, MAX_ERROR_LENGTH);
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.samuraitravel.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.samuraitravel.entity.WebhookInboxEvent;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Event;
+import com.stripe.net.ApiResource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+
+/*
+ * webhook_inboxテーブルに保存したStripeのイベントを、仮想スレッドで並行して処理するクラス
+ * 同時に処理するイベントの数はセマフォで制限し、失敗したイベントは指数バックオフ（ジッター付き）で再試行する
+ * 再試行の上限に達したイベントと、再試行しても成功しないエラーのイベントはDEAD（デッドレター）にする
+ */
+@Component
+public class WebhookInboxWorker {
+    private static final Logger log = LoggerFactory.getLogger(WebhookInboxWorker.class);
+
+    public static final String CHECKOUT_SESSION_COMPLETED = "checkout.session.completed";
+
+    private static final int MAX_ATTEMPTS = 8;
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(5);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(10);
+
+    // この時間を過ぎても処理中のままのイベントは、ワーカーが停止したとみなして未処理に戻す
+    private static final Duration STALE_LOCK = Duration.ofMinutes(5);
+
+    private final WebhookInboxService webhookInboxService;
+    private final StripeService stripeService;
+
+    private final ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+    private final AtomicLong pendingCount = new AtomicLong();
+
+    private final Counter succeededCounter;
+    private final Counter retriedCounter;
+    private final Counter deadCounter;
+    private final Timer processingTimer;
+
+    public WebhookInboxWorker(WebhookInboxService webhookInboxService, StripeService stripeService, MeterRegistry meterRegistry,
+            @Value("${webhook.inbox.concurrency:8}") int concurrency) {
+        this.webhookInboxService = webhookInboxService;
+        this.stripeService = stripeService;
+        this.permits = new Semaphore(concurrency);
+
+        this.succeededCounter = meterRegistry.counter("webhook.inbox.events", "outcome", "succeeded");
+        this.retriedCounter = meterRegistry.counter("webhook.inbox.events", "outcome", "retried");
+        this.deadCounter = meterRegistry.counter("webhook.inbox.events", "outcome", "dead");
+        this.processingTimer = Timer.builder("webhook.inbox.processing").register(meterRegistry);
+
+        Gauge.builder("webhook.inbox.pending", pendingCount, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("webhook.inbox.in_flight", permits, semaphore -> concurrency - semaphore.availablePermits())
+                .register(meterRegistry);
+    }
+
+    // 処理を開始できるイベントを空いているワーカーの数だけ取得し、仮想スレッドで処理する
+    @Scheduled(fixedDelay = 500)
+    public void poll() {
+        pendingCount.set(webhookInboxService.countPending());
+
+        int available = permits.availablePermits();
+
+        if (available == 0) {
+            return;
+        }
+
+        List<Integer> ids = webhookInboxService.findDueIds(available);
+
+        for (Integer id : ids) {
+            if (!permits.tryAcquire()) {
+                break;
+            }
+
+            if (!webhookInboxService.claim(id)) {
+                permits.release();
+                continue;
+            }
+
+            executorService.submit(() -> {
+                try {
+                    process(id);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    // 処理中のままワーカーが停止したイベントを1分ごとに未処理に戻す
+    @Scheduled(fixedDelay = 60000)
+    public void releaseStale() {
+        webhookInboxService.releaseStale(Instant.now().minus(STALE_LOCK));
+    }
+
+    private void process(Integer id) {
+        Optional<WebhookInboxEvent> optionalInboxEvent = webhookInboxService.findById(id);
+
+        if (optionalInboxEvent.isEmpty()) {
+            return;
+        }
+
+        WebhookInboxEvent inboxEvent = optionalInboxEvent.get();
+        Timer.Sample sample = Timer.start();
+
+        try {
+            // 保存したJSONからイベントを復元する（署名は保存時に検証済み）
+            Event event = ApiResource.GSON.fromJson(inboxEvent.getPayload(), Event.class);
+
+            if (CHECKOUT_SESSION_COMPLETED.equals(event.getType())) {
+                stripeService.processSessionCompleted(event);
+            }
+
+            webhookInboxService.markDone(id);
+            succeededCounter.increment();
+        } catch (Exception e) {
+            String lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+
+            if (!isRetryable(e) || inboxEvent.getAttempts() >= MAX_ATTEMPTS) {
+                webhookInboxService.markDead(id, lastError);
+                deadCounter.increment();
+                log.warn("Webhookイベントの処理を中止しました（{}、{}回目）。", inboxEvent.getEventId(), inboxEvent.getAttempts(), e);
+            } else {
+                webhookInboxService.markRetry(id, Instant.now().plus(backoff(inboxEvent.getAttempts())), lastError);
+                retriedCounter.increment();
+                log.warn("Webhookイベントの処理に失敗したため再試行します（{}、{}回目）。", inboxEvent.getEventId(), inboxEvent.getAttempts(), e);
+            }
+        } finally {
+            sample.stop(processingTimer);
+        }
+    }
+
+    // 通信エラーやStripe側・データベース側の一時的なエラーのみ再試行する
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof StripeException) {
+            return e instanceof ApiConnectionException || e instanceof RateLimitException || e instanceof ApiException;
+        }
+
+        return !(e instanceof IllegalStateException || e instanceof EntityNotFoundException
+                || e instanceof IllegalArgumentException || e instanceof ClassCastException);
+    }
+
+    // 試行回数に応じて待ち時間を倍にし（上限あり）、再試行が集中しないように±20%のジッターを加える
+    private static Duration backoff(int attempts) {
+        long baseMillis = BASE_BACKOFF.toMillis() << Math.min(attempts - 1, 16);
+        long millis = Math.min(baseMillis, MAX_BACKOFF.toMillis());
+        double jitter = 0.8 + ThreadLocalRandom.current().nextDouble() * 0.4;
+
+        return Duration.ofMillis((long) (millis * jitter));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executorService.shutdown();
+        executorService.awaitTermination(30, TimeUnit.SECONDS);
+    }
+}
@@ -137,3 +137,13 @@ INSERT IGNORE INTO faqs (id, question, answer) VALUES (17, '予約一覧はど
 INSERT IGNORE INTO faqs (id, question, answer) VALUES (18, '会員情報はどのように表示されますか？', '氏名、フリガナ、郵便番号、住所、電話番号、メールアドレスが表示されます。');
 INSERT IGNORE INTO faqs (id, question, answer) VALUES (19, '会員情報を編集するにはどうすれば良いですか？', '会員詳細ページの「編集」リンクから編集ページに遷移できます。');
 INSERT IGNORE INTO faqs (id, question, answer) VALUES (20, '会員情報を変更した後、どこに遷移しますか？', '編集完了後、会員詳細ページに遷移します。');
+
+/* house_statsテーブル（集計行がない民宿のみ、予約テーブルから集計して作成する） */
+INSERT IGNORE INTO house_stats (house_id, reservation_count) SELECT h.id, COUNT(r.id) FROM houses h LEFT JOIN reservations r ON r.house_id = h.id GROUP BY h.id;
+
+/* house_statsテーブルのお気に入り数（お気に入り数が未設定でお気に入りのある民宿のみ、お気に入りテーブルから集計する） */
+UPDATE house_stats s JOIN (SELECT house_id, COUNT(*) AS favorite_count FROM favorites GROUP BY house_id) f ON f.house_id = s.house_id SET s.favorite_count = f.favorite_count WHERE s.favorite_count = 0;
+
+/* housesテーブルのレビューの集計値（1回だけ、レビューテーブルから集計する。以降はReviewServiceとReviewAggregateRepairJobが更新する） */
+UPDATE houses h JOIN (SELECT house_id, COUNT(*) AS review_count, SUM(score) AS score_sum, SUM(score = 1) AS score_1_count, SUM(score = 2) AS score_2_count, SUM(score = 3) AS score_3_count, SUM(score = 4) AS score_4_count, SUM(score = 5) AS score_5_count FROM reviews GROUP BY house_id) r ON r.house_id = h.id SET h.review_count = r.review_count, h.score_sum = r.score_sum, h.score_1_count = r.score_1_count, h.score_2_count = r.score_2_count, h.score_3_count = r.score_3_count, h.score_4_count = r.score_4_count, h.score_5_count = r.score_5_count, h.updated_at = h.updated_at WHERE NOT EXISTS (SELECT 1 FROM schema_migrations m WHERE m.version = 'houses_review_aggregates');
+INSERT IGNORE INTO schema_migrations (version) VALUES ('houses_review_aggregates');
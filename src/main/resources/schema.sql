@@ -22,9 +22,11 @@ CREATE TABLE IF NOT EXISTS users (
 CREATE TABLE IF NOT EXISTS verification_tokens (
     id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
     user_id INT NOT NULL UNIQUE,
-    token VARCHAR(255) NOT NULL,
+    token VARCHAR(255) NOT NULL UNIQUE,
+    expires_at DATETIME NOT NULL,
     created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX idx_verification_tokens_expires_at (expires_at),
     FOREIGN KEY (user_id) REFERENCES users (id)
 );
 
@@ -32,14 +34,27 @@ CREATE TABLE IF NOT EXISTS houses (
     id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
     name VARCHAR(50) NOT NULL,
     image_name VARCHAR(255),
+    image_variants VARCHAR(50),
     description VARCHAR(255) NOT NULL,
     price INT NOT NULL,
     capacity INT NOT NULL,
     postal_code VARCHAR(50) NOT NULL,
     address VARCHAR(255) NOT NULL,
     phone_number VARCHAR(50) NOT NULL,
+    review_count INT NOT NULL DEFAULT 0,
+    score_sum INT NOT NULL DEFAULT 0,
+    score_1_count INT NOT NULL DEFAULT 0,
+    score_2_count INT NOT NULL DEFAULT 0,
+    score_3_count INT NOT NULL DEFAULT 0,
+    score_4_count INT NOT NULL DEFAULT 0,
+    score_5_count INT NOT NULL DEFAULT 0,
+    average_score DECIMAL(3, 2) AS (IF(review_count = 0, 0, score_sum / review_count)) STORED,
     created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
-    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX idx_houses_created_at (created_at, id),
+    INDEX idx_houses_average_score (average_score, id),
+    INDEX idx_houses_price (price, id),
+    INDEX idx_houses_capacity (capacity)
 );
 
 CREATE TABLE IF NOT EXISTS reservations (
@@ -50,8 +65,42 @@ CREATE TABLE IF NOT EXISTS reservations (
     checkout_date DATE NOT NULL,
     number_of_people INT NOT NULL,
     amount INT NOT NULL,
+    payment_intent_id VARCHAR(255) UNIQUE,
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX idx_reservations_house_id_checkin_date (house_id, checkin_date, checkout_date),
+    INDEX idx_reservations_checkout_date (checkout_date),
+    FOREIGN KEY (house_id) REFERENCES houses (id),
+    FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+CREATE TABLE IF NOT EXISTS reservation_drafts (
+    id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    session_id VARCHAR(255) NOT NULL UNIQUE,
+    house_id INT NOT NULL,
+    user_id INT NOT NULL,
+    checkin_date DATE NOT NULL,
+    checkout_date DATE NOT NULL,
+    number_of_people INT NOT NULL,
+    amount INT NOT NULL,
+    hold_id VARCHAR(255),
     created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX idx_reservation_drafts_created_at (created_at),
+    FOREIGN KEY (house_id) REFERENCES houses (id),
+    FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+CREATE TABLE IF NOT EXISTS reservation_holds (
+    id VARCHAR(36) NOT NULL PRIMARY KEY,
+    house_id INT NOT NULL,
+    user_id INT NOT NULL,
+    checkin_date DATE NOT NULL,
+    checkout_date DATE NOT NULL,
+    expires_at DATETIME NOT NULL,
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_reservation_holds_house_id_expires_at (house_id, expires_at),
+    INDEX idx_reservation_holds_expires_at (expires_at),
     FOREIGN KEY (house_id) REFERENCES houses (id),
     FOREIGN KEY (user_id) REFERENCES users (id)
 );
@@ -81,10 +130,193 @@ CREATE TABLE IF NOT EXISTS favorites (
 );
 
 
+CREATE TABLE IF NOT EXISTS house_stats (
+    house_id INT NOT NULL PRIMARY KEY,
+    reservation_count INT NOT NULL DEFAULT 0,
+    favorite_count INT NOT NULL DEFAULT 0,
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX idx_house_stats_reservation_count (reservation_count, house_id),
+    INDEX idx_house_stats_favorite_count (favorite_count, house_id),
+    FOREIGN KEY (house_id) REFERENCES houses (id)
+);
+
+
+CREATE TABLE IF NOT EXISTS webhook_inbox (
+    id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    event_id VARCHAR(255) NOT NULL UNIQUE,
+    event_type VARCHAR(255) NOT NULL,
+    payload MEDIUMTEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INT NOT NULL DEFAULT 0,
+    next_attempt_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    locked_at DATETIME,
+    last_error VARCHAR(1000),
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX idx_webhook_inbox_status_next_attempt_at (status, next_attempt_at)
+);
+
 CREATE TABLE IF NOT EXISTS faqs (
     id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
     question VARCHAR(255) NOT NULL,
     answer VARCHAR(255) NOT NULL,
     created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
-);
\ No newline at end of file
+);
+
+CREATE TABLE IF NOT EXISTS outbox (
+    id INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    sender VARCHAR(255) NOT NULL,
+    recipient VARCHAR(255) NOT NULL,
+    subject VARCHAR(255) NOT NULL,
+    body TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INT NOT NULL DEFAULT 0,
+    next_attempt_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    locked_at DATETIME,
+    lock_token VARCHAR(36),
+    last_error VARCHAR(1000),
+    created_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    INDEX idx_outbox_status_next_attempt_at (status, next_attempt_at),
+    INDEX idx_outbox_lock_token (lock_token)
+);
+
+CREATE TABLE IF NOT EXISTS SPRING_SESSION (
+    PRIMARY_ID CHAR(36) NOT NULL,
+    SESSION_ID CHAR(36) NOT NULL,
+    CREATION_TIME BIGINT NOT NULL,
+    LAST_ACCESS_TIME BIGINT NOT NULL,
+    MAX_INACTIVE_INTERVAL INT NOT NULL,
+    EXPIRY_TIME BIGINT NOT NULL,
+    PRINCIPAL_NAME VARCHAR(100),
+    CONSTRAINT SPRING_SESSION_PK PRIMARY KEY (PRIMARY_ID),
+    UNIQUE INDEX SPRING_SESSION_IX1 (SESSION_ID),
+    INDEX SPRING_SESSION_IX2 (EXPIRY_TIME),
+    INDEX SPRING_SESSION_IX3 (PRINCIPAL_NAME)
+) ENGINE=InnoDB ROW_FORMAT=DYNAMIC;
+
+CREATE TABLE IF NOT EXISTS SPRING_SESSION_ATTRIBUTES (
+    SESSION_PRIMARY_ID CHAR(36) NOT NULL,
+    ATTRIBUTE_NAME VARCHAR(200) NOT NULL,
+    ATTRIBUTE_BYTES BLOB NOT NULL,
+    CONSTRAINT SPRING_SESSION_ATTRIBUTES_PK PRIMARY KEY (SESSION_PRIMARY_ID, ATTRIBUTE_NAME),
+    CONSTRAINT SPRING_SESSION_ATTRIBUTES_FK FOREIGN KEY (SESSION_PRIMARY_ID) REFERENCES SPRING_SESSION(PRIMARY_ID) ON DELETE CASCADE
+) ENGINE=InnoDB ROW_FORMAT=DYNAMIC;
+
+/*
+ * 既存のデータベースの移行
+ * CREATE TABLE IF NOT EXISTSは既存のテーブルを変更しないため、後から追加した列とインデックスは、information_schemaで存在を確認してから追加する
+ * spring.sql.init.mode=alwaysで起動のたびに実行されるため、どの移行も2回目以降は何もしない（DO 0を実行する）
+ */
+
+/* 1回だけ実行するデータの移行（data.sqlの集計値の初期化など）の実行済みの記録 */
+CREATE TABLE IF NOT EXISTS schema_migrations (
+    version VARCHAR(100) NOT NULL PRIMARY KEY,
+    applied_at DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+/* housesテーブルのレビューの集計値の列（集計値はdata.sqlで1回だけ初期化する） */
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'houses' AND column_name = 'review_count') = 0,
+    'ALTER TABLE houses ADD COLUMN review_count INT NOT NULL DEFAULT 0 AFTER phone_number, ADD COLUMN score_sum INT NOT NULL DEFAULT 0 AFTER review_count, ADD COLUMN score_1_count INT NOT NULL DEFAULT 0 AFTER score_sum, ADD COLUMN score_2_count INT NOT NULL DEFAULT 0 AFTER score_1_count, ADD COLUMN score_3_count INT NOT NULL DEFAULT 0 AFTER score_2_count, ADD COLUMN score_4_count INT NOT NULL DEFAULT 0 AFTER score_3_count, ADD COLUMN score_5_count INT NOT NULL DEFAULT 0 AFTER score_4_count, ADD COLUMN average_score DECIMAL(3, 2) AS (IF(review_count = 0, 0, score_sum / review_count)) STORED AFTER score_5_count',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'houses' AND index_name = 'idx_houses_average_score') = 0,
+    'ALTER TABLE houses ADD INDEX idx_houses_average_score (average_score, id)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+/* verification_tokensテーブルの有効期限（既存のトークンは作成から24時間を有効期限にする）とトークンの一意制約 */
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'verification_tokens' AND column_name = 'expires_at') = 0,
+    'ALTER TABLE verification_tokens ADD COLUMN expires_at DATETIME AFTER token',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'verification_tokens' AND column_name = 'expires_at' AND is_nullable = 'YES') = 1,
+    'UPDATE verification_tokens SET expires_at = created_at + INTERVAL 24 HOUR, updated_at = updated_at WHERE expires_at IS NULL',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'verification_tokens' AND column_name = 'expires_at' AND is_nullable = 'YES') = 1,
+    'ALTER TABLE verification_tokens MODIFY COLUMN expires_at DATETIME NOT NULL',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'verification_tokens' AND index_name = 'idx_verification_tokens_expires_at') = 0,
+    'ALTER TABLE verification_tokens ADD INDEX idx_verification_tokens_expires_at (expires_at)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'verification_tokens' AND column_name = 'token' AND seq_in_index = 1 AND non_unique = 0) = 0,
+    'ALTER TABLE verification_tokens ADD UNIQUE INDEX token (token)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+/* reservationsテーブルの決済のid（既存の予約はNULLのままにする。一意制約はNULLの重複を許す） */
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'reservations' AND column_name = 'payment_intent_id') = 0,
+    'ALTER TABLE reservations ADD COLUMN payment_intent_id VARCHAR(255) AFTER amount, ADD UNIQUE INDEX payment_intent_id (payment_intent_id)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+/* housesテーブルの並べ替えと絞り込み用のインデックス */
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'houses' AND index_name = 'idx_houses_created_at') = 0,
+    'ALTER TABLE houses ADD INDEX idx_houses_created_at (created_at, id)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'houses' AND index_name = 'idx_houses_price') = 0,
+    'ALTER TABLE houses ADD INDEX idx_houses_price (price, id)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'houses' AND index_name = 'idx_houses_capacity') = 0,
+    'ALTER TABLE houses ADD INDEX idx_houses_capacity (capacity)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+/* reservationsテーブルの空室判定用のインデックス */
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'reservations' AND index_name = 'idx_reservations_house_id_checkin_date') = 0,
+    'ALTER TABLE reservations ADD INDEX idx_reservations_house_id_checkin_date (house_id, checkin_date, checkout_date)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = 'reservations' AND index_name = 'idx_reservations_checkout_date') = 0,
+    'ALTER TABLE reservations ADD INDEX idx_reservations_checkout_date (checkout_date)',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
+
+/* housesテーブルの縮小画像の幅（既存の民宿はNULLのままにし、HouseImageProcessorが作成する） */
+SET @migration = IF((SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'houses' AND column_name = 'image_variants') = 0,
+    'ALTER TABLE houses ADD COLUMN image_variants VARCHAR(50) AFTER image_name',
+    'DO 0');
+PREPARE migration FROM @migration;
+EXECUTE migration;
+DEALLOCATE PREPARE migration;
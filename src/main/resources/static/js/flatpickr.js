@@ -1,11 +1,31 @@
 let maxDate = new Date();
 maxDate = maxDate.setMonth(maxDate.getMonth() + 3);
 
-flatpickr('#fromCheckinDateToCheckoutDate', {
+const dateInput = document.querySelector('#fromCheckinDateToCheckoutDate');
+
+// 予約済みの夜の範囲（fromとtoはどちらも宿泊日）
+let bookedRanges = [];
+
+// 予約済みの夜かどうか
+function isBookedNight(date) {
+  return bookedRanges.some(range => range.from <= date && date <= range.to);
+}
+
+// チェックイン日からチェックアウト日の前日までの夜に、予約済みの夜が含まれるかどうか
+function overlapsBookedNights(checkinDate, checkoutDate) {
+  return bookedRanges.some(range => range.from < checkoutDate && checkinDate <= range.to);
+}
+
+const picker = flatpickr('#fromCheckinDateToCheckoutDate', {
   mode: "range",
   locale: 'ja',
   minDate: 'today',
   maxDate: maxDate,
+  onChange: function(selectedDates, dateStr, instance) { // 1日目を選択したときに、選択できる日付を選び直す
+    if (bookedRanges.length > 0) {
+      instance.redraw();
+    }
+  },
   onClose: function(selectedDates, dateStr, instance) {　// カレンダーを閉じたときの処理
     const dates = dateStr.split(" から ");
     if (dates.length === 2) {
@@ -18,3 +38,37 @@ flatpickr('#fromCheckinDateToCheckoutDate', {
     }
   }
 });
+
+// 予約済みの日付を取得し、カレンダーで選択できないようにする（ブラウザはETagで再検証する）
+// 予約済みの夜はチェックイン日や宿泊する夜には選べないが、前の宿泊のチェックアウト日としては選べるようにする
+if (dateInput && dateInput.dataset.availabilityUrl) {
+  fetch(dateInput.dataset.availabilityUrl, { headers: { 'Accept': 'application/json' } })
+    .then(response => response.ok ? response.json() : null)
+    .then(availability => {
+      if (availability && availability.booked.length > 0) {
+        bookedRanges = availability.booked.map(range => ({
+          from: flatpickr.parseDate(range.from, 'Y-m-d'),
+          to: flatpickr.parseDate(range.to, 'Y-m-d')
+        }));
+
+        picker.set('disable', [function(date) {
+          // 1日目を選択する前は、予約済みの夜を選べないようにする
+          if (picker.selectedDates.length !== 1) {
+            return isBookedNight(date);
+          }
+
+          // 1日目を選択した後は、宿泊する夜（チェックイン日からチェックアウト日の前日まで）に予約済みの夜が含まれる日付を選べないようにする
+          const selectedDate = picker.selectedDates[0];
+
+          if (date.getTime() === selectedDate.getTime()) {
+            return false;
+          }
+
+          return date < selectedDate ? overlapsBookedNights(date, selectedDate) : overlapsBookedNights(selectedDate, date);
+        }]);
+      }
+    })
+    .catch(() => {
+      // 取得できない場合は、予約フォームの送信時にサーバー側で確認する
+    });
+}
@@ -0,0 +1,61 @@
+package com.example.samuraitravel.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/*
+ * BCryptのコスト（strength）ごとに、ログイン時の照合（matches）1回にかかる時間を計測するベンチマーク
+ * security.password.bcrypt-strengthを決める根拠として使用する（コストを1上げるごとに時間はおよそ2倍になる）
+ * 通常のテストでは実行せず、mvn test -Pbenchmark のように実行する
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordEncoderBenchmark {
+    private static final String RAW_PASSWORD = "password";
+
+    @Param({ "8", "9", "10", "11", "12" })
+    private int strength;
+
+    private BCryptPasswordEncoder bcryptPasswordEncoder;
+    private String encodedPassword;
+
+    @Setup
+    public void setUp() {
+        bcryptPasswordEncoder = new BCryptPasswordEncoder(strength);
+        encodedPassword = bcryptPasswordEncoder.encode(RAW_PASSWORD);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return bcryptPasswordEncoder.matches(RAW_PASSWORD, encodedPassword);
+    }
+
+    @Test
+    @Tag("benchmark")
+    public void run() throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PasswordEncoderBenchmark.class.getName())
+                .build())
+                .run();
+    }
+}
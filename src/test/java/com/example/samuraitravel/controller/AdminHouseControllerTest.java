@@ -5,11 +5,17 @@ import static org.springframework.security.test.web.servlet.request.SecurityMock
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
 
+import javax.imageio.ImageIO;
+
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -17,23 +23,31 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.service.HouseImageProcessor;
 import com.example.samuraitravel.service.HouseService;
 
 @SpringBootTest
 @AutoConfigureMockMvc
 @ActiveProfiles("test")
+@TestPropertySource(properties = { "image.variants.enabled=true", "image.variants.max-pixels=" + AdminHouseControllerTest.MAX_PIXELS })
 public class AdminHouseControllerTest {
+    static final long MAX_PIXELS = 4000000;
+
     @Autowired
     private MockMvc mockMvc;
 
     @Autowired
     private HouseService houseService;
 
+    @Autowired
+    private HouseImageProcessor houseImageProcessor;
+
     @Test
     public void 未ログインの場合は管理者用の民宿一覧ページからログインページにリダイレクトする() throws Exception {
         mockMvc.perform(get("/admin/houses"))
@@ -400,4 +414,178 @@ public class AdminHouseControllerTest {
         Optional<House> optionalHouse = houseService.findHouseById(1);
         assertThat(optionalHouse).isEmpty();
     }
+
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void 一般ユーザーとしてログイン済みの場合は予約数を再集計せずに403エラーが発生する() throws Exception {
+        mockMvc.perform(post("/admin/houses/stats/rebuild").with(csrf()))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    @WithUserDetails("hanako.samurai@example.com")
+    @Transactional
+    public void 管理者としてログイン済みの場合は予約数の再集計後に民宿一覧ページにリダイレクトする() throws Exception {
+        mockMvc.perform(post("/admin/houses/stats/rebuild").with(csrf()))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/admin/houses"));
+    }
+
+    @Test
+    @WithUserDetails("hanako.samurai@example.com")
+    public void 民宿の画像を登録するとバックグラウンドで表示サイズごとの縮小画像が作成される() throws Exception {
+        MockMultipartFile imageFile = new MockMultipartFile("imageFile", "large.png", "image/png", createPng(2400, 1600));
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/admin/houses/create").file(imageFile)
+                .with(csrf())
+                .param("name", "テスト民宿名")
+                .param("description", "テスト説明")
+                .param("price", "5000")
+                .param("capacity", "5")
+                .param("postalCode", "000-0000")
+                .param("address", "テスト住所")
+                .param("phoneNumber", "000-000-000"))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/admin/houses"));
+
+        House house = houseService.findFirstHouseByOrderByIdDesc();
+
+        for (int i = 0; i < 100 && house.getImageVariants() == null; i++) {
+            Thread.sleep(100);
+            house = houseService.findHouseById(house.getId()).orElseThrow();
+        }
+
+        try {
+            assertThat(house.getImageVariantWidths()).containsExactly(480, 960, 1920);
+            assertThat(house.getImageFileName(480)).endsWith("-480w.jpg");
+            assertThat(house.getImageSrcset()).contains("-480w.jpg 480w", "-960w.jpg 960w", "-1920w.jpg 1920w");
+
+            assertThat(house.getImageFileName(480)).startsWith(House.IMAGE_VARIANT_PATH);
+
+            BufferedImage card = ImageIO.read(houseImageProcessor.getVariantDirectory()
+                    .resolve(House.toImageVariantName(house.getImageName(), 480)).toFile());
+            assertThat(card.getWidth()).isEqualTo(480);
+            assertThat(card.getHeight()).isEqualTo(320);
+        } finally {
+            for (Integer width : house.getImageVariantWidths()) {
+                Files.deleteIfExists(houseImageProcessor.getVariantDirectory().resolve(House.toImageVariantName(house.getImageName(), width)));
+            }
+
+            Files.deleteIfExists(HouseService.STORAGE_DIRECTORY.resolve(house.getImageName()));
+            houseService.deleteHouse(house);
+        }
+    }
+
+    @Test
+    @WithUserDetails("hanako.samurai@example.com")
+    public void 起動時に縮小画像のファイルが失われている場合は作成し直す() throws Exception {
+        MockMultipartFile imageFile = new MockMultipartFile("imageFile", "restart.png", "image/png", createPng(1200, 800));
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/admin/houses/create").file(imageFile)
+                .with(csrf())
+                .param("name", "テスト民宿名")
+                .param("description", "テスト説明")
+                .param("price", "5000")
+                .param("capacity", "5")
+                .param("postalCode", "000-0000")
+                .param("address", "テスト住所")
+                .param("phoneNumber", "000-000-000"))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/admin/houses"));
+
+        House house = houseService.findFirstHouseByOrderByIdDesc();
+
+        for (int i = 0; i < 100 && house.getImageVariants() == null; i++) {
+            Thread.sleep(100);
+            house = houseService.findHouseById(house.getId()).orElseThrow();
+        }
+
+        Path cardPath = houseImageProcessor.getVariantDirectory().resolve(House.toImageVariantName(house.getImageName(), 480));
+
+        try {
+            assertThat(house.getImageVariantWidths()).containsExactly(480, 960, 1200);
+
+            // 再起動でディレクトリが消えた状態にする
+            for (Integer width : house.getImageVariantWidths()) {
+                Files.deleteIfExists(houseImageProcessor.getVariantDirectory().resolve(House.toImageVariantName(house.getImageName(), width)));
+            }
+
+            houseImageProcessor.verifyAndSubmitPending();
+
+            for (int i = 0; i < 100 && !Files.exists(cardPath); i++) {
+                Thread.sleep(100);
+            }
+
+            house = houseService.findHouseById(house.getId()).orElseThrow();
+
+            for (int i = 0; i < 100 && house.getImageVariants() == null; i++) {
+                Thread.sleep(100);
+                house = houseService.findHouseById(house.getId()).orElseThrow();
+            }
+
+            assertThat(cardPath).exists();
+            assertThat(house.getImageVariantWidths()).containsExactly(480, 960, 1200);
+        } finally {
+            for (Integer width : house.getImageVariantWidths()) {
+                Files.deleteIfExists(houseImageProcessor.getVariantDirectory().resolve(House.toImageVariantName(house.getImageName(), width)));
+            }
+
+            Files.deleteIfExists(HouseService.STORAGE_DIRECTORY.resolve(house.getImageName()));
+            houseService.deleteHouse(house);
+        }
+    }
+
+    @Test
+    @WithUserDetails("hanako.samurai@example.com")
+    public void 画素数が上限を超える画像は縮小画像を作成せずに作成失敗として記録する() throws Exception {
+        // 2500x2000（500万画素）は上限（MAX_PIXELS）を超える
+        MockMultipartFile imageFile = new MockMultipartFile("imageFile", "huge.png", "image/png", createPng(2500, 2000));
+
+        mockMvc.perform(MockMvcRequestBuilders.multipart("/admin/houses/create").file(imageFile)
+                .with(csrf())
+                .param("name", "テスト民宿名")
+                .param("description", "テスト説明")
+                .param("price", "5000")
+                .param("capacity", "5")
+                .param("postalCode", "000-0000")
+                .param("address", "テスト住所")
+                .param("phoneNumber", "000-000-000"))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/admin/houses"));
+
+        House house = houseService.findFirstHouseByOrderByIdDesc();
+
+        for (int i = 0; i < 100 && house.getImageVariants() == null; i++) {
+            Thread.sleep(100);
+            house = houseService.findHouseById(house.getId()).orElseThrow();
+        }
+
+        try {
+            assertThat(house.getImageVariants()).isEmpty();
+            assertThat(house.getImageFileName(480)).isEqualTo(house.getImageName());
+            assertThat(house.getImageSrcset()).isNull();
+            assertThat(houseImageProcessor.getVariantDirectory().resolve(House.toImageVariantName(house.getImageName(), 480))).doesNotExist();
+        } finally {
+            Files.deleteIfExists(HouseService.STORAGE_DIRECTORY.resolve(house.getImageName()));
+            houseService.deleteHouse(house);
+        }
+    }
+
+    // テスト用のPNG画像（グラデーション）を作成する
+    private byte[] createPng(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+
+        for (int x = 0; x < width; x += 100) {
+            graphics.setColor(new Color(x * 255 / width, 128, 255 - x * 255 / width));
+            graphics.fillRect(x, 0, 100, height);
+        }
+
+        graphics.dispose();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+
+        return bytes.toByteArray();
+    }
 }
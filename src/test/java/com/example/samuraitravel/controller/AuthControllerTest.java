@@ -0,0 +1,347 @@
+package com.example.samuraitravel.controller;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestBuilders.formLogin;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.samuraitravel.entity.OutboxMessage;
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.entity.VerificationToken;
+import com.example.samuraitravel.repository.OutboxMessageRepository;
+import com.example.samuraitravel.repository.RoleRepository;
+import com.example.samuraitravel.repository.UserRepository;
+import com.example.samuraitravel.repository.VerificationTokenRepository;
+import com.example.samuraitravel.security.UserDetailsImpl;
+import com.example.samuraitravel.service.OutboxPurgeJob;
+import com.example.samuraitravel.service.VerificationTokenService;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class AuthControllerTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private OutboxMessageRepository outboxMessageRepository;
+
+    @SpyBean
+    private VerificationTokenRepository verificationTokenRepository;
+
+    @Autowired
+    private VerificationTokenService verificationTokenService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RoleRepository roleRepository;
+
+    @Autowired
+    private OutboxPurgeJob outboxPurgeJob;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private JavaMailSender javaMailSender;
+
+    private String signup() throws Exception {
+        String email = UUID.randomUUID() + "@example.com";
+
+        mockMvc.perform(post("/signup").with(csrf())
+                .param("name", "侍 次郎")
+                .param("furigana", "サムライ ジロウ")
+                .param("postalCode", "101-0022")
+                .param("address", "東京都千代田区神田練塀町300番地")
+                .param("phoneNumber", "090-1234-5678")
+                .param("email", email)
+                .param("password", "password")
+                .param("passwordConfirmation", "password"))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/"));
+
+        return email;
+    }
+
+    // 指定したメールアドレス宛てのメールが、指定した状態になるまで待つ
+    private OutboxMessage awaitStatus(String recipient, String status) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            OutboxMessage outboxMessage = outboxMessageRepository.findAll().stream()
+                    .filter(message -> message.getRecipient().equals(recipient))
+                    .findFirst()
+                    .orElseThrow();
+
+            if (status.equals(outboxMessage.getStatus())) {
+                return outboxMessage;
+            }
+
+            Thread.sleep(100);
+        }
+
+        throw new AssertionError("メールが" + status + "になりませんでした。");
+    }
+
+    @Test
+    public void 会員登録では認証メールをoutboxに保存しバックグラウンドでまとめて送信する() throws Exception {
+        String email = signup();
+
+        OutboxMessage outboxMessage = awaitStatus(email, OutboxMessage.DONE);
+
+        assertThat(outboxMessage.getSubject()).isEqualTo("メール認証");
+        assertThat(outboxMessage.getBody()).contains("/signup/verify?token=");
+        verify(javaMailSender, atLeastOnce()).send(any(SimpleMailMessage[].class));
+        verify(javaMailSender, never()).send(any(SimpleMailMessage.class));
+    }
+
+    @Test
+    public void メールの送信に失敗しても会員登録は完了し送信を再試行する() throws Exception {
+        doThrow(new MailSendException("Mail server connection failed")).when(javaMailSender).send(any(SimpleMailMessage[].class));
+
+        String email = signup();
+
+        OutboxMessage outboxMessage = awaitStatus(email, OutboxMessage.PENDING);
+
+        for (int i = 0; i < 100 && outboxMessage.getLastError() == null; i++) {
+            Thread.sleep(100);
+            outboxMessage = outboxMessageRepository.findById(outboxMessage.getId()).orElseThrow();
+        }
+
+        assertThat(outboxMessage.getAttempts()).isEqualTo(1);
+        assertThat(outboxMessage.getLastError()).contains("Mail server connection failed");
+        assertThat(outboxMessage.getNextAttemptAt().toInstant()).isAfter(outboxMessage.getCreatedAt().toInstant());
+    }
+
+    private VerificationToken findTokenByEmail(String email) {
+        return verificationTokenRepository.findAll().stream()
+                .filter(token -> token.getUser().getEmail().equals(email))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    public void 有効なトークンでは会員登録が完了する() throws Exception {
+        String email = signup();
+        VerificationToken verificationToken = findTokenByEmail(email);
+
+        mockMvc.perform(get("/signup/verify").param("token", verificationToken.getToken()))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("successMessage", "会員登録が完了しました。"));
+
+        assertThat(userRepository.findByEmail(email).getEnabled()).isTrue();
+    }
+
+    @Test
+    public void 存在しないトークンでは無効と判定する() throws Exception {
+        mockMvc.perform(get("/signup/verify").param("token", UUID.randomUUID().toString()))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("errorMessage", "トークンが無効です。"));
+    }
+
+    @Test
+    public void 形式が正しくないトークンではデータベースに問い合わせずに無効と判定する() throws Exception {
+        String truncatedToken = UUID.randomUUID().toString().substring(0, 20);
+
+        mockMvc.perform(get("/signup/verify").param("token", truncatedToken))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("errorMessage", "トークンが無効です。"));
+
+        verify(verificationTokenRepository, never()).findByToken(anyString());
+    }
+
+    @Test
+    public void 他のサーバーで発行されたトークンでも会員登録が完了する() throws Exception {
+        String email = signup();
+        VerificationToken verificationToken = findTokenByEmail(email);
+
+        // 他のサーバーで発行されたトークン（このサーバーのブルームフィルターには登録されていない）
+        String otherServerToken = UUID.randomUUID().toString();
+        jdbcTemplate.update("UPDATE verification_tokens SET token = ? WHERE id = ?", otherServerToken, verificationToken.getId());
+
+        mockMvc.perform(get("/signup/verify").param("token", otherServerToken))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("successMessage", "会員登録が完了しました。"));
+
+        assertThat(userRepository.findByEmail(email).getEnabled()).isTrue();
+    }
+
+    @Test
+    public void 有効期限が切れたトークンでは会員登録を完了できず定期削除で未認証の会員とともに削除される() throws Exception {
+        String email = signup();
+        VerificationToken verificationToken = findTokenByEmail(email);
+        verificationToken.setExpiresAt(Timestamp.from(Instant.now().minusSeconds(60)));
+        verificationTokenRepository.save(verificationToken);
+
+        mockMvc.perform(get("/signup/verify").param("token", verificationToken.getToken()))
+                .andExpect(status().isOk())
+                .andExpect(model().attribute("errorMessage", "トークンが無効です。"));
+
+        while (verificationTokenService.purgeExpiredTokens(500) == 500) {
+            // 期限切れのトークンがなくなるまで削除する
+        }
+
+        assertThat(verificationTokenRepository.findById(verificationToken.getId())).isEmpty();
+        assertThat(userRepository.findByEmail(email)).isNull();
+    }
+
+    @Test
+    public void ログイン後のセッションにはパスワードを含まない会員の情報のみを保存する() throws Exception {
+        MvcResult result = mockMvc.perform(formLogin("/login").user("taro.samurai@example.com").password("password"))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/?loggedIn"))
+                .andReturn();
+
+        SecurityContext securityContext = (SecurityContext) result.getRequest().getSession()
+                .getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+        UserDetailsImpl userDetailsImpl = (UserDetailsImpl) securityContext.getAuthentication().getPrincipal();
+
+        assertThat(userDetailsImpl.getUserId()).isEqualTo(1);
+        assertThat(userDetailsImpl.getPassword()).isNull();
+
+        // セッションストアに保存できる（シリアライズできる）こと
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(securityContext);
+        }
+
+        assertThat(bytes.size()).isPositive();
+    }
+
+    @Test
+    @Transactional
+    public void 古い形式のパスワードのハッシュはログイン時に新しい形式で保存し直す() throws Exception {
+        // 他のテストが使う初期データの会員のハッシュを書き換えないよう、古い形式（接頭辞なし）のハッシュの会員をこのテストのトランザクション内で作成する
+        String email = UUID.randomUUID() + "@example.com";
+        String legacyHash = new BCryptPasswordEncoder(10).encode("password");
+
+        User user = new User();
+        user.setName("侍 旧子");
+        user.setFurigana("サムライ キュウコ");
+        user.setPostalCode("101-0022");
+        user.setAddress("東京都千代田区神田練塀町300番地");
+        user.setPhoneNumber("090-1234-5678");
+        user.setEmail(email);
+        user.setPassword(legacyHash);
+        user.setRole(roleRepository.findByName("ROLE_GENERAL"));
+        user.setEnabled(true);
+        userRepository.save(user);
+
+        mockMvc.perform(formLogin("/login").user(email).password("password"))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/?loggedIn"));
+
+        assertThat(userRepository.findPrincipalByEmail(email).orElseThrow().getPassword())
+                .startsWith("{bcrypt}$2a$10$")
+                .isNotEqualTo("{bcrypt}" + legacyHash);
+    }
+
+    @Test
+    public void 保持期間を過ぎた送信済みのメールだけを削除し送信に失敗したメールは残す() throws Exception {
+        String oldDoneRecipient = insertOutboxMessage(OutboxMessage.DONE, 8);
+        String recentDoneRecipient = insertOutboxMessage(OutboxMessage.DONE, 1);
+        String oldDeadRecipient = insertOutboxMessage(OutboxMessage.DEAD, 8);
+
+        try {
+            outboxPurgeJob.purge();
+
+            assertThat(countOutboxMessages(oldDoneRecipient)).isZero();
+            assertThat(countOutboxMessages(recentDoneRecipient)).isOne();
+            assertThat(countOutboxMessages(oldDeadRecipient)).isOne();
+        } finally {
+            jdbcTemplate.update("DELETE FROM outbox WHERE recipient IN (?, ?, ?)", oldDoneRecipient, recentDoneRecipient, oldDeadRecipient);
+        }
+    }
+
+    @Test
+    public void 同じメールアドレスでのログインの試行が上限を超えると429を返す() throws Exception {
+        String email = UUID.randomUUID() + "@example.com";
+
+        for (int i = 0; i < 10; i++) {
+            mockMvc.perform(failedLogin(email))
+                    .andExpect(status().is3xxRedirection())
+                    .andExpect(redirectedUrl("/login?error"));
+        }
+
+        mockMvc.perform(failedLogin(email))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists("Retry-After"));
+    }
+
+    @Test
+    public void 他のIPアドレスからのログインの試行が上限を超えても正しいパスワードでログインできる() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            mockMvc.perform(failedLogin("taro.samurai@example.com"))
+                    .andExpect(status().is3xxRedirection())
+                    .andExpect(redirectedUrl("/login?error"));
+        }
+
+        mockMvc.perform(failedLogin("taro.samurai@example.com"))
+                .andExpect(status().isTooManyRequests());
+
+        // 本人は別のIPアドレスから正しいパスワードでログインする
+        mockMvc.perform(post("/login").with(csrf())
+                .param("username", "taro.samurai@example.com")
+                .param("password", "password")
+                .with(request -> {
+                    request.setRemoteAddr("198.51.100.20");
+                    return request;
+                }))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/?loggedIn"));
+    }
+
+    // 指定した状態で、指定した日数前に更新されたメールを保存し、宛先を返す
+    private String insertOutboxMessage(String status, int daysAgo) {
+        String recipient = UUID.randomUUID() + "@example.com";
+
+        jdbcTemplate.update("INSERT INTO outbox (sender, recipient, subject, body, status, updated_at) "
+                + "VALUES ('noreply@example.com', ?, 'メール認証', 'テスト本文', ?, NOW() - INTERVAL ? DAY)", recipient, status, daysAgo);
+
+        return recipient;
+    }
+
+    private int countOutboxMessages(String recipient) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM outbox WHERE recipient = ?", Integer.class, recipient);
+    }
+
+    // 他のテストとIPアドレスごとの制限を共有しないよう、送信元のIPアドレスを変えて誤ったパスワードでログインする
+    private MockHttpServletRequestBuilder failedLogin(String email) {
+        return post("/login").with(csrf())
+                .param("username", email)
+                .param("password", "wrong-password")
+                .with(request -> {
+                    request.setRemoteAddr("203.0.113.10");
+                    return request;
+                });
+    }
+}
@@ -1,8 +1,10 @@
 package com.example.samuraitravel.controller;
 
+import static org.assertj.core.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -11,6 +13,10 @@ import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 
+import com.example.samuraitravel.support.HibernateStatistics;
+
+import jakarta.persistence.EntityManagerFactory;
+
 @SpringBootTest
 @AutoConfigureMockMvc
 @ActiveProfiles("test")
@@ -18,6 +24,9 @@ public class HomeControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @Test
     public void 未ログインの場合はトップページが正しく表示される() throws Exception {
         mockMvc.perform(get("/"))
@@ -31,6 +40,18 @@ public class HomeControllerTest {
         mockMvc.perform(get("/"))
                .andExpect(status().isOk())
                .andExpect(view().name("index"));
-    }    
-}
+    }
+
+    @Test
+    public void トップページの表示で予約やレビューなどの子テーブルを読み込まない() throws Exception {
+        Statistics statistics = HibernateStatistics.reset(entityManagerFactory);
 
+        mockMvc.perform(get("/"))
+               .andExpect(status().isOk())
+               .andExpect(view().name("index"));
+
+        // 新着の民宿と人気の民宿の取得のみ
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+    }
+}
@@ -1,15 +1,42 @@
 package com.example.samuraitravel.controller;
 
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.example.samuraitravel.dto.CursorPage;
+import com.example.samuraitravel.dto.HouseIdBitmap;
+import com.example.samuraitravel.entity.Favorite;
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.repository.FavoriteRepository;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.HouseStatsRepository;
+import com.example.samuraitravel.repository.ReservationRepository;
+import com.example.samuraitravel.repository.UserRepository;
+import com.example.samuraitravel.service.FavoriteCountFlushJob;
+import com.example.samuraitravel.support.HibernateStatistics;
+
+import jakarta.persistence.EntityManagerFactory;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -18,6 +45,27 @@ public class HouseControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private FavoriteRepository favoriteRepository;
+
+    @Autowired
+    private HouseRepository houseRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private HouseStatsRepository houseStatsRepository;
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private FavoriteCountFlushJob favoriteCountFlushJob;
+
     @Test
     public void 未ログインの場合は会員用の民宿一覧ページが正しく表示される() throws Exception {
         mockMvc.perform(get("/houses"))
@@ -33,6 +81,189 @@ public class HouseControllerTest {
                 .andExpect(view().name("houses/index"));
     }
 
+    @Test
+    public void 複数の検索条件を組み合わせて会員用の民宿一覧ページが正しく表示される() throws Exception {
+        List<House> houses = findHouses(get("/houses")
+                .param("keyword", "SAMURAI")
+                .param("area", "東京都")
+                .param("price", "10000")
+                .param("capacity", "2")
+                .param("order", "priceAsc"));
+
+        // すべての条件に一致する民宿だけが、料金の安い順（同じ料金はidの昇順）に表示される
+        List<Integer> expectedIds = houseRepository.findAll().stream()
+                .filter(house -> containsIgnoreCase(house.getName(), "SAMURAI") || containsIgnoreCase(house.getAddress(), "SAMURAI"))
+                .filter(house -> house.getAddress().contains("東京都"))
+                .filter(house -> house.getPrice() <= 10000 && house.getCapacity() >= 2)
+                .sorted(Comparator.comparing(House::getPrice).thenComparing(House::getId))
+                .map(House::getId)
+                .limit(10)
+                .toList();
+
+        assertThat(expectedIds).isNotEmpty();
+        assertThat(houses).extracting(House::getId).containsExactlyElementsOf(expectedIds);
+    }
+
+    @Test
+    public void 料金と定員で絞り込み料金の安い順に並べ替えて会員用の民宿一覧ページが表示される() throws Exception {
+        List<House> houses = findHouses(get("/houses")
+                .param("price", "8000")
+                .param("capacity", "3")
+                .param("order", "priceAsc"));
+
+        List<Integer> expectedIds = houseRepository.findAll().stream()
+                .filter(house -> house.getPrice() <= 8000 && house.getCapacity() >= 3)
+                .sorted(Comparator.comparing(House::getPrice).thenComparing(House::getId))
+                .map(House::getId)
+                .limit(10)
+                .toList();
+
+        assertThat(houses).hasSizeGreaterThan(1);
+        assertThat(houses).allSatisfy(house -> {
+            assertThat(house.getPrice()).isLessThanOrEqualTo(8000);
+            assertThat(house.getCapacity()).isGreaterThanOrEqualTo(3);
+        });
+        assertThat(houses).extracting(House::getId).containsExactlyElementsOf(expectedIds);
+    }
+
+    @Test
+    public void 宿泊日を指定した場合は空室のある民宿だけが会員用の民宿一覧ページに表示される() throws Exception {
+        LocalDate checkinDate = LocalDate.now().plusDays(7);
+        LocalDate checkoutDate = checkinDate.plusDays(2);
+
+        List<House> houses = findHouses(get("/houses")
+                .param("checkinDate", checkinDate.toString())
+                .param("checkoutDate", checkoutDate.toString()));
+
+        assertThat(houses).isNotEmpty();
+        assertThat(houses).noneMatch(house -> reservationRepository.existsOverlapping(house.getId(), checkinDate, checkoutDate));
+
+        // 予約可能期間外の日付はデータベースで空室を判定する
+        LocalDate pastCheckinDate = LocalDate.parse("2023-03-31");
+        LocalDate pastCheckoutDate = LocalDate.parse("2023-04-02");
+
+        MvcResult result = mockMvc.perform(get("/houses")
+                .param("checkinDate", pastCheckinDate.toString())
+                .param("checkoutDate", pastCheckoutDate.toString())
+                .param("page", "0"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/index"))
+                .andExpect(model().attributeExists("housePage"))
+                .andReturn();
+
+        @SuppressWarnings("unchecked")
+        Page<House> housePage = (Page<House>) result.getModelAndView().getModel().get("housePage");
+
+        assertThat(housePage.getContent())
+                .noneMatch(house -> reservationRepository.existsOverlapping(house.getId(), pastCheckinDate, pastCheckoutDate));
+        assertThat(housePage.getTotalElements()).isEqualTo(houseRepository.findAll().stream()
+                .filter(house -> !reservationRepository.existsOverlapping(house.getId(), pastCheckinDate, pastCheckoutDate))
+                .count());
+    }
+
+    @Test
+    public void ページ番号を指定した場合は従来のページングで会員用の民宿一覧ページが正しく表示される() throws Exception {
+        mockMvc.perform(get("/houses").param("page", "1"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/index"))
+                .andExpect(model().attributeExists("housePage"));
+    }
+
+    @Test
+    public void カーソルをたどると前のページと重複しない次のページが表示され前ページのカーソルで戻れる() throws Exception {
+        // 新着順（作成日時の降順、同じ作成日時はidの降順）
+        List<Integer> expectedIds = houseRepository.findAll(Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("id"))).stream()
+                .map(House::getId)
+                .limit(20)
+                .toList();
+
+        CursorPage<House> firstPage = findHouseCursorPage(get("/houses"));
+        assertThat(firstPage.hasNext()).isTrue();
+        assertThat(firstPage.hasPrevious()).isFalse();
+
+        CursorPage<House> secondPage = findHouseCursorPage(get("/houses").param("cursor", firstPage.getNextCursor()));
+        assertThat(secondPage.hasPrevious()).isTrue();
+
+        List<Integer> firstIds = firstPage.getContent().stream().map(House::getId).toList();
+        List<Integer> secondIds = secondPage.getContent().stream().map(House::getId).toList();
+
+        assertThat(firstIds).hasSize(10).doesNotContainAnyElementsOf(secondIds);
+        assertThat(Stream.concat(firstIds.stream(), secondIds.stream()).toList()).containsExactlyElementsOf(expectedIds);
+
+        // 前ページのカーソルでは最初のページと同じ民宿が同じ順に表示される
+        CursorPage<House> backPage = findHouseCursorPage(get("/houses").param("cursor", secondPage.getPreviousCursor()));
+        assertThat(backPage.getContent()).extracting(House::getId).containsExactlyElementsOf(firstIds);
+    }
+
+    @Test
+    public void 検索条件を指定した場合もカーソルをたどると条件に一致する次のページが表示される() throws Exception {
+        List<Integer> expectedIds = houseRepository.findAll().stream()
+                .filter(house -> house.getPrice() <= 10000)
+                .sorted(Comparator.comparing(House::getPrice).thenComparing(House::getId))
+                .map(House::getId)
+                .limit(20)
+                .toList();
+
+        CursorPage<House> firstPage = findHouseCursorPage(get("/houses").param("price", "10000").param("order", "priceAsc"));
+        assertThat(firstPage.hasNext()).isTrue();
+
+        CursorPage<House> secondPage = findHouseCursorPage(get("/houses")
+                .param("price", "10000")
+                .param("order", "priceAsc")
+                .param("cursor", firstPage.getNextCursor()));
+
+        List<Integer> ids = Stream.concat(firstPage.getContent().stream(), secondPage.getContent().stream())
+                .map(House::getId)
+                .toList();
+
+        assertThat(ids).doesNotHaveDuplicates().containsExactlyElementsOf(expectedIds);
+    }
+
+    @Test
+    public void 不正なカーソルを指定した場合は先頭から会員用の民宿一覧ページが表示される() throws Exception {
+        mockMvc.perform(get("/houses").param("cursor", "invalid-cursor"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/index"))
+                .andExpect(model().attributeExists("houseCursorPage"));
+    }
+
+    @Test
+    public void 民宿の空室状況をJSONで取得し変更がなければ304を返す() throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get("/houses/1/availability"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.houseId").value(1))
+                .andExpect(jsonPath("$.booked").isArray())
+                .andExpect(header().exists("ETag"))
+                .andReturn();
+
+        mockMvc.perform(get("/houses/1/availability").header("If-None-Match", mvcResult.getResponse().getHeader("ETag")))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void 予約可能期間外の日付を指定した空室状況は空の配列を返す() throws Exception {
+        mockMvc.perform(get("/houses/1/availability").param("from", "9999-01-01").param("to", "9999-12-31"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.booked").isEmpty());
+
+        mockMvc.perform(get("/houses/1/availability").param("from", "2000-01-01").param("to", "2000-12-31"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.booked").isEmpty());
+
+        // 期間の前後が逆の場合
+        mockMvc.perform(get("/houses/1/availability").param("from", LocalDate.now().plusDays(30).toString())
+                .param("to", LocalDate.now().toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.booked").isEmpty());
+    }
+
+    @Test
+    public void 存在しない民宿の空室状況は404を返す() throws Exception {
+        mockMvc.perform(get("/houses/0/availability"))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     public void 未ログインの場合は会員用の民宿詳細ページが正しく表示される() throws Exception {
         mockMvc.perform(get("/houses/1"))
@@ -47,4 +278,186 @@ public class HouseControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(view().name("houses/show"));
     }
+
+    @Test
+    public void 民宿一覧ページの表示で予約やレビューなどの子テーブルを読み込まない() throws Exception {
+        Statistics statistics = HibernateStatistics.reset(entityManagerFactory);
+
+        mockMvc.perform(get("/houses"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/index"));
+
+        // 民宿の取得と件数の取得のみ
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+    }
+
+    @Test
+    public void 民宿詳細ページの表示で予約やお気に入りなどの子テーブルを読み込まない() throws Exception {
+        Statistics statistics = HibernateStatistics.reset(entityManagerFactory);
+
+        mockMvc.perform(get("/houses/1"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/show"));
+
+        // 民宿（閲覧者のレビュー・お気に入りを含む）と最新レビュー（投稿者の氏名を含む）の取得のみ
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+    }
+
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void ログイン済みの場合も民宿詳細ページの表示は2回のクエリで済む() throws Exception {
+        Statistics statistics = HibernateStatistics.reset(entityManagerFactory);
+
+        mockMvc.perform(get("/houses/1"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/show"))
+                .andExpect(model().attribute("hasUserAlreadyReviewed", true));
+
+        // 民宿（閲覧者のレビュー・お気に入りを含む）と最新レビュー（投稿者の氏名を含む）の取得のみ
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+    }
+
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void ログイン済みの場合は民宿一覧ページでお気に入りの状態をクエリを追加せずに判定する() throws Exception {
+        // 1回目の表示でお気に入りの民宿のidを読み込む
+        mockMvc.perform(get("/houses"))
+                .andExpect(status().isOk());
+
+        Statistics statistics = HibernateStatistics.reset(entityManagerFactory);
+
+        MvcResult result = mockMvc.perform(get("/houses"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/index"))
+                .andReturn();
+
+        HouseIdBitmap favoriteHouseIds = (HouseIdBitmap) result.getModelAndView().getModel().get("favoriteHouseIds");
+
+        assertThat(favoriteHouseIds.contains(1)).isTrue();
+        // 民宿の取得と件数の取得のみ（お気に入りの判定ではクエリを実行しない）
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    @WithUserDetails("hanako.samurai@example.com")
+    public void お気に入りの追加と削除が民宿一覧ページのお気に入りの状態に反映される() throws Exception {
+        mockMvc.perform(get("/houses"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(post("/houses/5/favorites/create").with(csrf()))
+                .andExpect(status().is3xxRedirection());
+
+        assertThat(findFavoriteHouseIds().contains(5)).isTrue();
+
+        Favorite favorite = favoriteRepository.findByHouseAndUser(houseRepository.findById(5).orElseThrow(),
+                userRepository.findByEmail("hanako.samurai@example.com"));
+
+        mockMvc.perform(post("/houses/5/favorites/" + favorite.getId() + "/delete").with(csrf()))
+                .andExpect(status().is3xxRedirection());
+
+        assertThat(findFavoriteHouseIds().contains(5)).isFalse();
+    }
+
+    @Test
+    @WithUserDetails("hanako.samurai@example.com")
+    public void お気に入り数はすぐに表示に反映されバックグラウンドでhouse_statsテーブルに書き込まれる() throws Exception {
+        long favoriteCount = findFavoriteCount(6);
+
+        mockMvc.perform(post("/houses/6/favorites/create").with(csrf()))
+                .andExpect(status().is3xxRedirection());
+
+        assertThat(findFavoriteCount(6)).isEqualTo(favoriteCount + 1);
+
+        favoriteCountFlushJob.flush();
+        assertThat(houseStatsRepository.findById(6).orElseThrow().getFavoriteCount()).isEqualTo(countFavorites(6));
+
+        Favorite favorite = favoriteRepository.findByHouseAndUser(houseRepository.findById(6).orElseThrow(),
+                userRepository.findByEmail("hanako.samurai@example.com"));
+
+        mockMvc.perform(post("/houses/6/favorites/" + favorite.getId() + "/delete").with(csrf()))
+                .andExpect(status().is3xxRedirection());
+
+        assertThat(findFavoriteCount(6)).isEqualTo(favoriteCount);
+
+        favoriteCountFlushJob.flush();
+        assertThat(houseStatsRepository.findById(6).orElseThrow().getFavoriteCount()).isEqualTo(countFavorites(6));
+    }
+
+    @Test
+    @WithUserDetails("hanako.samurai@example.com")
+    public void 再集計の前に加えられたお気に入り数の差分は二重に書き込まない() throws Exception {
+        long favoriteCount = findFavoriteCount(8);
+
+        mockMvc.perform(post("/houses/8/favorites/create").with(csrf()))
+                .andExpect(status().is3xxRedirection());
+
+        // 差分を書き込む前に再集計する（追加したお気に入りは再集計に含まれる）
+        favoriteCountFlushJob.repair();
+        favoriteCountFlushJob.flush();
+
+        assertThat(findFavoriteCount(8)).isEqualTo(favoriteCount + 1);
+        assertThat(houseStatsRepository.findById(8).orElseThrow().getFavoriteCount()).isEqualTo(countFavorites(8));
+
+        Favorite favorite = favoriteRepository.findByHouseAndUser(houseRepository.findById(8).orElseThrow(),
+                userRepository.findByEmail("hanako.samurai@example.com"));
+
+        mockMvc.perform(post("/houses/8/favorites/" + favorite.getId() + "/delete").with(csrf()))
+                .andExpect(status().is3xxRedirection());
+
+        favoriteCountFlushJob.flush();
+
+        assertThat(findFavoriteCount(8)).isEqualTo(favoriteCount);
+        assertThat(houseStatsRepository.findById(8).orElseThrow().getFavoriteCount()).isEqualTo(countFavorites(8));
+    }
+
+    // 民宿一覧ページを表示し、表示された民宿を取得する
+    @SuppressWarnings("unchecked")
+    private List<House> findHouses(MockHttpServletRequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/index"))
+                .andReturn();
+
+        return (List<House>) result.getModelAndView().getModel().get("houses");
+    }
+
+    // 民宿一覧ページを表示し、カーソルによるページングの結果を取得する
+    @SuppressWarnings("unchecked")
+    private CursorPage<House> findHouseCursorPage(MockHttpServletRequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(model().attributeExists("houseCursorPage"))
+                .andReturn();
+
+        return (CursorPage<House>) result.getModelAndView().getModel().get("houseCursorPage");
+    }
+
+    private static boolean containsIgnoreCase(String text, String keyword) {
+        return text != null && text.toLowerCase().contains(keyword.toLowerCase());
+    }
+
+    private long findFavoriteCount(Integer houseId) throws Exception {
+        MvcResult result = mockMvc.perform(get("/houses/" + houseId))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        return (Long) result.getModelAndView().getModel().get("favoriteCount");
+    }
+
+    private int countFavorites(Integer houseId) {
+        return (int) favoriteRepository.findAll().stream()
+                .filter(favorite -> favorite.getHouse().getId().equals(houseId))
+                .count();
+    }
+
+    private HouseIdBitmap findFavoriteHouseIds() throws Exception {
+        MvcResult result = mockMvc.perform(get("/houses"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        return (HouseIdBitmap) result.getModelAndView().getModel().get("favoriteHouseIds");
+    }
 }
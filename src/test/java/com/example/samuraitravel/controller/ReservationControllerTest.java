@@ -1,11 +1,16 @@
 package com.example.samuraitravel.controller;
 
+import static org.assertj.core.api.Assertions.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 import java.time.LocalDate;
+import java.util.Optional;
 
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -13,16 +18,44 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mock.web.MockHttpSession;
 import org.springframework.security.test.context.support.WithUserDetails;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
 
+import com.example.samuraitravel.dto.CheckoutSessionEntry;
 import com.example.samuraitravel.dto.ReservationDTO;
+import com.example.samuraitravel.dto.ReservationHold;
+import com.example.samuraitravel.service.ReservationHoldManager;
+import com.example.samuraitravel.support.HibernateStatistics;
+import com.example.samuraitravel.support.LocalStripeServer;
+
+import jakarta.persistence.EntityManagerFactory;
 
 @SpringBootTest
 @AutoConfigureMockMvc
 @ActiveProfiles("test")
+@TestPropertySource(properties = "stripe.api-key=sk_test_local")
 public class ReservationControllerTest {
+    private static LocalStripeServer localStripeServer;
+
     @Autowired
     private MockMvc mockMvc;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ReservationHoldManager reservationHoldManager;
+
+    @BeforeAll
+    public static void startStripe() throws Exception {
+        localStripeServer = new LocalStripeServer();
+        localStripeServer.start();
+    }
+
+    @AfterAll
+    public static void stopStripe() {
+        localStripeServer.stop();
+    }
     
     @Test
     public void 未ログインの場合は会員用の予約一覧ページからログインページにリダイレクトする() throws Exception {
@@ -60,6 +93,18 @@ public class ReservationControllerTest {
                 .andExpect(redirectedUrl("/reservations/confirm"));
     }
 
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void 既存の予約と重なる日程では予約フォームの送信後に民宿詳細ページにエラーを表示する() throws Exception {
+        mockMvc.perform(post("/houses/1/reservations/input").with(csrf())
+                .param("checkinDate", "2023-03-31")
+                .param("checkoutDate", "2023-04-02")
+                .param("numberOfPeople", "1"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("houses/show"))
+                .andExpect(model().attributeHasFieldErrors("reservationInputForm", "checkinDate"));
+    }
+
     @Test
     public void 未ログインの場合は予約内容の確認ページからログインページにリダイレクトする() throws Exception {
         // セッションを作成し、ReservationDTOオブジェクトを保存する
@@ -89,5 +134,124 @@ public class ReservationControllerTest {
                 .andExpect(view().name("reservations/confirm"));
     }
 
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void 予約内容が変わらなければ確認ページの再表示でStripeのセッションを使い回す() throws Exception {
+        MockHttpSession mockHttpSession = new MockHttpSession();
+        ReservationDTO reservationDTO = new ReservationDTO(5, LocalDate.parse("2024-06-01"),
+                LocalDate.parse("2024-06-02"), 1, 10000);
+        mockHttpSession.setAttribute("reservationDTO", reservationDTO);
+        int createCountBefore = localStripeServer.getCreateCount();
+
+        for (int i = 0; i < 3; i++) {
+            mockMvc.perform(get("/reservations/confirm").session(mockHttpSession))
+                    .andExpect(status().isOk())
+                    .andExpect(view().name("reservations/confirm"));
+        }
+
+        assertThat(localStripeServer.getCreateCount()).isEqualTo(createCountBefore + 1);
+
+        // 予約内容が変わった場合は新しいセッションを作成する
+        reservationDTO.setNumberOfPeople(2);
+
+        mockMvc.perform(get("/reservations/confirm").session(mockHttpSession))
+                .andExpect(status().isOk());
+
+        assertThat(localStripeServer.getCreateCount()).isEqualTo(createCountBefore + 2);
+    }
+
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void 日程を変えて確認ページを再表示すると前回の日程の仮押さえを解放する() throws Exception {
+        MockHttpSession mockHttpSession = new MockHttpSession();
+        ReservationDTO reservationDTO = new ReservationDTO(9, LocalDate.parse("2024-08-01"),
+                LocalDate.parse("2024-08-03"), 1, 12000);
+        mockHttpSession.setAttribute("reservationDTO", reservationDTO);
+
+        mockMvc.perform(get("/reservations/confirm").session(mockHttpSession))
+                .andExpect(status().isOk());
+
+        ReservationDTO changedReservationDTO = new ReservationDTO(9, LocalDate.parse("2024-08-10"),
+                LocalDate.parse("2024-08-12"), 1, 12000);
+        mockHttpSession.setAttribute("reservationDTO", changedReservationDTO);
+
+        mockMvc.perform(get("/reservations/confirm").session(mockHttpSession))
+                .andExpect(status().isOk());
+
+        CheckoutSessionEntry checkoutSessionEntry = (CheckoutSessionEntry) mockHttpSession.getAttribute("checkoutSessionEntry");
+
+        try {
+            // 前回の日程は別のユーザーが仮押さえでき、新しい日程は仮押さえできない
+            Optional<ReservationHold> previousDatesHold = reservationHoldManager.hold(9, 2, LocalDate.parse("2024-08-01"),
+                    LocalDate.parse("2024-08-03"), () -> true);
+            assertThat(previousDatesHold).isPresent();
+            reservationHoldManager.release(previousDatesHold.get().getId(), 9);
+
+            assertThat(reservationHoldManager.hold(9, 2, LocalDate.parse("2024-08-10"), LocalDate.parse("2024-08-12"), () -> true))
+                    .isEmpty();
+        } finally {
+            reservationHoldManager.release(checkoutSessionEntry.getReservationHold().getId(), 9);
+        }
+    }
+
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void 他のユーザーが仮押さえ中の日程では予約内容の確認ページから民宿詳細ページにリダイレクトする() throws Exception {
+        // 別のユーザーが同じ日程を仮押さえする
+        ReservationHold otherUserHold = reservationHoldManager.hold(2, 2, LocalDate.parse("2024-05-01"),
+                LocalDate.parse("2024-05-03"), () -> true).orElseThrow();
+
+        MockHttpSession mockHttpSession = new MockHttpSession();
+        ReservationDTO reservationDTO = new ReservationDTO(2, LocalDate.parse("2024-05-02"),
+                LocalDate.parse("2024-05-04"), 1, 14000);
+        mockHttpSession.setAttribute("reservationDTO", reservationDTO);
 
+        try {
+            mockMvc.perform(get("/reservations/confirm").session(mockHttpSession))
+                    .andExpect(status().is3xxRedirection())
+                    .andExpect(redirectedUrl("/houses/2"));
+        } finally {
+            // 他のテストに影響しないよう、仮押さえを解放する
+            reservationHoldManager.release(otherUserHold.getId(), 2);
+        }
+    }
+
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void Stripeのセッションを作成できない場合は予約内容の確認ページから民宿詳細ページにリダイレクトして仮押さえを解放する() throws Exception {
+        MockHttpSession mockHttpSession = new MockHttpSession();
+        ReservationDTO reservationDTO = new ReservationDTO(3, LocalDate.parse("2024-07-01"),
+                LocalDate.parse("2024-07-03"), 1, 12000);
+        mockHttpSession.setAttribute("reservationDTO", reservationDTO);
+        localStripeServer.failNext(1, 500);
+
+        mockMvc.perform(get("/reservations/confirm").session(mockHttpSession))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(redirectedUrl("/houses/3"))
+                .andExpect(flash().attribute("errorMessage", "現在決済サービスに接続できません。しばらくしてからもう一度お試しください。"));
+
+        assertThat(mockHttpSession.getAttribute("checkoutSessionEntry")).isNull();
+
+        // 仮押さえが解放されているため、別のユーザーが同じ日程を仮押さえできる
+        Optional<ReservationHold> otherUserHold = reservationHoldManager.hold(3, 2, LocalDate.parse("2024-07-01"),
+                LocalDate.parse("2024-07-03"), () -> true);
+        assertThat(otherUserHold).isPresent();
+
+        // 他のテストに影響しないよう、仮押さえを解放する
+        reservationHoldManager.release(otherUserHold.get().getId(), 3);
+    }
+
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void 予約一覧ページの表示で民宿の子テーブルを読み込まない() throws Exception {
+        Statistics statistics = HibernateStatistics.reset(entityManagerFactory);
+
+        mockMvc.perform(get("/reservations"))
+                .andExpect(status().isOk())
+                .andExpect(view().name("reservations/index"));
+
+        // 予約（民宿を含む）・予約件数・予約者・予約者のロールの取得のみ
+        assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(4);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+    }
 }
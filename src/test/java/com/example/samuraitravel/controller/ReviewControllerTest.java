@@ -0,0 +1,104 @@
+package com.example.samuraitravel.controller;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithUserDetails;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.entity.Review;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.ReviewRepository;
+import com.example.samuraitravel.repository.UserRepository;
+import com.example.samuraitravel.service.ReviewService;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class ReviewControllerTest {
+    // レビューが登録されていない民宿
+    private static final int HOUSE_ID = 2;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private HouseRepository houseRepository;
+
+    @Autowired
+    private ReviewRepository reviewRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ReviewService reviewService;
+
+    private House findHouse() {
+        return houseRepository.findById(HOUSE_ID).orElseThrow();
+    }
+
+    @Test
+    @WithUserDetails("taro.samurai@example.com")
+    public void レビューの投稿と編集と削除に合わせて民宿のレビューの集計値が更新される() throws Exception {
+        House before = findHouse();
+
+        mockMvc.perform(post("/houses/" + HOUSE_ID + "/reviews/create").with(csrf())
+                .param("score", "4")
+                .param("content", "テスト内容"))
+                .andExpect(status().is3xxRedirection());
+
+        House created = findHouse();
+        assertThat(created.getReviewCount()).isEqualTo(before.getReviewCount() + 1);
+        assertThat(created.getScoreSum()).isEqualTo(before.getScoreSum() + 4);
+        assertThat(created.getScore4Count()).isEqualTo(before.getScore4Count() + 1);
+
+        Review review = reviewRepository.findByHouseAndUser(created, userRepository.findByEmail("taro.samurai@example.com"));
+
+        mockMvc.perform(post("/houses/" + HOUSE_ID + "/reviews/" + review.getId() + "/update").with(csrf())
+                .param("score", "2")
+                .param("content", "テスト内容"))
+                .andExpect(status().is3xxRedirection());
+
+        House updated = findHouse();
+        assertThat(updated.getReviewCount()).isEqualTo(before.getReviewCount() + 1);
+        assertThat(updated.getScoreSum()).isEqualTo(before.getScoreSum() + 2);
+        assertThat(updated.getScore4Count()).isEqualTo(before.getScore4Count());
+        assertThat(updated.getScore2Count()).isEqualTo(before.getScore2Count() + 1);
+
+        mockMvc.perform(post("/houses/" + HOUSE_ID + "/reviews/" + review.getId() + "/delete").with(csrf()))
+                .andExpect(status().is3xxRedirection());
+
+        House deleted = findHouse();
+        assertThat(deleted.getReviewCount()).isEqualTo(before.getReviewCount());
+        assertThat(deleted.getScoreSum()).isEqualTo(before.getScoreSum());
+        assertThat(deleted.getScoreCounts()).isEqualTo(before.getScoreCounts());
+    }
+
+    @Test
+    public void 再集計ではレビューテーブルの内容と一致する集計値になる() throws Exception {
+        reviewService.recomputeReviewAggregates(List.of(1));
+
+        House house = houseRepository.findById(1).orElseThrow();
+        List<Review> reviews = reviewRepository.findAll().stream()
+                .filter(review -> review.getHouse().getId().equals(1))
+                .toList();
+
+        assertThat(house.getReviewCount()).isEqualTo(reviews.size());
+        assertThat(house.getScoreSum()).isEqualTo(reviews.stream().mapToInt(Review::getScore).sum());
+        assertThat(house.getAverageScore()).isEqualByComparingTo(
+                BigDecimal.valueOf(house.getScoreSum()).divide(BigDecimal.valueOf(reviews.size()), 2, RoundingMode.HALF_UP));
+    }
+}
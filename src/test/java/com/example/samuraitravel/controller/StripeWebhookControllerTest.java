@@ -0,0 +1,378 @@
+package com.example.samuraitravel.controller;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.example.samuraitravel.dto.ReservationDTO;
+import com.example.samuraitravel.dto.ReservationHold;
+import com.example.samuraitravel.entity.ReservationDraft;
+import com.example.samuraitravel.entity.User;
+import com.example.samuraitravel.entity.WebhookInboxEvent;
+import com.example.samuraitravel.repository.HouseStatsRepository;
+import com.example.samuraitravel.repository.UserRepository;
+import com.example.samuraitravel.repository.WebhookInboxEventRepository;
+import com.example.samuraitravel.service.HouseAvailabilityIndex;
+import com.example.samuraitravel.service.ReservationHoldManager;
+import com.example.samuraitravel.service.ReservationService;
+import com.example.samuraitravel.service.WebhookInboxPurgeJob;
+import com.example.samuraitravel.support.LocalStripeServer;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@TestPropertySource(properties = { "stripe.webhook-secret=" + StripeWebhookControllerTest.WEBHOOK_SECRET, "stripe.api-key=sk_test_local" })
+public class StripeWebhookControllerTest {
+    static final String WEBHOOK_SECRET = "whsec_test_local";
+
+    private static LocalStripeServer localStripeServer;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ReservationService reservationService;
+
+    @Autowired
+    private WebhookInboxEventRepository webhookInboxEventRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private HouseAvailabilityIndex houseAvailabilityIndex;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private WebhookInboxPurgeJob webhookInboxPurgeJob;
+
+    @SpyBean
+    private HouseStatsRepository houseStatsRepository;
+
+    // テストごとに登録したデータを削除するため、セッションとイベントのidに付ける接頭辞
+    private final String sessionIdPrefix = "cs_test_" + UUID.randomUUID().toString().substring(0, 8) + "_";
+
+    @BeforeAll
+    public static void startStripe() throws Exception {
+        localStripeServer = new LocalStripeServer();
+        localStripeServer.start();
+    }
+
+    @AfterAll
+    public static void stopStripe() {
+        localStripeServer.stop();
+    }
+
+    // イベントが処理済みまたはデッドレターになるまで待つ
+    private WebhookInboxEvent awaitProcessed(String eventId) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            WebhookInboxEvent inboxEvent = webhookInboxEventRepository.findAll().stream()
+                    .filter(event -> event.getEventId().equals(eventId))
+                    .findFirst()
+                    .orElseThrow();
+
+            if (WebhookInboxEvent.DONE.equals(inboxEvent.getStatus()) || WebhookInboxEvent.DEAD.equals(inboxEvent.getStatus())) {
+                return inboxEvent;
+            }
+
+            Thread.sleep(100);
+        }
+
+        throw new AssertionError("Webhookイベントが処理されませんでした。");
+    }
+
+    @Test
+    public void 署名が正しくない場合は400を返す() throws Exception {
+        String payload = LocalStripeServer.checkoutSessionCompletedEvent(newEventId(), "cs_test_invalid");
+
+        mockMvc.perform(post("/stripe/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Stripe-Signature", LocalStripeServer.signatureHeader(payload, "whsec_wrong"))
+                .content(payload))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void 決済完了のイベントをすぐに受け付け非同期で予約を登録する() throws Exception {
+        String eventId = newEventId();
+        String sessionId = newSessionId();
+        localStripeServer.registerSession(sessionId, Map.of(
+                "houseId", "3",
+                "userId", "1",
+                "checkinDate", "2025-01-10",
+                "checkoutDate", "2025-01-12",
+                "numberOfPeople", "1",
+                "amount", "16000"));
+        String payload = LocalStripeServer.checkoutSessionCompletedEvent(eventId, sessionId);
+        long countBefore = reservationService.countReservations();
+
+        mockMvc.perform(post("/stripe/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Stripe-Signature", LocalStripeServer.signatureHeader(payload, WEBHOOK_SECRET))
+                .content(payload))
+                .andExpect(status().isOk());
+
+        WebhookInboxEvent inboxEvent = awaitProcessed(eventId);
+
+        assertThat(inboxEvent.getStatus()).isEqualTo(WebhookInboxEvent.DONE);
+        assertThat(reservationService.countReservations()).isEqualTo(countBefore + 1);
+    }
+
+    @Test
+    public void 予約内容の下書きがあればStripeのAPIを呼び出さずに予約を登録する() throws Exception {
+        String eventId = newEventId();
+        String sessionId = newSessionId();
+        ReservationDTO reservationDTO = new ReservationDTO(6, LocalDate.parse("2025-03-10"),
+                LocalDate.parse("2025-03-11"), 1, 6000);
+        User user = userRepository.findById(1).orElseThrow();
+        ReservationHold reservationHold = reservationService.holdReservation(reservationDTO, user).orElseThrow();
+        reservationService.createDraft(sessionId, reservationDTO, user, reservationHold);
+
+        String payload = LocalStripeServer.checkoutSessionCompletedEvent(eventId, sessionId);
+        long countBefore = reservationService.countReservations();
+        int retrieveCountBefore = localStripeServer.getRetrieveCount();
+
+        mockMvc.perform(post("/stripe/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Stripe-Signature", LocalStripeServer.signatureHeader(payload, WEBHOOK_SECRET))
+                .content(payload))
+                .andExpect(status().isOk());
+
+        assertThat(awaitProcessed(eventId).getStatus()).isEqualTo(WebhookInboxEvent.DONE);
+        assertThat(reservationService.countReservations()).isEqualTo(countBefore + 1);
+        assertThat(localStripeServer.getRetrieveCount()).isEqualTo(retrieveCountBefore);
+    }
+
+    @Test
+    public void 同じ決済のイベントが再送されても予約は1件だけ登録する() throws Exception {
+        // 空室状況のインデックスで判定される期間内の日程で、重複した通知を成功として扱うことを確認する
+        String sessionId = newSessionId();
+        LocalDate checkinDate = LocalDate.now().plusDays(90);
+        localStripeServer.registerSession(sessionId, Map.of(
+                "houseId", "4",
+                "userId", "1",
+                "checkinDate", checkinDate.toString(),
+                "checkoutDate", checkinDate.plusDays(1).toString(),
+                "numberOfPeople", "1",
+                "amount", "9000"));
+        long countBefore = reservationService.countReservations();
+
+        // 同じイベントの再送と、同じ決済（PaymentIntent）を指す別のイベント
+        String eventId = newEventId();
+        String[] eventIds = { eventId, eventId, eventId, newEventId() };
+
+        for (String id : eventIds) {
+            String payload = LocalStripeServer.checkoutSessionCompletedEvent(id, sessionId);
+
+            mockMvc.perform(post("/stripe/webhook")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header("Stripe-Signature", LocalStripeServer.signatureHeader(payload, WEBHOOK_SECRET))
+                    .content(payload))
+                    .andExpect(status().isOk());
+        }
+
+        assertThat(awaitProcessed(eventIds[0]).getStatus()).isEqualTo(WebhookInboxEvent.DONE);
+        assertThat(awaitProcessed(eventIds[3]).getStatus()).isEqualTo(WebhookInboxEvent.DONE);
+        assertThat(reservationService.countReservations()).isEqualTo(countBefore + 1);
+    }
+
+    @Test
+    public void 再試行しても成功しないエラーのイベントはデッドレターにする() throws Exception {
+        String eventId = newEventId();
+
+        // 存在しないセッションのイベント（Stripeは404を返す）
+        String payload = LocalStripeServer.checkoutSessionCompletedEvent(eventId, "cs_test_missing");
+
+        mockMvc.perform(post("/stripe/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Stripe-Signature", LocalStripeServer.signatureHeader(payload, WEBHOOK_SECRET))
+                .content(payload))
+                .andExpect(status().isOk());
+
+        WebhookInboxEvent inboxEvent = awaitProcessed(eventId);
+
+        assertThat(inboxEvent.getStatus()).isEqualTo(WebhookInboxEvent.DEAD);
+        assertThat(inboxEvent.getLastError()).contains("InvalidRequestException");
+    }
+
+    @Test
+    public void 予約の登録がロールバックされた場合は仮押さえと空室状況を元に戻し再試行で予約を登録できる() throws Exception {
+        String sessionId = newSessionId();
+        String paymentIntentId = "pi_" + sessionId;
+        LocalDate checkinDate = LocalDate.now().plusDays(100);
+        LocalDate checkoutDate = checkinDate.plusDays(1);
+        ReservationDTO reservationDTO = new ReservationDTO(7, checkinDate, checkoutDate, 1, 5000);
+        User user = userRepository.findById(1).orElseThrow();
+        ReservationHold reservationHold = reservationService.holdReservation(reservationDTO, user).orElseThrow();
+        reservationService.createDraft(sessionId, reservationDTO, user, reservationHold);
+        ReservationDraft reservationDraft = reservationService.findDraftBySessionId(sessionId).orElseThrow();
+
+        // 予約の保存後、コミット前に1回だけ失敗させる
+        doThrow(new DataAccessResourceFailureException("接続が切断されました")).doCallRealMethod()
+                .when(houseStatsRepository).incrementReservationCount(7);
+
+        assertThatThrownBy(() -> reservationService.createReservation(paymentIntentId, reservationDraft))
+                .isInstanceOf(DataAccessResourceFailureException.class);
+
+        // 空室状況は変わらず、仮押さえは残るため他のユーザーは同じ日程を仮押さえできない
+        assertThat(houseAvailabilityIndex.isAvailable(7, checkinDate, checkoutDate)).isTrue();
+        assertThat(reservationService.holdReservation(reservationDTO,
+                userRepository.findByEmail("hanako.samurai@example.com"))).isEmpty();
+
+        // 再試行では残っている仮押さえを使って予約を登録する
+        assertThat(reservationService.createReservation(paymentIntentId, reservationDraft)).isTrue();
+        assertThat(houseAvailabilityIndex.isAvailable(7, checkinDate, checkoutDate)).isFalse();
+    }
+
+    @Test
+    public void 保持期間を過ぎた処理済みのイベントだけを削除し失敗したイベントは残す() throws Exception {
+        String oldDoneEventId = insertInboxEvent(WebhookInboxEvent.DONE, 31);
+        String recentDoneEventId = insertInboxEvent(WebhookInboxEvent.DONE, 1);
+        String oldDeadEventId = insertInboxEvent(WebhookInboxEvent.DEAD, 31);
+
+        webhookInboxPurgeJob.purge();
+
+        assertThat(countInboxEvents(oldDoneEventId)).isZero();
+        assertThat(countInboxEvents(recentDoneEventId)).isOne();
+        assertThat(countInboxEvents(oldDeadEventId)).isOne();
+    }
+
+    @Test
+    public void 他のサーバーで同じ日程の予約が登録済みの場合は予約を登録しない() throws Exception {
+        String sessionId = newSessionId();
+        String paymentIntentId = "pi_" + sessionId;
+        String otherSessionId = "cs_test_other_" + UUID.randomUUID();
+        LocalDate checkinDate = LocalDate.now().plusDays(110);
+        LocalDate checkoutDate = checkinDate.plusDays(2);
+        ReservationDTO reservationDTO = new ReservationDTO(8, checkinDate, checkoutDate, 1, 5000);
+        User user = userRepository.findById(1).orElseThrow();
+        ReservationHold reservationHold = reservationService.holdReservation(reservationDTO, user).orElseThrow();
+        reservationService.createDraft(sessionId, reservationDTO, user, reservationHold);
+        ReservationDraft reservationDraft = reservationService.findDraftBySessionId(sessionId).orElseThrow();
+
+        // 他のサーバーが登録した予約（このサーバーの仮押さえと空室状況には反映されていない）
+        jdbcTemplate.update("INSERT INTO reservations (house_id, user_id, checkin_date, checkout_date, number_of_people, amount, payment_intent_id) "
+                + "VALUES (8, 2, ?, ?, 1, 5000, ?)", checkinDate.plusDays(1), checkoutDate.plusDays(1), "pi_" + otherSessionId);
+
+        try {
+            assertThat(houseAvailabilityIndex.isAvailable(8, checkinDate, checkoutDate)).isTrue();
+            assertThatThrownBy(() -> reservationService.createReservation(paymentIntentId, reservationDraft))
+                    .isInstanceOf(IllegalStateException.class);
+            assertThat(reservationService.isAlreadyReserved(paymentIntentId)).isFalse();
+        } finally {
+            reservationService.releaseHold(reservationHold);
+            jdbcTemplate.update("DELETE FROM reservations WHERE payment_intent_id = ?", "pi_" + otherSessionId);
+        }
+    }
+
+    @Test
+    public void 他のサーバーで登録された予約は定期的な取り込みで空室状況に反映される() throws Exception {
+        String otherPaymentIntentId = "pi_cs_test_other_" + UUID.randomUUID();
+        LocalDate checkinDate = LocalDate.now().plusDays(30);
+        LocalDate checkoutDate = checkinDate.plusDays(2);
+
+        jdbcTemplate.update("INSERT INTO reservations (house_id, user_id, checkin_date, checkout_date, number_of_people, amount, payment_intent_id) "
+                + "VALUES (8, 2, ?, ?, 1, 5000, ?)", checkinDate, checkoutDate, otherPaymentIntentId);
+
+        try {
+            houseAvailabilityIndex.refresh();
+
+            assertThat(houseAvailabilityIndex.isAvailable(8, checkinDate, checkoutDate)).isFalse();
+            assertThat(houseAvailabilityIndex.isAvailable(8, checkoutDate, checkoutDate.plusDays(1))).isTrue();
+        } finally {
+            jdbcTemplate.update("DELETE FROM reservations WHERE payment_intent_id = ?", otherPaymentIntentId);
+        }
+    }
+
+    @Test
+    public void 他のサーバーで仮押さえされた日程は仮押さえできず仮押さえの解放後は仮押さえできる() throws Exception {
+        String otherHoldId = UUID.randomUUID().toString();
+        LocalDate checkinDate = LocalDate.now().plusDays(120);
+        LocalDate checkoutDate = checkinDate.plusDays(2);
+        ReservationDTO reservationDTO = new ReservationDTO(8, checkinDate, checkoutDate, 1, 5000);
+        User user = userRepository.findById(1).orElseThrow();
+
+        // 他のサーバーで別のユーザーが仮押さえした日程（このサーバーのメモリ上には存在しない）
+        jdbcTemplate.update("INSERT INTO reservation_holds (id, house_id, user_id, checkin_date, checkout_date, expires_at) "
+                + "VALUES (?, 8, 2, ?, ?, ?)", otherHoldId, checkinDate.plusDays(1), checkoutDate.plusDays(1),
+                Timestamp.from(Instant.now().plus(ReservationHoldManager.HOLD_TTL)));
+
+        try {
+            assertThat(reservationService.holdReservation(reservationDTO, user)).isEmpty();
+        } finally {
+            jdbcTemplate.update("DELETE FROM reservation_holds WHERE id = ?", otherHoldId);
+        }
+
+        ReservationHold reservationHold = reservationService.holdReservation(reservationDTO, user).orElseThrow();
+        reservationService.releaseHold(reservationHold);
+    }
+
+    // テストで登録した予約・下書き・受信したイベントを削除し、予約数と空室状況を元に戻す
+    @AfterEach
+    public void cleanUp() {
+        String sessionIdPattern = sessionIdPrefix + "%";
+
+        List<Map<String, Object>> counts = jdbcTemplate.queryForList(
+                "SELECT house_id, COUNT(*) AS count FROM reservations WHERE payment_intent_id LIKE ? GROUP BY house_id",
+                "pi_" + sessionIdPattern);
+
+        for (Map<String, Object> count : counts) {
+            jdbcTemplate.update("UPDATE house_stats SET reservation_count = reservation_count - ? WHERE house_id = ?",
+                    count.get("count"), count.get("house_id"));
+        }
+
+        jdbcTemplate.update("DELETE FROM reservations WHERE payment_intent_id LIKE ?", "pi_" + sessionIdPattern);
+        jdbcTemplate.update("DELETE FROM reservation_drafts WHERE session_id LIKE ?", sessionIdPattern);
+        jdbcTemplate.update("DELETE FROM webhook_inbox WHERE event_id LIKE ?", "evt_" + sessionIdPattern);
+
+        houseAvailabilityIndex.rebuild();
+    }
+
+    // このテストで使うStripeのセッションのid（予約のPaymentIntentのidは"pi_" + セッションのid）
+    private String newSessionId() {
+        return sessionIdPrefix + UUID.randomUUID();
+    }
+
+    // 指定した状態で、指定した日数前に更新されたイベントを保存する
+    private String insertInboxEvent(String status, int daysAgo) {
+        String eventId = newEventId();
+
+        jdbcTemplate.update("INSERT INTO webhook_inbox (event_id, event_type, payload, status, updated_at) "
+                + "VALUES (?, 'checkout.session.completed', '{}', ?, NOW() - INTERVAL ? DAY)", eventId, status, daysAgo);
+
+        return eventId;
+    }
+
+    private int countInboxEvents(String eventId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM webhook_inbox WHERE event_id = ?", Integer.class, eventId);
+    }
+
+    private String newEventId() {
+        return "evt_" + sessionIdPrefix + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.samuraitravel.load;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.repository.HouseRepository;
+import com.example.samuraitravel.repository.ReservationRepository;
+import com.example.samuraitravel.service.HouseAvailabilityIndex;
+import com.example.samuraitravel.support.LocalStripeServer;
+import com.example.samuraitravel.support.LocalStripeServerConfig;
+
+/*
+ * 予約の流れ（予約フォームの送信 → 予約内容の確認（Stripeのセッション作成） → 決済完了のWebhook → 予約の登録）の負荷試験
+ * StripeのAPIはstripe-stubプロファイルのLocalStripeServerで置き換え、N人の仮想ユーザーが並行して予約する
+ * 通常のテストでは実行せず、mvn test -Pload-test -Dload.users=50 -Dload.iterations=10 のように実行する
+ * 作成した予約などのデータはテストの終了後に削除する
+ * すべてのリクエストが同じIPアドレスから送られるため、IPアドレスごとのリクエスト数の制限は負荷に収まるよう引き上げる
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({ "test", "stripe-stub" })
+@Import(LocalStripeServerConfig.class)
+@TestPropertySource(properties = {
+        "rate-limit.webhook.ip.capacity=1000000",
+        "rate-limit.login.ip.capacity=1000000",
+        "rate-limit.login.email.capacity=1000000",
+        "rate-limit.signup.ip.capacity=1000000",
+        "rate-limit.signup.email.capacity=1000000" })
+@Tag("load")
+public class CheckoutFunnelLoadTest {
+    private static final int USERS = Integer.getInteger("load.users", 20);
+    private static final int ITERATIONS = Integer.getInteger("load.iterations", 5);
+    private static final Duration RESERVATION_TIMEOUT = Duration.ofSeconds(60);
+
+    // 仮想ユーザーが交互に使用する会員（どちらも有効な会員）
+    private static final List<String> EMAILS = List.of("taro.samurai@example.com", "hanako.samurai@example.com");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserDetailsService userDetailsService;
+
+    @Autowired
+    private HouseRepository houseRepository;
+
+    @Autowired
+    private ReservationRepository reservationRepository;
+
+    @Autowired
+    private HouseAvailabilityIndex houseAvailabilityIndex;
+
+    @Autowired
+    private LocalStripeServer localStripeServer;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicInteger nextEvent = new AtomicInteger();
+
+    @Test
+    public void 予約の流れを並行して実行しスループットとレイテンシを計測する() throws Exception {
+        List<UserDetails> userDetailsList = EMAILS.stream().map(userDetailsService::loadUserByUsername).toList();
+        List<Integer> houseIds = houseRepository.findAll().stream().map(House::getId).sorted().toList();
+
+        LatencyRecorder inputLatency = new LatencyRecorder("input");
+        LatencyRecorder confirmLatency = new LatencyRecorder("confirm");
+        LatencyRecorder webhookLatency = new LatencyRecorder("webhook");
+        LatencyRecorder reservedLatency = new LatencyRecorder("reserved");
+        LatencyRecorder funnelLatency = new LatencyRecorder("funnel");
+
+        // 決済（PaymentIntent）のid → Webhookを送信した時刻・予約内容の確認を開始した時刻
+        Map<String, long[]> pendingPayments = new ConcurrentHashMap<>();
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+
+        CountDownLatch startGate = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(USERS);
+        long startedAt;
+
+        // 負荷をかけている間も並行して予約の登録を確認し、Webhookの送信から予約の登録までの時間を計測する
+        Thread poller = Thread.ofVirtual().start(() -> pollReservations(pendingPayments, finished, reservedLatency, funnelLatency));
+
+        try (ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int user = 0; user < USERS; user++) {
+                UserDetails userDetails = userDetailsList.get(user % userDetailsList.size());
+
+                executorService.submit(() -> {
+                    try {
+                        startGate.await();
+
+                        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+                            try {
+                                runFunnel(userDetails, houseIds, inputLatency, confirmLatency, webhookLatency, pendingPayments);
+                            } catch (Exception | AssertionError e) {
+                                errors.add(e.getClass().getSimpleName() + ": " + e.getMessage());
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finished.countDown();
+                    }
+                });
+            }
+
+            startedAt = System.nanoTime();
+            startGate.countDown();
+            assertThat(finished.await(10, TimeUnit.MINUTES)).isTrue();
+        }
+
+        poller.join();
+
+        long elapsedNanos = System.nanoTime() - startedAt;
+        int completed = funnelLatency.count();
+
+        System.out.println("=== 予約の流れの負荷試験（仮想ユーザー" + USERS + "人 × " + ITERATIONS + "回） ===");
+        System.out.println(String.format("完了 %d件 / %.2f秒、スループット %.1f件/秒", completed, elapsedNanos / 1e9,
+                completed / (elapsedNanos / 1e9)));
+        System.out.println(String.format("Stripeの呼び出し：セッション作成 %d回、セッション取得 %d回",
+                localStripeServer.getCreateCount(), localStripeServer.getRetrieveCount()));
+
+        for (LatencyRecorder recorder : List.of(inputLatency, confirmLatency, webhookLatency, reservedLatency, funnelLatency)) {
+            System.out.println(recorder.summary());
+        }
+
+        errors.stream().distinct().limit(10).forEach(error -> System.out.println("エラー：" + error));
+
+        assertThat(errors).isEmpty();
+        assertThat(pendingPayments).isEmpty();
+        assertThat(completed).isEqualTo(USERS * ITERATIONS);
+    }
+
+    private void runFunnel(UserDetails userDetails, List<Integer> houseIds, LatencyRecorder inputLatency,
+            LatencyRecorder confirmLatency, LatencyRecorder webhookLatency, Map<String, long[]> pendingPayments)
+            throws Exception {
+        MockHttpSession mockHttpSession = new MockHttpSession();
+        long[] slot = nextFreeSlot(houseIds);
+        int houseId = (int) slot[0];
+        LocalDate checkinDate = LocalDate.ofEpochDay(slot[1]);
+
+        long funnelStartedAt = System.nanoTime();
+
+        // 予約フォームを送信する
+        MvcResult inputResult = mockMvc.perform(post("/houses/{id}/reservations/input", houseId)
+                .with(user(userDetails))
+                .with(csrf())
+                .session(mockHttpSession)
+                .param("checkinDate", checkinDate.toString())
+                .param("checkoutDate", checkinDate.plusDays(1).toString())
+                .param("numberOfPeople", "1"))
+                .andReturn();
+        inputLatency.record(System.nanoTime() - funnelStartedAt);
+        assertThat(inputResult.getResponse().getRedirectedUrl()).isEqualTo("/reservations/confirm");
+
+        // 予約内容の確認ページを表示する（日程の仮押さえとStripeのセッション作成）
+        long confirmStartedAt = System.nanoTime();
+        MvcResult confirmResult = mockMvc.perform(get("/reservations/confirm")
+                .with(user(userDetails))
+                .session(mockHttpSession))
+                .andReturn();
+        confirmLatency.record(System.nanoTime() - confirmStartedAt);
+        assertThat(confirmResult.getResponse().getStatus()).isEqualTo(200);
+
+        String sessionId = (String) confirmResult.getModelAndView().getModel().get("sessionId");
+        assertThat(sessionId).isNotBlank();
+
+        // 決済完了のWebhookを送信する
+        String payload = LocalStripeServer.checkoutSessionCompletedEvent(
+                "evt_" + localStripeServer.getSessionIdPrefix() + nextEvent.incrementAndGet(), sessionId);
+        long webhookStartedAt = System.nanoTime();
+        MvcResult webhookResult = mockMvc.perform(post("/stripe/webhook")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Stripe-Signature", LocalStripeServer.signatureHeader(payload, LocalStripeServer.WEBHOOK_SECRET))
+                .content(payload))
+                .andReturn();
+        long webhookFinishedAt = System.nanoTime();
+        webhookLatency.record(webhookFinishedAt - webhookStartedAt);
+        assertThat(webhookResult.getResponse().getStatus()).isEqualTo(200);
+
+        pendingPayments.put("pi_" + sessionId, new long[] { webhookFinishedAt, funnelStartedAt });
+    }
+
+    // すべての仮想ユーザーが終了し、登録待ちの予約がなくなる（または待ち時間の上限に達する）まで予約の登録を確認する
+    private void pollReservations(Map<String, long[]> pendingPayments, CountDownLatch finished, LatencyRecorder reservedLatency,
+            LatencyRecorder funnelLatency) {
+        long deadline = Long.MAX_VALUE;
+
+        while (finished.getCount() > 0 || (!pendingPayments.isEmpty() && System.nanoTime() < deadline)) {
+            if (finished.getCount() == 0 && deadline == Long.MAX_VALUE) {
+                deadline = System.nanoTime() + RESERVATION_TIMEOUT.toNanos();
+            }
+
+            for (Map.Entry<String, long[]> entry : pendingPayments.entrySet()) {
+                if (reservationRepository.existsByPaymentIntentId(entry.getKey())) {
+                    long now = System.nanoTime();
+                    reservedLatency.record(now - entry.getValue()[0]);
+                    funnelLatency.record(now - entry.getValue()[1]);
+                    pendingPayments.remove(entry.getKey());
+                }
+            }
+
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // 仮想ユーザー同士の日程が重ならないよう、民宿と1泊の日程の組み合わせ（[民宿のid, チェックイン日]）を順に割り当てる
+    // 既存の予約と重なる組み合わせは飛ばす
+    private long[] nextFreeSlot(List<Integer> houseIds) {
+        LocalDate firstDate = LocalDate.now().plusDays(1);
+        int slotsPerHouse = HouseAvailabilityIndex.HORIZON_DAYS / 2 - 1;
+
+        while (true) {
+            int slot = nextSlot.getAndIncrement();
+
+            if (slot >= houseIds.size() * slotsPerHouse) {
+                throw new IllegalStateException("空いている日程が足りません。仮想ユーザー数または繰り返し回数を減らしてください。");
+            }
+
+            Integer houseId = houseIds.get(slot % houseIds.size());
+            LocalDate checkinDate = firstDate.plusDays((slot / houseIds.size()) * 2L);
+
+            if (houseAvailabilityIndex.isAvailable(houseId, checkinDate, checkinDate.plusDays(1))) {
+                return new long[] { houseId, checkinDate.toEpochDay() };
+            }
+        }
+    }
+
+    // 負荷試験で作成した予約・下書き・Webhookイベントを削除し、予約件数と空き状況を元に戻す
+    @AfterEach
+    public void cleanUp() {
+        String sessionIdPattern = localStripeServer.getSessionIdPrefix() + "%";
+
+        List<Map<String, Object>> counts = jdbcTemplate.queryForList(
+                "SELECT house_id, COUNT(*) AS count FROM reservations WHERE payment_intent_id LIKE ? GROUP BY house_id",
+                "pi_" + sessionIdPattern);
+
+        for (Map<String, Object> count : counts) {
+            jdbcTemplate.update("UPDATE house_stats SET reservation_count = reservation_count - ? WHERE house_id = ?",
+                    count.get("count"), count.get("house_id"));
+        }
+
+        jdbcTemplate.update("DELETE FROM reservations WHERE payment_intent_id LIKE ?", "pi_" + sessionIdPattern);
+        jdbcTemplate.update("DELETE FROM reservation_drafts WHERE session_id LIKE ?", sessionIdPattern);
+        jdbcTemplate.update("DELETE FROM webhook_inbox WHERE event_id LIKE ?", "evt_" + sessionIdPattern);
+
+        houseAvailabilityIndex.rebuild();
+    }
+
+    // 所要時間を記録し、パーセンタイルを求めるクラス
+    private static class LatencyRecorder {
+        private final String name;
+        private final ConcurrentLinkedQueue<Long> nanos = new ConcurrentLinkedQueue<>();
+
+        LatencyRecorder(String name) {
+            this.name = name;
+        }
+
+        void record(long elapsedNanos) {
+            nanos.add(elapsedNanos);
+        }
+
+        int count() {
+            return nanos.size();
+        }
+
+        String summary() {
+            List<Long> sorted = new ArrayList<>(nanos);
+            sorted.sort(null);
+
+            if (sorted.isEmpty()) {
+                return String.format("%-8s n=0", name);
+            }
+
+            return String.format("%-8s n=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms", name, sorted.size(),
+                    percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                    sorted.get(sorted.size() - 1) / 1e6);
+        }
+
+        private static double percentile(List<Long> sorted, double quantile) {
+            int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+
+            return sorted.get(Math.max(index, 0)) / 1e6;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.samuraitravel.service;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.samuraitravel.entity.House;
+import com.example.samuraitravel.repository.HouseRepository;
+
+/*
+ * HouseSearchIndexの単体テスト（データベースを使わず、put・deleteで登録した民宿を検索する）
+ */
+public class HouseSearchIndexTest {
+    private HouseSearchIndex houseSearchIndex;
+
+    @BeforeEach
+    public void setUp() {
+        houseSearchIndex = new HouseSearchIndex(null);
+        houseSearchIndex.put(house(3, "SAMURAIの宿", "東京都千代田区神田練塀町300番地"));
+        houseSearchIndex.put(house(1, "サムライ民宿", "北海道札幌市北区"));
+        houseSearchIndex.put(house(2, "民宿 海辺", "沖縄県那覇市"));
+    }
+
+    @Test
+    public void キーワードを民宿名に含む民宿のidを昇順で返す() {
+        assertThat(houseSearchIndex.findIdsByNameLike("民宿")).containsExactly(1, 2);
+        assertThat(houseSearchIndex.findIdsByNameLike("宿")).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    public void 住所を含めて検索する場合のみ住所に一致する民宿を返す() {
+        assertThat(houseSearchIndex.findIdsByNameLike("札幌")).isEmpty();
+        assertThat(houseSearchIndex.findIdsByNameLikeOrAddressLike("札幌")).containsExactly(1);
+    }
+
+    @Test
+    public void N_gramをすべて含んでも連続していない民宿は返さない() {
+        // 「東京 京都」は「東京都」のバイグラム（東京・京都）をすべて含むが、「東京都」は含まない
+        houseSearchIndex.put(house(4, "東京 京都", "大阪府大阪市"));
+
+        assertThat(houseSearchIndex.findIdsByNameLike("東京都")).isEmpty();
+        assertThat(houseSearchIndex.findIdsByNameLikeOrAddressLike("東京都")).containsExactly(3);
+    }
+
+    @Test
+    public void 全角と半角や大文字と小文字の違いを区別しない() {
+        assertThat(houseSearchIndex.findIdsByNameLike("samurai")).containsExactly(3);
+        assertThat(houseSearchIndex.findIdsByNameLike("ＳＡＭＵＲＡＩ")).containsExactly(3);
+        assertThat(houseSearchIndex.findIdsByNameLikeOrAddressLike("３００")).containsExactly(3);
+    }
+
+    @Test
+    public void 更新後は古い民宿名では検索されない() {
+        houseSearchIndex.put(house(1, "ゲストハウス侍", "北海道札幌市北区"));
+
+        assertThat(houseSearchIndex.findIdsByNameLike("サムライ")).isEmpty();
+        assertThat(houseSearchIndex.findIdsByNameLike("ゲストハウス")).containsExactly(1);
+        assertThat(houseSearchIndex.findIdsByNameLike("民宿")).containsExactly(2);
+    }
+
+    @Test
+    public void 削除した民宿は検索されない() {
+        houseSearchIndex.delete(2);
+
+        assertThat(houseSearchIndex.findIdsByNameLike("民宿")).containsExactly(1);
+        assertThat(houseSearchIndex.findIdsByNameLikeOrAddressLike("那覇")).isEmpty();
+    }
+
+    @Test
+    public void 空のキーワードでは何も返さない() {
+        assertThat(houseSearchIndex.findIdsByNameLike("")).isEmpty();
+        assertThat(houseSearchIndex.findIdsByNameLike(null)).isEmpty();
+    }
+
+    @Test
+    public void 作り直しの読み込み中に登録された民宿は古い一覧で上書きされない() throws Exception {
+        HouseRepository houseRepository = mock(HouseRepository.class);
+        HouseSearchIndex index = new HouseSearchIndex(houseRepository);
+        CompletableFuture<Void> concurrentPut = new CompletableFuture<>();
+
+        // 読み込みの途中で、別のスレッドがコミット後の民宿の登録を行う（読み込んだ一覧にはその民宿を含まない）
+        when(houseRepository.findAll()).thenAnswer(invocation -> {
+            CompletableFuture.runAsync(() -> index.put(house(9, "新しい民宿", "京都府京都市")))
+                    .whenComplete((result, e) -> concurrentPut.complete(null));
+            Thread.sleep(100);
+
+            return List.of(house(1, "サムライ民宿", "北海道札幌市北区"));
+        });
+
+        index.rebuild();
+        concurrentPut.get(5, TimeUnit.SECONDS);
+
+        assertThat(index.findIdsByNameLike("民宿")).containsExactly(1, 9);
+    }
+
+    private static House house(Integer id, String name, String address) {
+        House house = new House();
+        house.setId(id);
+        house.setName(name);
+        house.setAddress(address);
+
+        return house;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.samuraitravel.support;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/*
+ * テストで発行されたSQLの件数を計測するためのヘルパー
+ * 統計情報はアプリケーション全体で共有されるため、計測の直前にリセットする
+ */
+public final class HibernateStatistics {
+    private HibernateStatistics() {
+    }
+
+    // Hibernateの統計情報を有効にしてリセットする
+    public static Statistics reset(EntityManagerFactory entityManagerFactory) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        return statistics;
+    }
+}
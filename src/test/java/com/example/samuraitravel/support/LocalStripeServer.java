@@ -0,0 +1,167 @@
+package com.example.samuraitravel.support;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.stripe.Stripe;
+import com.stripe.net.Webhook;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * テスト用にStripeのAPIを置き換えるローカルサーバー
+ * Checkoutセッションの作成と取得（payment_intentの展開を含む）のみに応答し、Stripe.overrideApiBaseで接続先を切り替える
+ * 作成時に送信されたPaymentIntentのメタデータを保持し、取得時にそのまま返す
+ */
+public class LocalStripeServer {
+    // stripe-stubプロファイル（application-stripe-stub.properties）と同じ値
+    public static final String API_KEY = "sk_test_local";
+    public static final String WEBHOOK_SECRET = "whsec_test_local";
+
+    private static final String METADATA_PREFIX = "payment_intent_data[metadata][";
+
+    private final HttpServer server;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    // 同じデータベースで繰り返し実行しても決済（PaymentIntent）のidが重複しないよう、起動ごとに異なる接頭辞を付ける
+    private final String sessionIdPrefix = "cs_test_local_" + UUID.randomUUID().toString().substring(0, 8) + "_";
+
+    // セッションのid → PaymentIntentのメタデータ
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+
+    // 指定した回数だけ、次のリクエストにエラーで応答する
+    private final AtomicInteger remainingFailures = new AtomicInteger();
+    private volatile int failureStatus = 500;
+
+    private final AtomicInteger createCount = new AtomicInteger();
+    private final AtomicInteger retrieveCount = new AtomicInteger();
+
+    public LocalStripeServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/checkout/sessions", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    public void start() {
+        server.start();
+        Stripe.overrideApiBase("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        Stripe.overrideApiBase(Stripe.LIVE_API_BASE);
+    }
+
+    // 取得用のセッションを登録する
+    public void registerSession(String sessionId, Map<String, String> metadata) {
+        sessions.put(sessionId, metadata);
+    }
+
+    public void failNext(int count, int status) {
+        failureStatus = status;
+        remainingFailures.set(count);
+    }
+
+    public int getCreateCount() {
+        return createCount.get();
+    }
+
+    public int getRetrieveCount() {
+        return retrieveCount.get();
+    }
+
+    public String getSessionIdPrefix() {
+        return sessionIdPrefix;
+    }
+
+    // Stripeから送信されるWebhookと同じ形式の署名ヘッダーを作成する
+    public static String signatureHeader(String payload, String webhookSecret) throws Exception {
+        long timestamp = Webhook.Util.getTimeNow();
+        String signature = Webhook.Util.computeHmacSha256(webhookSecret, timestamp + "." + payload);
+
+        return "t=" + timestamp + ",v1=" + signature;
+    }
+
+    // checkout.session.completedイベントのJSONを作成する
+    public static String checkoutSessionCompletedEvent(String eventId, String sessionId) {
+        return "{\"id\":\"" + eventId + "\",\"object\":\"event\",\"api_version\":\"" + Stripe.API_VERSION + "\","
+                + "\"type\":\"checkout.session.completed\","
+                + "\"data\":{\"object\":{\"id\":\"" + sessionId + "\",\"object\":\"checkout.session\","
+                + "\"payment_intent\":\"pi_" + sessionId + "\"}}}";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        if (remainingFailures.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+            String type = failureStatus >= 500 ? "api_error" : "invalid_request_error";
+            respond(exchange, failureStatus, "{\"error\":{\"type\":\"" + type + "\",\"message\":\"Injected failure\"}}");
+            return;
+        }
+
+        if ("POST".equals(exchange.getRequestMethod())) {
+            createCount.incrementAndGet();
+            String sessionId = sessionIdPrefix + sequence.incrementAndGet();
+            sessions.put(sessionId, parseMetadata(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+            respond(exchange, 200, "{\"id\":\"" + sessionId + "\",\"object\":\"checkout.session\"}");
+            return;
+        }
+
+        retrieveCount.incrementAndGet();
+        String path = exchange.getRequestURI().getPath();
+        String sessionId = path.substring(path.lastIndexOf('/') + 1);
+        Map<String, String> metadata = sessions.get(sessionId);
+
+        if (metadata == null) {
+            respond(exchange, 404, "{\"error\":{\"type\":\"invalid_request_error\",\"message\":\"No such checkout.session\"}}");
+            return;
+        }
+
+        String metadataJson = metadata.entrySet().stream()
+                .map(entry -> "\"" + entry.getKey() + "\":\"" + entry.getValue() + "\"")
+                .collect(Collectors.joining(",", "{", "}"));
+
+        respond(exchange, 200, "{\"id\":\"" + sessionId + "\",\"object\":\"checkout.session\","
+                + "\"payment_intent\":{\"id\":\"pi_" + sessionId + "\",\"object\":\"payment_intent\",\"metadata\":" + metadataJson + "}}");
+    }
+
+    // フォーム形式のリクエストボディからpayment_intent_data[metadata][キー]=値を取り出す
+    private static Map<String, String> parseMetadata(String body) {
+        Map<String, String> metadata = new HashMap<>();
+
+        for (String pair : body.split("&")) {
+            int separator = pair.indexOf('=');
+
+            if (separator < 0) {
+                continue;
+            }
+
+            String key = URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8);
+
+            if (key.startsWith(METADATA_PREFIX) && key.endsWith("]")) {
+                metadata.put(key.substring(METADATA_PREFIX.length(), key.length() - 1),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        return metadata;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.samuraitravel.support;
+
+import java.io.IOException;
+
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
+
+/*
+ * stripe-stubプロファイルで、StripeのAPIの代わりにLocalStripeServerを起動するための設定
+ * 使用するテストクラスで@ActiveProfilesにstripe-stubを追加し、このクラスを@Importする
+ */
+@TestConfiguration(proxyBeanMethods = false)
+@Profile("stripe-stub")
+public class LocalStripeServerConfig {
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public LocalStripeServer localStripeServer() throws IOException {
+        return new LocalStripeServer();
+    }
+}